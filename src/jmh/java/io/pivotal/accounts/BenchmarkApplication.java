@@ -0,0 +1,79 @@
+package io.pivotal.accounts;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+
+import io.pivotal.accounts.config.CacheConfig;
+import io.pivotal.accounts.config.CurrentUser;
+import io.pivotal.accounts.config.MetricsConfig;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.service.AccountCacheInvalidator;
+import io.pivotal.accounts.service.AccountMetrics;
+import io.pivotal.accounts.service.AccountService;
+import io.pivotal.accounts.service.CurrencyConverter;
+import io.pivotal.accounts.service.IdempotencyStore;
+import io.pivotal.accounts.service.OptimisticRetry;
+import io.pivotal.accounts.service.PayloadLog;
+import io.pivotal.accounts.service.ReadYourWrites;
+
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+/**
+ * The service layer of the accounts service, without web, discovery or
+ * messaging, running against an embedded HSQLDB for the benchmarks.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@Import({ CacheConfig.class, MetricsConfig.class, AccountService.class, AccountCacheInvalidator.class,
+        OptimisticRetry.class, AccountMetrics.class, PayloadLog.class, ReadYourWrites.class,
+        IdempotencyStore.class, CurrencyConverter.class })
+public class BenchmarkApplication {
+
+    public static final String USER_ID = "benchmark-user";
+
+    /**
+     * Starts the context and authenticates all threads as {@link #USER_ID},
+     * which the repository queries scope accounts by.
+     */
+    public static ConfigurableApplicationContext start(String database) {
+        System.setProperty("spring.cloud.bootstrap.enabled", "false");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(BenchmarkApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=jdbc:hsqldb:mem:" + database,
+                        "spring.cloud.config.enabled=false",
+                        "spring.sleuth.enabled=false",
+                        "eureka.client.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_GLOBAL);
+        Jwt jwt = new Jwt("benchmark", Instant.now(), Instant.now().plusSeconds(86400),
+                Collections.singletonMap("alg", "none"),
+                Collections.singletonMap(CurrentUser.USER_ID_CLAIM, USER_ID));
+        SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+        return context;
+    }
+
+    public static Account account(AccountType type, BigDecimal balance) {
+        Account account = new Account();
+        account.setUserid(USER_ID);
+        account.setName("benchmark " + type);
+        account.setType(type);
+        account.setCreationdate(new Date());
+        account.setOpenbalance(balance);
+        account.setBalance(balance);
+        account.setCurrency("USD");
+        return account;
+    }
+}
@@ -0,0 +1,58 @@
+package io.pivotal.accounts.config;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+/**
+ * Benchmarks of the scope to authority mapping done for every request, the
+ * per-request mapping it replaced against the shared authority sets. Compare
+ * the <code>gc.alloc.rate.norm</code> of the two.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GrantedAuthoritiesBenchmark {
+
+	private GrantedAuthoritiesConverter converter;
+
+	private Jwt jwt;
+
+	@Setup
+	public void setUp() {
+		converter = new GrantedAuthoritiesConverter(new String[] { "account" }, 1024);
+		// a JSON array claim as parsed from a token
+		Collection<String> scope = new ArrayList<>(Arrays.asList("openid", "account", "bank.read"));
+		jwt = new Jwt("token", Instant.now(), Instant.now().plusSeconds(3600),
+				Collections.singletonMap("alg", "RS256"), Collections.singletonMap("scope", scope));
+	}
+
+	@Benchmark
+	public Collection<GrantedAuthority> perRequest() {
+		Collection<String> scopes = (Collection<String>) jwt.getClaims().get("scope");
+		return scopes.stream().filter(scope -> !scope.equals("openid"))
+				.map(scope -> new SimpleGrantedAuthority("ROLE_" + scope.toUpperCase().replaceAll("\\.", "_")))
+				.collect(Collectors.toSet());
+	}
+
+	@Benchmark
+	public Collection<GrantedAuthority> shared() {
+		return converter.extractAuthorities(jwt);
+	}
+}
@@ -0,0 +1,92 @@
+package io.pivotal.accounts.domain;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.pivotal.accounts.BenchmarkApplication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Benchmarks of the JSON (de)serialization of accounts and transactions, with
+ * an object mapper configured the way Spring MVC configures it.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonBenchmark {
+
+	private ObjectWriter accountWriter;
+
+	private ObjectReader accountReader;
+
+	private ObjectWriter transactionWriter;
+
+	private ObjectReader transactionReader;
+
+	private Account account;
+
+	private Transaction transaction;
+
+	private byte[] accountJson;
+
+	private byte[] transactionJson;
+
+	@Setup
+	public void setUp() throws IOException {
+		ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+		accountWriter = mapper.writerFor(Account.class);
+		accountReader = mapper.readerFor(Account.class);
+		transactionWriter = mapper.writerFor(Transaction.class);
+		transactionReader = mapper.readerFor(Transaction.class);
+
+		account = BenchmarkApplication.account(AccountType.CURRENT, new BigDecimal("1234.56"));
+		account.setId(42);
+		account.setVersion(7L);
+		transaction = new Transaction();
+		transaction.setTransactionId(1001);
+		transaction.setAccountId(42);
+		transaction.setType(TransactionType.DEBIT);
+		transaction.setAmount(new BigDecimal("12.34"));
+		transaction.setCurrency("USD");
+		transaction.setDescription("benchmark");
+		transaction.setDate(new Date());
+
+		accountJson = accountWriter.writeValueAsBytes(account);
+		transactionJson = transactionWriter.writeValueAsBytes(transaction);
+	}
+
+	@Benchmark
+	public byte[] serializeAccount() throws IOException {
+		return accountWriter.writeValueAsBytes(account);
+	}
+
+	@Benchmark
+	public Account deserializeAccount() throws IOException {
+		return accountReader.readValue(accountJson);
+	}
+
+	@Benchmark
+	public byte[] serializeTransaction() throws IOException {
+		return transactionWriter.writeValueAsBytes(transaction);
+	}
+
+	@Benchmark
+	public Transaction deserializeTransaction() throws IOException {
+		return transactionReader.readValue(transactionJson);
+	}
+}
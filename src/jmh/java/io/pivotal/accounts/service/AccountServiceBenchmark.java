@@ -0,0 +1,164 @@
+package io.pivotal.accounts.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.pivotal.accounts.BenchmarkApplication;
+import io.pivotal.accounts.config.CacheConfig;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cache.Cache;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Benchmarks of the AccountService read, save and transaction paths against
+ * an embedded HSQLDB.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AccountServiceBenchmark {
+
+	private ConfigurableApplicationContext context;
+
+	private AccountService service;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private Cache accountCache;
+
+	private Integer accountId;
+
+	private Integer lastSeededId;
+
+	private Transaction debit;
+
+	private Transaction credit;
+
+	private List<Transaction> debitThenLargerCredit;
+
+	private List<Transaction> batch;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = BenchmarkApplication.start("accountservice");
+		service = context.getBean(AccountService.class);
+		jdbcTemplate = context.getBean(JdbcTemplate.class);
+		accountCache = context.getBean(org.springframework.cache.CacheManager.class).getCache(CacheConfig.ACCOUNTS);
+
+		accountId = service.saveAccount(BenchmarkApplication.account(AccountType.CURRENT, new BigDecimal("1000000.00")));
+		lastSeededId = accountId;
+		for (int i = 0; i < 9; i++) {
+			AccountType type = i % 2 == 0 ? AccountType.SAVINGS : AccountType.CURRENT;
+			lastSeededId = service.saveAccount(BenchmarkApplication.account(type, new BigDecimal("500.00")));
+		}
+
+		debit = transaction(accountId, TransactionType.DEBIT, "1.00");
+		credit = transaction(accountId, TransactionType.CREDIT, "1.00");
+		// each call must change the balance, else the coalesced and batch writes are skipped
+		debitThenLargerCredit = Arrays.asList(debit, transaction(accountId, TransactionType.CREDIT, "2.00"));
+		batch = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			Integer id = accountId + (i % 10);
+			batch.add(transaction(id, TransactionType.CREDIT, "3.00"));
+			batch.add(transaction(id, TransactionType.DEBIT, "2.00"));
+		}
+	}
+
+	/**
+	 * Keeps the tables at their seeded size, and the balances the
+	 * transactions raise at their seeded amounts, across iterations.
+	 */
+	@TearDown(Level.Iteration)
+	public void deleteCreatedRows() {
+		jdbcTemplate.update("delete from account where id > ?", lastSeededId);
+		jdbcTemplate.update("update account set balance = openbalance");
+		jdbcTemplate.update("delete from ledger");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Account findAccountCached() {
+		return service.findAccount(accountId);
+	}
+
+	@Benchmark
+	public Account findAccountUncached() {
+		accountCache.evict(accountId);
+		return service.findAccount(accountId);
+	}
+
+	@Benchmark
+	public List<Account> findAccounts() {
+		return service.findAccounts();
+	}
+
+	@Benchmark
+	public List<Account> findAccountsByType() {
+		return service.findAccountsByType(AccountType.SAVINGS);
+	}
+
+	@Benchmark
+	public Integer saveAccount() {
+		return service.saveAccount(BenchmarkApplication.account(AccountType.SAVINGS, new BigDecimal("100.00")));
+	}
+
+	/**
+	 * A debit and a credit of the same amount on the single-statement path.
+	 */
+	@Benchmark
+	public void debitThenCredit(Blackhole blackhole) {
+		blackhole.consume(service.processTransaction(debit));
+		blackhole.consume(service.processTransaction(credit));
+	}
+
+	/**
+	 * A debit and a larger credit applied as one coalesced write, which nets
+	 * to a change of the balance so the write is not skipped.
+	 */
+	@Benchmark
+	public List<TransactionStatus> debitThenCreditCoalesced() {
+		return service.processCoalesced(accountId, debitThenLargerCredit);
+	}
+
+	/**
+	 * 100 transactions over 10 accounts in one database transaction, which
+	 * raise every balance so all 10 updates are written.
+	 */
+	@Benchmark
+	public List<TransactionStatus> batchOfHundred() {
+		return service.processTransactions(batch);
+	}
+
+	private static Transaction transaction(Integer accountId, TransactionType type, String amount) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(accountId);
+		transaction.setType(type);
+		transaction.setAmount(new BigDecimal(amount));
+		transaction.setCurrency("USD");
+		return transaction;
+	}
+}
@@ -0,0 +1,76 @@
+package io.pivotal.accounts.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of applying a run of transactions to a balance in memory, as
+ * the coalesced, batch and journaled paths do, in minor units read from the
+ * {@link Money} each transaction holds and, for comparison, with the
+ * BigDecimal arithmetic it replaced. The gc profiler shows the allocation
+ * per run.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BalanceArithmeticBenchmark {
+
+	private List<Transaction> transactions;
+
+	private BigDecimal balance;
+
+	@Setup
+	public void setUp() {
+		transactions = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			Transaction transaction = new Transaction();
+			transaction.setAccountId(1);
+			transaction.setType(i % 3 == 0 ? TransactionType.CREDIT : TransactionType.DEBIT);
+			transaction.setAmount(new BigDecimal((i % 7 + 1) + ".25"));
+			transactions.add(transaction);
+		}
+		balance = new BigDecimal("1000.00");
+	}
+
+	@Benchmark
+	public BigDecimal applyMinorUnits() {
+		long newBalance = Money.toMinor(balance);
+		for (Transaction transaction : transactions) {
+			long applied = AccountService.apply(newBalance, transaction);
+			if (applied != AccountService.FAILED) {
+				newBalance = applied;
+			}
+		}
+		return Money.toBigDecimal(newBalance);
+	}
+
+	@Benchmark
+	public BigDecimal applyBigDecimal() {
+		BigDecimal newBalance = balance;
+		for (Transaction transaction : transactions) {
+			if (TransactionType.DEBIT.equals(transaction.getType())) {
+				if (newBalance.compareTo(transaction.getAmount()) >= 0) {
+					newBalance = newBalance.subtract(transaction.getAmount());
+				}
+			} else if (transaction.getAmount().compareTo(BigDecimal.ZERO) > 0) {
+				newBalance = newBalance.add(transaction.getAmount());
+			}
+		}
+		return newBalance;
+	}
+}
@@ -0,0 +1,79 @@
+package io.pivotal.accounts.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Sends requests to the service over keep-alive connections.
+ *
+ */
+final class HttpTarget {
+
+	private final String baseUrl;
+
+	HttpTarget(String baseUrl) {
+		this.baseUrl = baseUrl;
+	}
+
+	/**
+	 * Sends the request and reads the whole response, so that the connection
+	 * goes back to the keep-alive pool.
+	 *
+	 * @return the HTTP status code.
+	 */
+	int send(Request request) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + request.path).openConnection();
+		connection.setRequestMethod(request.method);
+		connection.setRequestProperty("Authorization", "Bearer " + request.token);
+		connection.setRequestProperty("Accept", "application/json");
+		if (request.body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setFixedLengthStreamingMode(request.body.length);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(request.body);
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (in != null) {
+			try (InputStream body = in) {
+				byte[] buffer = new byte[4096];
+				while (body.read(buffer) >= 0) {
+					// drain
+				}
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Sends the request and returns the response body.
+	 *
+	 * @throws IOException
+	 *             if the response is not successful.
+	 */
+	byte[] fetch(Request request) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + request.path).openConnection();
+		connection.setRequestMethod(request.method);
+		connection.setRequestProperty("Authorization", "Bearer " + request.token);
+		connection.setRequestProperty("Accept", "application/json");
+		int status = connection.getResponseCode();
+		if (status >= 300) {
+			throw new IOException(request.method + " " + request.path + " returned " + status);
+		}
+		try (InputStream in = connection.getInputStream()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+}
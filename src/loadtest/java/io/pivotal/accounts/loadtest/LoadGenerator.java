@@ -0,0 +1,123 @@
+package io.pivotal.accounts.loadtest;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Drives a scenario against the service and records response times in
+ * microseconds.
+ * <p>
+ * The closed model runs a fixed number of users that each send their next
+ * request as soon as the previous one returns; it measures the capacity of the
+ * service. The open model sends requests at a fixed rate whatever the response
+ * times are, and measures each response time from when the request was due,
+ * not from when a thread became free to send it, so that queueing in front of
+ * a saturated service shows up in the percentiles instead of being hidden by
+ * coordinated omission.
+ * <p>
+ * Requests during the warmup are sent but not recorded.
+ *
+ */
+final class LoadGenerator {
+
+	private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+	private final HttpTarget target;
+
+	private final Duration warmup;
+
+	private final Duration duration;
+
+	LoadGenerator(HttpTarget target, Duration warmup, Duration duration) {
+		this.target = target;
+		this.warmup = warmup;
+		this.duration = duration;
+	}
+
+	LoadResult closed(Scenario scenario, int users) throws InterruptedException {
+		long start = System.nanoTime();
+		long measureFrom = start + warmup.toNanos();
+		long end = measureFrom + duration.toNanos();
+		Run run = new Run(measureFrom);
+		Thread[] threads = new Thread[users];
+		for (int i = 0; i < users; i++) {
+			threads[i] = new Thread(() -> {
+				long now;
+				while ((now = System.nanoTime()) < end) {
+					run.send(scenario.requests.get(), now, now >= measureFrom);
+				}
+			}, "loadtest-user-" + i);
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return run.result(scenario, "closed " + users + " users");
+	}
+
+	LoadResult open(Scenario scenario, int ratePerSecond, int maxConcurrency) throws InterruptedException {
+		ExecutorService senders = Executors.newFixedThreadPool(maxConcurrency);
+		long interval = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+		long start = System.nanoTime();
+		long measureFrom = start + warmup.toNanos();
+		long end = measureFrom + duration.toNanos();
+		Run run = new Run(measureFrom);
+		for (long due = start; due < end; due += interval) {
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			long intended = due;
+			senders.execute(() -> run.send(scenario.requests.get(), intended, intended >= measureFrom));
+		}
+		senders.shutdown();
+		senders.awaitTermination(1, TimeUnit.MINUTES);
+		return run.result(scenario, "open " + ratePerSecond + "/s");
+	}
+
+	private final class Run {
+
+		private final Recorder recorder = new Recorder(HIGHEST_MICROS, 3);
+
+		private final AtomicLong errors = new AtomicLong();
+
+		private final AtomicLong lastResponse = new AtomicLong();
+
+		private final long measureFrom;
+
+		Run(long measureFrom) {
+			this.measureFrom = measureFrom;
+			this.lastResponse.set(measureFrom);
+		}
+
+		void send(Request request, long intendedStart, boolean measured) {
+			boolean ok;
+			try {
+				ok = target.send(request) < 400;
+			} catch (Exception e) {
+				ok = false;
+			}
+			long now = System.nanoTime();
+			if (measured) {
+				recorder.recordValue(Math.min(HIGHEST_MICROS, TimeUnit.NANOSECONDS.toMicros(now - intendedStart)));
+				if (!ok) {
+					errors.incrementAndGet();
+				}
+				lastResponse.accumulateAndGet(now, Math::max);
+			}
+		}
+
+		LoadResult result(Scenario scenario, String model) {
+			Histogram latencies = recorder.getIntervalHistogram();
+			long elapsed = Math.max(duration.toNanos(), lastResponse.get() - measureFrom);
+			return new LoadResult(scenario.name, model, latencies, errors.get(), elapsed);
+		}
+	}
+}
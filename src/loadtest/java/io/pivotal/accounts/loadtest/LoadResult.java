@@ -0,0 +1,51 @@
+package io.pivotal.accounts.loadtest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency distribution and throughput of one scenario run.
+ *
+ */
+final class LoadResult {
+
+	final String scenario;
+
+	final String model;
+
+	final Histogram latencies;
+
+	final long errors;
+
+	final long elapsedNanos;
+
+	LoadResult(String scenario, String model, Histogram latencies, long errors, long elapsedNanos) {
+		this.scenario = scenario;
+		this.model = model;
+		this.latencies = latencies;
+		this.errors = errors;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	double throughput() {
+		return latencies.getTotalCount() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	static String header() {
+		return String.format("%-14s %-22s %9s %10s %9s %9s %9s %9s %7s", "scenario", "model", "requests",
+				"req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-14s %-22s %9d %10.1f %9.2f %9.2f %9.2f %9.2f %7d", scenario, model,
+				latencies.getTotalCount(), throughput(), millis(latencies.getValueAtPercentile(50)),
+				millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+				millis(latencies.getMaxValue()), errors);
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+}
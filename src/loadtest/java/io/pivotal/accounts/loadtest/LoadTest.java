@@ -0,0 +1,209 @@
+package io.pivotal.accounts.loadtest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.pivotal.accounts.AccountsApplication;
+import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Load test of the accounts API. Starts the service in-process on embedded
+ * HSQLDB, trusting a {@link LocalIssuer} instead of UAA, seeds users and
+ * accounts through the API, then runs each scenario under a closed and an
+ * open workload and prints throughput and p50/p99/p99.9 response times.
+ * <p>
+ * Scenarios:
+ * <ul>
+ * <li><code>list</code> GET <code>/accounts</code> as a random user.
+ * <li><code>get</code> GET <code>/accounts/{id}</code> of a random account.
+ * <li><code>transaction</code> POST <code>/accounts/transaction</code>, a
+ * debit or credit on a random account.
+ * <li><code>hot-account</code> POST <code>/accounts/transaction</code>, all on
+ * the same account, to measure contention on a single row.
+ * </ul>
+ * <p>
+ * Options, as system properties:
+ * <ul>
+ * <li><code>loadtest.scenarios</code> scenarios to run (default all).
+ * <li><code>loadtest.model</code> <code>closed</code>, <code>open</code> or
+ * <code>both</code> (default both).
+ * <li><code>loadtest.users</code> concurrent users of the closed model
+ * (default 32).
+ * <li><code>loadtest.rate</code> requests per second of the open model
+ * (default 500).
+ * <li><code>loadtest.max-concurrency</code> requests in flight of the open
+ * model (default 256).
+ * <li><code>loadtest.warmup</code>, <code>loadtest.duration</code> seconds
+ * (default 10 and 30).
+ * <li><code>loadtest.seed-users</code> users to seed, with three accounts each
+ * (default 100).
+ * <li><code>loadtest.service.*</code> properties of the service, e.g.
+ * <code>-Dloadtest.service.accounts.transactions.stripes=8</code>.
+ * </ul>
+ *
+ */
+public final class LoadTest {
+
+	private static final String SERVICE_PROPERTY_PREFIX = "loadtest.service.";
+
+	private static final String[] SCENARIOS = { "list", "get", "transaction", "hot-account" };
+
+	private LoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> scenarios = Arrays.asList(System.getProperty("loadtest.scenarios",
+				String.join(",", SCENARIOS)).split(","));
+		String model = System.getProperty("loadtest.model", "both");
+		int users = Integer.getInteger("loadtest.users", 32);
+		int rate = Integer.getInteger("loadtest.rate", 500);
+		int maxConcurrency = Integer.getInteger("loadtest.max-concurrency", 256);
+		Duration warmup = Duration.ofSeconds(Integer.getInteger("loadtest.warmup", 10));
+		Duration duration = Duration.ofSeconds(Integer.getInteger("loadtest.duration", 30));
+		int seedUsers = Integer.getInteger("loadtest.seed-users", 100);
+
+		try (LocalIssuer issuer = new LocalIssuer(0);
+				ConfigurableApplicationContext service = startService(issuer.getIssuer())) {
+			HttpTarget target = new HttpTarget(
+					"http://127.0.0.1:" + service.getEnvironment().getProperty("local.server.port"));
+			List<User> seeded = seed(target, issuer, seedUsers);
+			LoadGenerator generator = new LoadGenerator(target, warmup, duration);
+
+			List<LoadResult> results = new ArrayList<>();
+			for (String name : scenarios) {
+				Scenario scenario = scenario(name.trim(), seeded);
+				if (!model.equals("open")) {
+					results.add(generator.closed(scenario, users));
+				}
+				if (!model.equals("closed")) {
+					results.add(generator.open(scenario, rate, maxConcurrency));
+				}
+			}
+
+			System.out.println();
+			System.out.println(LoadResult.header());
+			for (LoadResult result : results) {
+				System.out.println(result);
+			}
+		}
+	}
+
+	private static ConfigurableApplicationContext startService(String issuerUri) {
+		System.setProperty("spring.cloud.bootstrap.enabled", "false");
+		List<String> properties = new ArrayList<>(Arrays.asList(
+				"server.port=0",
+				"spring.security.oauth2.resourceserver.jwt.issuer-uri=" + issuerUri,
+				"spring.datasource.url=jdbc:hsqldb:mem:loadtest",
+				"spring.cloud.config.enabled=false",
+				"spring.cloud.stream.default-binder=test",
+				"eureka.client.enabled=false",
+				"management.health.rabbit.enabled=false",
+				"logging.level.root=WARN"));
+		for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+			String key = property.getKey().toString();
+			if (key.startsWith(SERVICE_PROPERTY_PREFIX)) {
+				properties.add(key.substring(SERVICE_PROPERTY_PREFIX.length()) + "=" + property.getValue());
+			}
+		}
+		return new SpringApplicationBuilder(AccountsApplication.class)
+				.properties(properties.toArray(new String[0]))
+				.run();
+	}
+
+	/**
+	 * Creates the users' accounts through the API and reads back their ids.
+	 */
+	private static List<User> seed(HttpTarget target, LocalIssuer issuer, int count) throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		List<User> users = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String token = issuer.mint("loadtest-user-" + i, Duration.ofDays(1), "openid", "account");
+			for (AccountType type : new AccountType[] { AccountType.CURRENT, AccountType.SAVINGS,
+					AccountType.CURRENT }) {
+				int status = target.send(Request.post("/accounts", token, account(type)));
+				if (status != 201) {
+					throw new IOException("POST /accounts returned " + status);
+				}
+			}
+			JsonNode accounts = mapper.readTree(target.fetch(Request.get("/accounts", token)));
+			int[] ids = new int[accounts.size()];
+			for (int a = 0; a < ids.length; a++) {
+				ids[a] = accounts.get(a).get("id").asInt();
+			}
+			users.add(new User(token, ids));
+		}
+		return users;
+	}
+
+	private static Scenario scenario(String name, List<User> users) {
+		switch (name) {
+		case "list":
+			return new Scenario(name, () -> Request.get("/accounts", random(users).token));
+		case "get":
+			return new Scenario(name, () -> {
+				User user = random(users);
+				return Request.get("/accounts/" + user.randomAccount(), user.token);
+			});
+		case "transaction":
+			return new Scenario(name, () -> {
+				User user = random(users);
+				return Request.post("/accounts/transaction", user.token, transaction(user.randomAccount()));
+			});
+		case "hot-account":
+			User hot = users.get(0);
+			return new Scenario(name,
+					() -> Request.post("/accounts/transaction", hot.token, transaction(hot.accounts[0])));
+		default:
+			throw new IllegalArgumentException("Unknown scenario: " + name + ", expected one of "
+					+ Arrays.toString(SCENARIOS));
+		}
+	}
+
+	private static String account(AccountType type) {
+		return "{\"name\":\"load test " + type + "\",\"type\":\"" + type + "\",\"currency\":\"USD\","
+				+ "\"openbalance\":1000000.00,\"balance\":1000000.00,"
+				+ "\"creationdate\":" + System.currentTimeMillis() + "}";
+	}
+
+	/**
+	 * A debit or credit of 1.00, at random, so balances stay around where they
+	 * were seeded.
+	 */
+	private static String transaction(int accountId) {
+		TransactionType type = ThreadLocalRandom.current().nextBoolean() ? TransactionType.DEBIT
+				: TransactionType.CREDIT;
+		return "{\"accountId\":" + accountId + ",\"type\":\"" + type + "\",\"amount\":1.00,\"currency\":\"USD\"}";
+	}
+
+	private static User random(List<User> users) {
+		return users.get(ThreadLocalRandom.current().nextInt(users.size()));
+	}
+
+	private static final class User {
+
+		final String token;
+
+		final int[] accounts;
+
+		User(String token, int[] accounts) {
+			this.token = token;
+			this.accounts = accounts;
+		}
+
+		int randomAccount() {
+			return accounts[ThreadLocalRandom.current().nextInt(accounts.length)];
+		}
+	}
+}
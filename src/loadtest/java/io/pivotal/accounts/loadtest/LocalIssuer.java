@@ -0,0 +1,140 @@
+package io.pivotal.accounts.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.pivotal.accounts.config.CurrentUser;
+
+/**
+ * A stand-in for the OIDC issuer the service trusts. Serves the discovery
+ * document and the JWK set from an embedded HTTP server on the loopback
+ * interface, and mints RS256 tokens signed with its own key, so that
+ * <code>SecurityConfig</code> verifies them exactly as it verifies UAA tokens.
+ *
+ */
+public class LocalIssuer implements AutoCloseable {
+
+	private static final String ISSUER_PATH = "/oauth/token";
+
+	private static final String KEYS_PATH = "/token_keys";
+
+	private final HttpServer server;
+
+	private final RSAKey key;
+
+	private final JWSSigner signer;
+
+	private final String issuer;
+
+	/**
+	 * Starts the issuer.
+	 *
+	 * @param port
+	 *            The port to listen on, 0 for any free port.
+	 */
+	public LocalIssuer(int port) throws IOException, GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair pair = generator.generateKeyPair();
+		this.key = new RSAKey.Builder((RSAPublicKey) pair.getPublic())
+				.privateKey((RSAPrivateKey) pair.getPrivate())
+				.keyID(UUID.randomUUID().toString())
+				.keyUse(KeyUse.SIGNATURE)
+				.algorithm(JWSAlgorithm.RS256)
+				.build();
+		this.signer = new RSASSASigner(key);
+
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		String base = "http://127.0.0.1:" + server.getAddress().getPort();
+		this.issuer = base + ISSUER_PATH;
+		String configuration = "{\"issuer\":\"" + issuer + "\","
+				+ "\"jwks_uri\":\"" + base + KEYS_PATH + "\","
+				+ "\"id_token_signing_alg_values_supported\":[\"RS256\"]}";
+		server.createContext(ISSUER_PATH + "/.well-known/openid-configuration", json(configuration));
+		server.createContext(KEYS_PATH, json(new JWKSet(key.toPublicJWK()).toString()));
+		server.start();
+	}
+
+	/**
+	 * @return the issuer URI, to configure as
+	 *         <code>spring.security.oauth2.resourceserver.jwt.issuer-uri</code>.
+	 */
+	public String getIssuer() {
+		return issuer;
+	}
+
+	/**
+	 * Mints a signed token for the user.
+	 *
+	 * @param userId
+	 *            The user id, as subject and <code>user_id</code> claim.
+	 * @param validity
+	 *            How long the token is valid for.
+	 * @param scopes
+	 *            The scopes granted, e.g. <code>account</code> for
+	 *            <code>ROLE_ACCOUNT</code>.
+	 * @return the serialized token.
+	 */
+	public String mint(String userId, Duration validity, String... scopes) {
+		Instant now = Instant.now();
+		JWTClaimsSet claims = new JWTClaimsSet.Builder()
+				.issuer(issuer)
+				.subject(userId)
+				.claim(CurrentUser.USER_ID_CLAIM, userId)
+				.claim("scope", Arrays.asList(scopes))
+				.issueTime(Date.from(now))
+				.expirationTime(Date.from(now.plus(validity)))
+				.jwtID(UUID.randomUUID().toString())
+				.build();
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+				claims);
+		try {
+			jwt.sign(signer);
+		} catch (JOSEException e) {
+			throw new IllegalStateException("Could not sign token for user: " + userId, e);
+		}
+		return jwt.serialize();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	private static HttpHandler json(String body) {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		return exchange -> {
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		};
+	}
+}
@@ -0,0 +1,33 @@
+package io.pivotal.accounts.loadtest;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single HTTP request of a load test scenario.
+ *
+ */
+final class Request {
+
+	final String method;
+
+	final String path;
+
+	final String token;
+
+	final byte[] body;
+
+	private Request(String method, String path, String token, byte[] body) {
+		this.method = method;
+		this.path = path;
+		this.token = token;
+		this.body = body;
+	}
+
+	static Request get(String path, String token) {
+		return new Request("GET", path, token, null);
+	}
+
+	static Request post(String path, String token, String json) {
+		return new Request("POST", path, token, json.getBytes(StandardCharsets.UTF_8));
+	}
+}
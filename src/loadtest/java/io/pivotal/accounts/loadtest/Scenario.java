@@ -0,0 +1,20 @@
+package io.pivotal.accounts.loadtest;
+
+import java.util.function.Supplier;
+
+/**
+ * A named stream of requests. The supplier is called concurrently by the load
+ * generator threads.
+ *
+ */
+final class Scenario {
+
+	final String name;
+
+	final Supplier<Request> requests;
+
+	Scenario(String name, Supplier<Request> requests) {
+		this.name = name;
+		this.requests = requests;
+	}
+}
@@ -4,6 +4,7 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.circuitbreaker.EnableCircuitBreaker;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -17,6 +18,7 @@ import javax.net.ssl.HttpsURLConnection;
  * @author David Ferreira Pinto
  */
 @SpringBootApplication
+@EnableScheduling
 @EnableDiscoveryClient
 @EnableCircuitBreaker
 public class AccountsApplication {
@@ -0,0 +1,64 @@
+package io.pivotal.accounts.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.support.SimpleCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Arrays;
+
+/**
+ * In-process caches of the accounts service. Each cache is a bounded Caffeine
+ * cache with its own spec, and records statistics so that hits, misses and
+ * evictions are published as <code>cache.*</code> metrics.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    /**
+     * Accounts by id.
+     */
+    public static final String ACCOUNTS = "accounts";
+
+    /**
+     * Account lists by the <code>user_id</code> claim of their owner.
+     */
+    public static final String USER_ACCOUNTS = "userAccounts";
+
+    /**
+     * The <code>userid</code> owning each account id. Ownership never
+     * changes, so entries are only evicted by size.
+     */
+    public static final String ACCOUNT_OWNERS = "accountOwners";
+
+    /**
+     * The currency of each account id, for converting transactions without
+     * a query. Replaced when an account is saved here, and expired like the
+     * accounts so a change saved by another instance is seen within as long.
+     */
+    public static final String ACCOUNT_CURRENCIES = "accountCurrencies";
+
+    @Bean
+    public CacheManager cacheManager(
+            @Value("${accounts.cache.accounts.spec:maximumSize=10000,expireAfterWrite=60s}") String accountsSpec,
+            @Value("${accounts.cache.user-accounts.spec:maximumSize=10000,expireAfterWrite=60s}") String userAccountsSpec,
+            @Value("${accounts.cache.account-owners.spec:maximumSize=100000}") String accountOwnersSpec,
+            @Value("${accounts.cache.account-currencies.spec:maximumSize=100000,expireAfterWrite=60s}") String accountCurrenciesSpec) {
+        SimpleCacheManager cacheManager = new SimpleCacheManager();
+        cacheManager.setCaches(Arrays.asList(
+                caffeineCache(ACCOUNTS, accountsSpec),
+                caffeineCache(USER_ACCOUNTS, userAccountsSpec),
+                caffeineCache(ACCOUNT_OWNERS, accountOwnersSpec),
+                caffeineCache(ACCOUNT_CURRENCIES, accountCurrenciesSpec)));
+        return cacheManager;
+    }
+
+    private static CaffeineCache caffeineCache(String name, String spec) {
+        return new CaffeineCache(name, Caffeine.from(spec).recordStats().build());
+    }
+}
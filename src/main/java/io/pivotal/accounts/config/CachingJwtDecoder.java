@@ -0,0 +1,113 @@
+package io.pivotal.accounts.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Remembers tokens that have been verified, so that a client sending the same
+ * token on every request pays for signature verification and claim parsing
+ * once per token instead of once per request.
+ * <p>
+ * Tokens are keyed by their SHA-256 hash. Only tokens the delegate accepted
+ * are cached, and never beyond their <code>exp</code> claim nor the maximum
+ * time to live, so a token is never accepted from the cache that the delegate
+ * would reject as expired.
+ */
+public class CachingJwtDecoder implements JwtDecoder {
+
+    private final JwtDecoder delegate;
+
+    private final Cache<String, Jwt> verified;
+
+    private final Clock clock;
+
+    public CachingJwtDecoder(JwtDecoder delegate, long maximumSize, Duration maxTimeToLive, Clock clock) {
+        this.delegate = delegate;
+        this.clock = clock;
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new UntilExpiry(maxTimeToLive, clock))
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Jwt decode(String token) throws JwtException {
+        String key = hash(token);
+        Jwt jwt = verified.getIfPresent(key);
+        if (jwt != null && !isExpired(jwt)) {
+            return jwt;
+        }
+        jwt = delegate.decode(token);
+        verified.put(key, jwt);
+        return jwt;
+    }
+
+    /**
+     * @return the cache of verified tokens, for metrics.
+     */
+    public Cache<String, Jwt> getCache() {
+        return verified;
+    }
+
+    private boolean isExpired(Jwt jwt) {
+        Instant expiresAt = jwt.getExpiresAt();
+        return expiresAt != null && !clock.instant().isBefore(expiresAt);
+    }
+
+    static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Expires each token at its <code>exp</code>, or after the maximum time to
+     * live if that comes first.
+     */
+    private static final class UntilExpiry implements Expiry<String, Jwt> {
+
+        private final long maxNanos;
+
+        private final Clock clock;
+
+        UntilExpiry(Duration maxTimeToLive, Clock clock) {
+            this.maxNanos = maxTimeToLive.toNanos();
+            this.clock = clock;
+        }
+
+        @Override
+        public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+            if (jwt.getExpiresAt() == null) {
+                return maxNanos;
+            }
+            long untilExpiry = Duration.between(clock.instant(), jwt.getExpiresAt()).toNanos();
+            return Math.max(0, Math.min(maxNanos, untilExpiry));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, jwt, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
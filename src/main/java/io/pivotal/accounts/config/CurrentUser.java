@@ -0,0 +1,31 @@
+package io.pivotal.accounts.config;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+/**
+ * Access to the user the current request is authenticated as.
+ */
+public final class CurrentUser {
+
+    /**
+     * The JWT claim holding the user id accounts belong to.
+     */
+    public static final String USER_ID_CLAIM = "user_id";
+
+    private CurrentUser() {
+    }
+
+    /**
+     * @return the <code>user_id</code> claim of the current JWT, or null if
+     * the request is not authenticated with a JWT.
+     */
+    public static String userId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication instanceof JwtAuthenticationToken) {
+            return ((JwtAuthenticationToken) authentication).getToken().getClaimAsString(USER_ID_CLAIM);
+        }
+        return null;
+    }
+}
@@ -1,22 +1,29 @@
 package io.pivotal.accounts.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.stream.Collectors;
 
 @Component
 public class GrantedAuthoritiesConverter extends JwtAuthenticationConverter {
 
+    private final ScopeAuthorities scopeAuthorities;
+
+    @Autowired
+    public GrantedAuthoritiesConverter(@Value("${accounts.security.scopes:account}") String[] scopes,
+            @Value("${accounts.security.max-scope-combinations:1024}") int maxScopeCombinations) {
+        this.scopeAuthorities = new ScopeAuthorities(Arrays.asList(scopes), maxScopeCombinations);
+    }
+
     @Override
     protected Collection<GrantedAuthority> extractAuthorities(Jwt jwt) {
         Collection<String> scopes = (Collection<String>) jwt.getClaims().get("scope");
-        return scopes.stream().filter(scope -> !scope.equals("openid"))
-                .map(scope -> new SimpleGrantedAuthority("ROLE_" + scope.toUpperCase().replaceAll("\\.", "_")))
-                .collect(Collectors.toSet());
+        return scopeAuthorities.forScopes(scopes);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package io.pivotal.accounts.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.jwt.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * The decoder of the bearer tokens, shared by the servlet and the reactive
+ * security configuration.
+ */
+@Configuration
+public class JwtDecoderConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtDecoderConfig.class);
+
+    /**
+     * A token that parses but that no key verifies. Decoding it makes the
+     * decoder fetch the JWK set, which it would otherwise do on the first
+     * request.
+     */
+    private static final String PREWARM_TOKEN =
+            base64Url("{\"alg\":\"RS256\",\"kid\":\"prewarm\"}") + "." + base64Url("{}") + ".AA";
+
+    @Bean
+    public JwtDecoder jwtDecoder(OAuth2ResourceServerProperties resourceServerProperties,
+            MeterRegistry meterRegistry,
+            @Value("${accounts.security.jwt-cache.maximum-size:10000}") long jwtCacheMaximumSize,
+            @Value("${accounts.security.jwt-cache.max-time-to-live:PT5M}") Duration jwtCacheMaxTimeToLive) {
+        String issuerUri = resourceServerProperties.getJwt().getIssuerUri();
+
+        NimbusJwtDecoderJwkSupport jwtDecoder =
+                (NimbusJwtDecoderJwkSupport) JwtDecoders.fromOidcIssuerLocation(issuerUri);
+        OAuth2TokenValidator<Jwt> withIssuer = JwtValidators.createDefaultWithIssuer(issuerUri);
+        jwtDecoder.setJwtValidator(withIssuer);
+        prewarm(jwtDecoder);
+
+        CachingJwtDecoder cachingDecoder = new CachingJwtDecoder(jwtDecoder, jwtCacheMaximumSize,
+                jwtCacheMaxTimeToLive, Clock.systemUTC());
+        CaffeineCacheMetrics.monitor(meterRegistry, cachingDecoder.getCache(), "jwtTokens");
+        return cachingDecoder;
+    }
+
+    private static void prewarm(JwtDecoder jwtDecoder) {
+        try {
+            jwtDecoder.decode(PREWARM_TOKEN);
+        } catch (JwtException e) {
+            // expected, no key verifies the token; the JWK set is cached now
+            logger.debug("JwtDecoderConfig.prewarm: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            logger.warn("JwtDecoderConfig.prewarm: could not fetch the JWK set, it is fetched on the first request", e);
+        }
+    }
+
+    private static String base64Url(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
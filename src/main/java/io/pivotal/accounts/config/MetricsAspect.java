@@ -0,0 +1,76 @@
+package io.pivotal.accounts.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.pivotal.accounts.service.AccountMetrics;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times the public methods of the service, as <code>accounts.service</code>
+ * tagged by <code>method</code> and <code>exception</code>, and every
+ * repository call, as <code>accounts.repository</code>. The service timers
+ * wrap the caches, so the gap between the two is the time spent outside the
+ * database.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MetricsAspect {
+
+    public static final String SERVICE = "accounts.service";
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<Class<?>, String> repositoryNames = new ConcurrentHashMap<>();
+
+    public MetricsAspect(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Around("execution(public * io.pivotal.accounts.service.AccountService.*(..))")
+    public Object timeService(ProceedingJoinPoint call) throws Throwable {
+        return time(call, SERVICE, "method", call.getSignature().getName());
+    }
+
+    @Around("target(org.springframework.data.repository.Repository)")
+    public Object timeRepository(ProceedingJoinPoint call) throws Throwable {
+        return time(call, AccountMetrics.REPOSITORY, "repository", repositoryName(call.getTarget().getClass()),
+                "method", call.getSignature().getName());
+    }
+
+    private Object time(ProceedingJoinPoint call, String name, String... tags) throws Throwable {
+        Timer.Sample sample = Timer.start(registry);
+        String exception = "none";
+        try {
+            return call.proceed();
+        } catch (Throwable e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder(name).tags(tags).tag("exception", exception).register(registry));
+        }
+    }
+
+    /**
+     * @return the simple name of the repository interface the repository proxy implements.
+     */
+    private String repositoryName(Class<?> proxyClass) {
+        return repositoryNames.computeIfAbsent(proxyClass, type -> {
+            for (Class<?> candidate : type.getInterfaces()) {
+                if (Repository.class.isAssignableFrom(candidate) && candidate != Repository.class) {
+                    return candidate.getSimpleName();
+                }
+            }
+            return type.getSimpleName();
+        });
+    }
+}
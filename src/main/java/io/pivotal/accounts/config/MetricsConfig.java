@@ -0,0 +1,22 @@
+package io.pivotal.accounts.config;
+
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Metrics configuration of the accounts service.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Contention metrics are tagged per account. Only the first accounts seen
+     * get their own series, so the number of series stays bounded.
+     */
+    @Bean
+    public MeterFilter accountTagLimit(@Value("${accounts.metrics.max-account-tags:100}") int maxAccountTags) {
+        return MeterFilter.maximumAllowableTags("accounts.optimistic", "account", maxAccountTags, MeterFilter.deny());
+    }
+}
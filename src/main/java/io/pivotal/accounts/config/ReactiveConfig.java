@@ -0,0 +1,50 @@
+package io.pivotal.accounts.config;
+
+import io.pivotal.accounts.controller.AccountHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * The reactive mode of the accounts service, enabled by the
+ * <code>reactive</code> profile. The same endpoints as
+ * <code>AccountController</code> are served by {@link AccountHandler} on the
+ * event loop, and the blocking database work is handed to a fixed pool.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveConfig {
+
+    public static final String JDBC_SCHEDULER = "jdbcScheduler";
+
+    /**
+     * Runs the JPA and JDBC calls, which block. A thread is only useful while
+     * it holds a connection, so there are as many threads as connections.
+     */
+    @Bean(name = JDBC_SCHEDULER, destroyMethod = "dispose")
+    public Scheduler jdbcScheduler(@Value("${accounts.reactive.jdbc-threads:10}") int threads) {
+        return Schedulers.fromExecutorService(
+                Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("accounts-jdbc-")));
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> accountRoutes(AccountHandler handler) {
+        return route(GET("/accounts/{id}"), handler::find)
+                .andRoute(GET("/accounts"), handler::findAccounts)
+                .andRoute(POST("/accounts"), handler::save)
+                .andRoute(POST("/accounts/transaction"), handler::transaction)
+                .andRoute(POST("/accounts/transactions/batch"), handler::transactions);
+    }
+}
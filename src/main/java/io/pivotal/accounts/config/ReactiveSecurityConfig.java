@@ -0,0 +1,37 @@
+package io.pivotal.accounts.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtAuthenticationConverterAdapter;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The security of the reactive mode: the same rules and token handling as
+ * {@link SecurityConfig}. Tokens are decoded by the caching decoder, which
+ * blocks on a cache miss, and on the network when the keys rotate, so it runs
+ * on the elastic scheduler rather than the event loop.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@EnableWebFluxSecurity
+public class ReactiveSecurityConfig {
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http, JwtDecoder jwtDecoder,
+            GrantedAuthoritiesConverter grantedAuthoritiesConverter) {
+        http.csrf().disable()
+                .authorizeExchange().anyExchange().hasAuthority("ROLE_ACCOUNT")
+                .and().oauth2ResourceServer()
+                .jwt()
+                .jwtDecoder(token -> Mono.fromCallable(() -> jwtDecoder.decode(token))
+                        .subscribeOn(Schedulers.elastic()))
+                .jwtAuthenticationConverter(new ReactiveJwtAuthenticationConverterAdapter(grantedAuthoritiesConverter));
+        return http.build();
+    }
+}
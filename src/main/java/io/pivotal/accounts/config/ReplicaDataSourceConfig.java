@@ -0,0 +1,91 @@
+package io.pivotal.accounts.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends read-only transactions to read replicas of the database, when
+ * <code>accounts.datasource.replicas[0].url</code> is set. Each replica takes
+ * the same properties as <code>spring.datasource</code> (url, username,
+ * password, driver-class-name) and the same Hikari pool settings.
+ * <p>
+ * Everything else, including the migrations, runs on the primary. The reads
+ * of the service run in read-only transactions, except for the users who
+ * changed an account within the last
+ * <code>accounts.datasource.read-your-writes-millis</code>, see
+ * <code>ReadYourWrites</code>.
+ */
+@Configuration
+@ConditionalOnProperty("accounts.datasource.replicas[0].url")
+public class ReplicaDataSourceConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaDataSourceConfig.class);
+
+    /**
+     * The pools behind the routing data source, which are not beans.
+     */
+    private final List<HikariDataSource> pools = new ArrayList<>();
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties, Environment environment,
+            MeterRegistry meterRegistry) {
+        Binder binder = Binder.get(environment);
+        DataSource primary = pool(properties, ReadWriteRoutingDataSource.PRIMARY, binder, meterRegistry);
+
+        List<DataSourceProperties> replicaProperties = binder
+                .bind("accounts.datasource.replicas", Bindable.listOf(DataSourceProperties.class))
+                .orElse(Collections.emptyList());
+        List<DataSource> replicas = new ArrayList<>(replicaProperties.size());
+        for (int i = 0; i < replicaProperties.size(); i++) {
+            replicas.add(pool(replicaProperties.get(i), ReadWriteRoutingDataSource.REPLICA + i, binder,
+                    meterRegistry));
+        }
+        logger.info("ReplicaDataSourceConfig: routing read-only transactions to {} replica(s).", replicas.size());
+
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, replicas);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    @PreDestroy
+    public void close() {
+        for (HikariDataSource pool : pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * @return a pool named after its role, with its <code>hikaricp.*</code>
+     *         metrics tagged with the name.
+     */
+    private HikariDataSource pool(DataSourceProperties properties, String name, Binder binder,
+            MeterRegistry meterRegistry) {
+        try {
+            properties.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException("invalid data source properties for " + name, e);
+        }
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setPoolName(name);
+        dataSource.setMetricRegistry(meterRegistry);
+        pools.add(dataSource);
+        return dataSource;
+    }
+}
@@ -0,0 +1,95 @@
+package io.pivotal.accounts.config;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared, immutable authorities for token scopes. Scope <code>a.b</code> maps
+ * to authority <code>ROLE_A_B</code>; <code>openid</code> grants nothing.
+ * <p>
+ * Tokens carry a handful of scopes out of a small vocabulary, so both the
+ * authority of each scope and the authority set of each distinct combination
+ * of scopes are computed once and then handed out to every request with that
+ * combination. A lookup hashes the scope list of the token and allocates
+ * nothing. The number of cached scopes and combinations is bounded; beyond
+ * that, authorities are computed per request as before.
+ */
+final class ScopeAuthorities {
+
+    private static final String OPENID = "openid";
+
+    private final int maxEntries;
+
+    private final ConcurrentMap<String, GrantedAuthority> byScope = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Collection<String>, Set<GrantedAuthority>> byScopes = new ConcurrentHashMap<>();
+
+    /**
+     * @param vocabulary
+     *            The scopes to precompute authorities for.
+     * @param maxEntries
+     *            The maximum number of scopes, and of combinations of scopes,
+     *            to cache.
+     */
+    ScopeAuthorities(Collection<String> vocabulary, int maxEntries) {
+        this.maxEntries = maxEntries;
+        for (String scope : vocabulary) {
+            authority(scope);
+        }
+    }
+
+    /**
+     * @return the authorities granted by the scopes, as a shared unmodifiable
+     *         set.
+     */
+    Set<GrantedAuthority> forScopes(Collection<String> scopes) {
+        if (scopes == null || scopes.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<GrantedAuthority> authorities = byScopes.get(scopes);
+        if (authorities != null) {
+            return authorities;
+        }
+        Set<GrantedAuthority> computed = new LinkedHashSet<>();
+        for (String scope : scopes) {
+            if (!scope.equals(OPENID)) {
+                computed.add(authority(scope));
+            }
+        }
+        authorities = Collections.unmodifiableSet(computed);
+        if (byScopes.size() < maxEntries) {
+            // keep a private copy as the key, the claim list of the token is mutable
+            Collection<String> key = scopes instanceof Set ? new HashSet<>(scopes) : new ArrayList<>(scopes);
+            Set<GrantedAuthority> existing = byScopes.putIfAbsent(key, authorities);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return authorities;
+    }
+
+    GrantedAuthority authority(String scope) {
+        GrantedAuthority authority = byScope.get(scope);
+        if (authority != null) {
+            return authority;
+        }
+        authority = new SimpleGrantedAuthority("ROLE_" + scope.toUpperCase(Locale.ROOT).replace('.', '_'));
+        if (byScope.size() < maxEntries) {
+            GrantedAuthority existing = byScope.putIfAbsent(scope, authority);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return authority;
+    }
+}
@@ -0,0 +1,97 @@
+package io.pivotal.accounts.config;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs request handling and the service's own threads on virtual threads,
+ * when <code>accounts.threads.virtual</code> is true (the
+ * <code>virtual-threads</code> profile). Requires Java 21 or later at runtime;
+ * the build still targets Java 8, so the virtual thread API is looked up
+ * reflectively and startup fails with a clear message on older runtimes.
+ * <p>
+ * With a virtual thread per request, Tomcat's thread pool no longer limits
+ * concurrency: requests blocked on the database cost no platform thread, and
+ * the JDBC pool (<code>spring.datasource.hikari.*</code>) is what bounds the
+ * work in flight. Code that blocks while holding a monitor pins its carrier
+ * thread, so the pool size should stay small.
+ * <p>
+ * When the pool is saturated, a request waits for a connection up to
+ * <code>spring.datasource.hikari.connection-timeout</code> and then fails with
+ * a <code>SQLTransientConnectionException</code>, which is answered 500 like
+ * any other database error.
+ * <p>
+ * The service has not been run on virtual threads yet: Spring Boot 2.1 and
+ * Hibernate 5.3 predate Java 21.
+ */
+@Configuration
+@ConditionalOnProperty(name = "accounts.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig {
+
+    public static final String THREAD_FACTORY = "virtualThreadFactory";
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        return (ExecutorService) invoke(Executors.class, "newVirtualThreadPerTaskExecutor");
+    }
+
+    @Bean(name = THREAD_FACTORY)
+    public ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = invoke(Thread.class, "ofVirtual");
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "accounts-virtual-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw unsupported(e);
+        }
+    }
+
+    /**
+     * Used for Spring MVC async requests and <code>@Async</code> methods.
+     */
+    @Bean(name = "applicationTaskExecutor")
+    public AsyncTaskExecutor applicationTaskExecutor(ExecutorService virtualThreadExecutor) {
+        return new TaskExecutorAdapter(virtualThreadExecutor);
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcat(
+            ExecutorService virtualThreadExecutor) {
+        return factory -> factory.addConnectorCustomizers(connector -> {
+            ProtocolHandler handler = connector.getProtocolHandler();
+            if (handler instanceof AbstractProtocol) {
+                ((AbstractProtocol<?>) handler).setExecutor(virtualThreadExecutor);
+            }
+        });
+    }
+
+    private static Object invoke(Class<?> type, String factoryMethod) {
+        try {
+            return type.getMethod(factoryMethod).invoke(null);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Could not create virtual threads", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw unsupported(e);
+        }
+    }
+
+    private static IllegalStateException unsupported(Exception e) {
+        return new IllegalStateException("accounts.threads.virtual requires Java 21 or later, running on "
+                + System.getProperty("java.version"), e);
+    }
+}
@@ -1,26 +1,39 @@
 package io.pivotal.accounts.controller;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.Principal;
 import java.util.List;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.pivotal.accounts.config.CurrentUser;
 import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountSummary;
 import io.pivotal.accounts.domain.AccountType;
 import io.pivotal.accounts.domain.Transaction;
-import io.pivotal.accounts.domain.TransactionType;
+import io.pivotal.accounts.domain.TransactionStatus;
 import io.pivotal.accounts.service.AccountService;
+import io.pivotal.accounts.service.CurrencyConverter;
+import io.pivotal.accounts.service.IdempotencyStore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.servlet.http.HttpServletRequest;
@@ -31,9 +44,14 @@ import javax.servlet.http.HttpServletRequest;
  * <p>
  * <ul>
  * <li>GET <code>/accounts/{id}</code> retrieves the account with given id.
+ * <li>GET <code>/accounts</code> retrieves the accounts of the user, all at
+ * once, a page at a time, or streamed as newline delimited JSON; with
+ * <code>view=summary</code> only the id, name, type, balance and currency.
  * <li>POST <code>/accounts</code> stores the account object passed in body.
  * <li>POST <code>/accounts/transaction</code> receives a transaction to
  * process.
+ * <li>POST <code>/accounts/transactions/batch</code> receives a list of
+ * transactions to process together.
  * </ul>
  * <p>
  * 
@@ -43,17 +61,32 @@ import javax.servlet.http.HttpServletRequest;
  *
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class AccountController {
 
 	private static final Logger logger = LoggerFactory
 			.getLogger(AccountController.class);
 
+	/**
+	 * Media type of newline delimited JSON.
+	 */
+	public static final String NDJSON = "application/x-ndjson";
+
 	/**
 	 * The service to delegate calls to.
 	 */
 	@Autowired
 	private AccountService service;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	/**
+	 * The largest page returned by a paginated listing.
+	 */
+	@Value("${accounts.listing.max-page-size:1000}")
+	private int maxPageSize;
+
 	/**
 	 * REST call to retrieve the account with the given id.
 	 * 
@@ -64,7 +97,7 @@ public class AccountController {
 	@RequestMapping(value = "/accounts/{id}", method = RequestMethod.GET)
 	public ResponseEntity<Account> find(@PathVariable("id") Integer id) {
 
-		logger.info("AccountController.find: id=" + id);
+		logger.debug("AccountController.find: id={}", id);
 
 		Account accountResponse = this.service.findAccount(id);
 		return new ResponseEntity<Account>(accountResponse,
@@ -72,9 +105,31 @@ public class AccountController {
 
 	}
 
+	/**
+	 * REST call to retrieve the accounts of the user. Without
+	 * <code>after</code> and <code>size</code> all accounts are returned;
+	 * with either, one page is returned in id order and, if it is full, a
+	 * <code>Link</code> header with <code>rel="next"</code> points to the
+	 * next one. A page needs the <code>user_id</code> claim, without it 401
+	 * is returned.
+	 *
+	 * @param type
+	 *            The type of the accounts to return, all types if absent.
+	 * @param after
+	 *            The last id of the previous page, absent for the first page.
+	 * @param size
+	 *            The size of the page, capped at
+	 *            <code>accounts.listing.max-page-size</code>.
+	 * @return The accounts.
+	 */
 	@RequestMapping(value = "/accounts", method = RequestMethod.GET)
 	public ResponseEntity<List<Account>> findAccounts(
-			@RequestParam(value = "type", required = false) final String type) {
+			@RequestParam(value = "type", required = false) final String type,
+			@RequestParam(value = "after", required = false) final Integer after,
+			@RequestParam(value = "size", required = false) final Integer size) {
+		if (after != null || size != null) {
+			return findAccountsPage(type, after, size);
+		}
 		if (type == null) {
 			List<Account> accountResponse = this.service.findAccounts();
 			return new ResponseEntity<List<Account>>(accountResponse,
@@ -87,6 +142,60 @@ public class AccountController {
 		}
 	}
 
+	/**
+	 * REST call to retrieve the summaries of the accounts of the user: id,
+	 * name, type, balance and currency only.
+	 *
+	 * @param type
+	 *            The type of the accounts to return, all types if absent.
+	 * @return The summaries of the accounts.
+	 */
+	@RequestMapping(value = "/accounts", method = RequestMethod.GET, params = "view=summary")
+	public ResponseEntity<List<AccountSummary>> findAccountSummaries(
+			@RequestParam(value = "type", required = false) final String type) {
+		AccountType accountType = type == null ? null : AccountType.valueOf(type);
+		List<AccountSummary> accountResponse = this.service.findAccountSummaries(CurrentUser.userId(), accountType);
+		return new ResponseEntity<List<AccountSummary>>(accountResponse,
+				getNoCacheHeaders(), HttpStatus.OK);
+	}
+
+	/**
+	 * REST call to stream the accounts of the user as newline delimited JSON,
+	 * one account per line, written as they are read from the database.
+	 *
+	 * @param type
+	 *            The type of the accounts to return, all types if absent.
+	 * @return The stream of accounts, or 401 if the request carries no
+	 *         <code>user_id</code> claim.
+	 */
+	@RequestMapping(value = "/accounts", method = RequestMethod.GET, produces = NDJSON)
+	public ResponseEntity<StreamingResponseBody> streamAccounts(
+			@RequestParam(value = "type", required = false) final String type) {
+		String userId = CurrentUser.userId();
+		logger.debug("AccountController.streamAccounts: userId={}, type={}", userId, type);
+		if (userId == null) {
+			return new ResponseEntity<StreamingResponseBody>(getNoCacheHeaders(), HttpStatus.UNAUTHORIZED);
+		}
+		AccountType accountType = type == null ? null : AccountType.valueOf(type);
+		ObjectWriter writer = objectMapper.writerFor(Account.class);
+		StreamingResponseBody body = out -> {
+			try {
+				this.service.streamAccounts(userId, accountType, account -> {
+					try {
+						out.write(writer.writeValueAsBytes(account));
+						out.write('\n');
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		};
+		return ResponseEntity.ok().headers(getNoCacheHeaders())
+				.contentType(MediaType.parseMediaType(NDJSON)).body(body);
+	}
+
 	/**
 	 * REST call to save the account provided in the request body.
 	 * 
@@ -104,8 +213,7 @@ public class AccountController {
 		} else {
 			accountRequest.setUserid("hello");
 		}
-		logger.debug("AccountController.save: userId="
-				+ accountRequest.getUserid());
+		logger.debug("AccountController.save: userId={}", accountRequest.getUserid());
 		Integer accountProfileId = this.service.saveAccount(accountRequest);
 		HttpHeaders responseHeaders = new HttpHeaders();
 		responseHeaders.setLocation(builder.path("/account/{id}")
@@ -113,70 +221,84 @@ public class AccountController {
 		return Boolean.TRUE;
 	}
 
-	//TODO move logic to AccountService!
 	/**
-	 * REST call to process a transaction of an account.
+	 * REST call to process a transaction of an account. A retry with the same
+	 * <code>Idempotency-Key</code> header, or else the same transaction id,
+	 * gets the original outcome without being applied again; a different
+	 * transaction of the account with the key of another is refused with
+	 * 409 Conflict. The currency is trimmed and upper-cased, and refused with
+	 * 400 Bad Request unless it is three letters.
 	 * 
 	 * @param transaction the transaction to process.
-	 * @return a response entity with either SUCCESS or FAILED.
+	 * @param idempotencyKey the key identifying the submission, optional.
+	 * @return a response entity with either SUCCESS, FAILED or CONFLICT.
 	 */
 	@RequestMapping(value = "/accounts/transaction", method = RequestMethod.POST)
 	public ResponseEntity<String> transaction(
-			@RequestBody Transaction transaction) {
-		logger.debug("AccountController.transaction: " + transaction.toString());
-		if (transaction.getType().equals(TransactionType.DEBIT)) {
-			logger.debug("debit transaction");
-			Account accountResponse = this.service.findAccount(transaction
-					.getAccountId());
-
-			BigDecimal currentBalance = accountResponse.getBalance();
-
-			BigDecimal newBalance = currentBalance.subtract(transaction
-					.getAmount());
-
-			if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
-				accountResponse.setBalance(newBalance);
-				this.service.saveAccount(accountResponse);
-				// TODO save transaction?
-				logger.debug("transaction processed.");
-				return new ResponseEntity<String>("SUCCESS",
-						getNoCacheHeaders(), HttpStatus.OK);
-
-			} else {
-				// no sufficient founds available
-				return new ResponseEntity<String>("FAILED",
-						getNoCacheHeaders(), HttpStatus.EXPECTATION_FAILED);
-			}
-
-		} else if (transaction.getType().equals(TransactionType.CREDIT)) {
-			logger.debug("credit transaction");
-			Account accountResponse = this.service.findAccount(transaction.getAccountId());
-
-			BigDecimal currentBalance = accountResponse.getBalance();
-
-			logger.debug("AccountController.transaction: current balance='"
-					+ currentBalance + "'.");
-
-			if (transaction.getAmount().compareTo(BigDecimal.ZERO) > 0) {
-
-				BigDecimal newBalance = currentBalance.add(transaction.getAmount());
-				logger.debug("AccountController.increaseBalance: new balance='"
-						+ newBalance + "'.");
-
-				accountResponse.setBalance(newBalance);
-				this.service.saveAccount(accountResponse);
-				// TODO save transaction?
-				return new ResponseEntity<String>("SUCCESS", getNoCacheHeaders(), HttpStatus.OK);
+			@RequestBody Transaction transaction,
+			@RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
+		logger.debug("AccountController.transaction: {}", transaction);
+		if (idempotencyKey != null && idempotencyKey.length() > IdempotencyStore.MAX_KEY_LENGTH) {
+			return new ResponseEntity<String>(IdempotencyStore.HEADER + " too long",
+					getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
+		}
+		if (!CurrencyConverter.normalizeCurrency(transaction)) {
+			return new ResponseEntity<String>(CurrencyConverter.INVALID_CURRENCY, getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
+		}
+		transaction.setIdempotencyKey(idempotencyKey);
+		TransactionStatus status = this.service.processTransaction(transaction);
+		if (status == TransactionStatus.SUCCESS) {
+			logger.debug("transaction processed.");
+			return new ResponseEntity<String>(status.name(),
+					getNoCacheHeaders(), HttpStatus.OK);
+		}
+		if (status == TransactionStatus.CONFLICT) {
+			return new ResponseEntity<String>(status.name(),
+					getNoCacheHeaders(), HttpStatus.CONFLICT);
+		}
+		return new ResponseEntity<String>(status.name(),
+				getNoCacheHeaders(), HttpStatus.EXPECTATION_FAILED);
+	}
 
-			} else {
-				// amount can not be negative for increaseBalance, please use
-				// decreaseBalance
-				return new ResponseEntity<String>("FAILED", getNoCacheHeaders(),
-						HttpStatus.EXPECTATION_FAILED);
+	/**
+	 * REST call to process a batch of transactions in one go. The batch is
+	 * refused with 400 Bad Request if a currency is not three letters.
+	 * 
+	 * @param transactions the transactions to process, in order.
+	 * @return a response entity with SUCCESS, FAILED or CONFLICT for each
+	 *         transaction.
+	 */
+	@RequestMapping(value = "/accounts/transactions/batch", method = RequestMethod.POST)
+	public ResponseEntity<List<TransactionStatus>> transactions(
+			@RequestBody List<Transaction> transactions) {
+		logger.debug("AccountController.transactions: {} transactions", transactions.size());
+		for (Transaction transaction : transactions) {
+			if (!CurrencyConverter.normalizeCurrency(transaction)) {
+				return new ResponseEntity<List<TransactionStatus>>(getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
 			}
+		}
+		List<TransactionStatus> statuses = this.service.processTransactions(transactions);
+		return new ResponseEntity<List<TransactionStatus>>(statuses,
+				getNoCacheHeaders(), HttpStatus.OK);
+	}
 
+	private ResponseEntity<List<Account>> findAccountsPage(String type, Integer after, Integer size) {
+		String userId = CurrentUser.userId();
+		if (userId == null) {
+			// pages are keyed on the user_id claim, there is no principal query to fall back on
+			return new ResponseEntity<List<Account>>(getNoCacheHeaders(), HttpStatus.UNAUTHORIZED);
+		}
+		int pageSize = size == null ? maxPageSize : Math.max(1, Math.min(size, maxPageSize));
+		AccountType accountType = type == null ? null : AccountType.valueOf(type);
+		List<Account> accountResponse = this.service.findAccountsPage(userId, accountType, after, pageSize);
+		HttpHeaders responseHeaders = getNoCacheHeaders();
+		if (accountResponse.size() == pageSize) {
+			String next = ServletUriComponentsBuilder.fromCurrentRequest()
+					.replaceQueryParam("after", accountResponse.get(pageSize - 1).getId())
+					.replaceQueryParam("size", pageSize).build().toUriString();
+			responseHeaders.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
 		}
-		return null;
+		return new ResponseEntity<List<Account>>(accountResponse, responseHeaders, HttpStatus.OK);
 	}
 
 	private HttpHeaders getNoCacheHeaders() {
@@ -0,0 +1,208 @@
+package io.pivotal.accounts.controller;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+import io.pivotal.accounts.config.CurrentUser;
+import io.pivotal.accounts.config.ReactiveConfig;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.service.AccountService;
+import io.pivotal.accounts.service.CurrencyConverter;
+import io.pivotal.accounts.service.IdempotencyStore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Reactive handler for the accounts microservice, serving the same endpoints
+ * and responses as {@link AccountController} in the reactive mode. The
+ * service and the database block, so each call runs on the JDBC scheduler
+ * and the event loop only waits for its result.
+ * <p>
+ * There is no security context bound to the thread the service runs on, so
+ * the account lists are scoped by the <code>user_id</code> claim read from the
+ * reactive security context and passed to the service explicitly.
+ *
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class AccountHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(AccountHandler.class);
+
+	private static final ParameterizedTypeReference<List<Transaction>> TRANSACTIONS =
+			new ParameterizedTypeReference<List<Transaction>>() {
+			};
+
+	/**
+	 * The service to delegate calls to.
+	 */
+	@Autowired
+	private AccountService service;
+
+	@Autowired
+	@Qualifier(ReactiveConfig.JDBC_SCHEDULER)
+	private Scheduler jdbc;
+
+	@Value("${accounts.listing.max-page-size:1000}")
+	private int maxPageSize;
+
+	public Mono<ServerResponse> find(ServerRequest request) {
+		Integer id;
+		try {
+			id = Integer.valueOf(request.pathVariable("id"));
+		} catch (NumberFormatException e) {
+			return badRequest();
+		}
+		logger.debug("AccountHandler.find: id={}", id);
+		return blocking(() -> service.findAccount(id)).flatMap(account -> ok(account));
+	}
+
+	public Mono<ServerResponse> findAccounts(ServerRequest request) {
+		AccountType accountType;
+		Integer from;
+		Integer size;
+		try {
+			accountType = request.queryParam("type").map(AccountType::valueOf).orElse(null);
+			from = request.queryParam("after").map(Integer::valueOf).orElse(null);
+			size = request.queryParam("size").map(Integer::valueOf).orElse(null);
+		} catch (IllegalArgumentException e) {
+			// an unknown type, or an id or size that is not a number
+			return badRequest();
+		}
+		if (request.queryParam("view").filter("summary"::equals).isPresent()) {
+			return withUserId(userId -> blocking(() -> service.findAccountSummaries(userId, accountType))
+					.flatMap(summaries -> ok(summaries)));
+		}
+		if (from != null || size != null) {
+			int pageSize = size == null ? maxPageSize : Math.max(1, Math.min(size, maxPageSize));
+			return withUserId(userId -> blocking(() -> service.findAccountsPage(userId, accountType, from, pageSize))
+					.flatMap(accounts -> {
+						if (accounts.size() < pageSize) {
+							return ok(accounts);
+						}
+						String next = UriComponentsBuilder.fromUri(request.uri())
+								.replaceQueryParam("after", accounts.get(pageSize - 1).getId())
+								.replaceQueryParam("size", pageSize).build().toUriString();
+						return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+								.header("Cache-Control", "no-cache")
+								.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").syncBody(accounts);
+					}));
+		}
+		return withUserId(userId -> blocking(() -> accountType != null
+				? service.findAccountsByType(userId, accountType)
+				: service.findAccounts(userId))
+				.flatMap(accounts -> ok(accounts)));
+	}
+
+	public Mono<ServerResponse> save(ServerRequest request) {
+		return request.principal().map(Principal::getName)
+				.zipWith(request.bodyToMono(Account.class), (userId, account) -> {
+					account.setUserid(userId);
+					return account;
+				})
+				.flatMap(account -> {
+					logger.debug("AccountHandler.save: userId={}", account.getUserid());
+					return blocking(() -> service.saveAccount(account));
+				})
+				.flatMap(id -> ServerResponse.status(HttpStatus.CREATED).contentType(MediaType.APPLICATION_JSON_UTF8)
+						.syncBody(Boolean.TRUE));
+	}
+
+	public Mono<ServerResponse> transaction(ServerRequest request) {
+		String idempotencyKey = request.headers().asHttpHeaders().getFirst(IdempotencyStore.HEADER);
+		if (idempotencyKey != null && idempotencyKey.length() > IdempotencyStore.MAX_KEY_LENGTH) {
+			return ServerResponse.badRequest().header("Cache-Control", "no-cache")
+					.syncBody(IdempotencyStore.HEADER + " too long");
+		}
+		return request.bodyToMono(Transaction.class)
+				.flatMap(transaction -> {
+					if (!CurrencyConverter.normalizeCurrency(transaction)) {
+						return ServerResponse.badRequest().header("Cache-Control", "no-cache")
+								.syncBody(CurrencyConverter.INVALID_CURRENCY);
+					}
+					transaction.setIdempotencyKey(idempotencyKey);
+					logger.debug("AccountHandler.transaction: {}", transaction);
+					return blocking(() -> service.processTransaction(transaction))
+							.flatMap(status -> ServerResponse
+									.status(status == TransactionStatus.SUCCESS ? HttpStatus.OK
+											: status == TransactionStatus.CONFLICT ? HttpStatus.CONFLICT
+													: HttpStatus.EXPECTATION_FAILED)
+									.header("Cache-Control", "no-cache")
+									.syncBody(status.name()));
+				});
+	}
+
+	public Mono<ServerResponse> transactions(ServerRequest request) {
+		return request.bodyToMono(TRANSACTIONS)
+				.flatMap(transactions -> {
+					logger.debug("AccountHandler.transactions: {} transactions", transactions.size());
+					for (Transaction transaction : transactions) {
+						if (!CurrencyConverter.normalizeCurrency(transaction)) {
+							return badRequest();
+						}
+					}
+					return blocking(() -> service.processTransactions(transactions))
+							.flatMap(statuses -> ok(statuses));
+				});
+	}
+
+	/**
+	 * Handles the request for the user of the token it is authenticated with,
+	 * or answers 401 Unauthorized, as {@link AccountController} does, when it
+	 * is not authenticated with a token carrying a <code>user_id</code> claim.
+	 */
+	private static Mono<ServerResponse> withUserId(Function<String, Mono<ServerResponse>> handler) {
+		return userId().flatMap(handler)
+				.switchIfEmpty(ServerResponse.status(HttpStatus.UNAUTHORIZED).header("Cache-Control", "no-cache")
+						.build());
+	}
+
+	/**
+	 * @return the <code>user_id</code> claim of the token the request is
+	 *         authenticated with, or empty if there is no such claim or the
+	 *         request is not authenticated with a token.
+	 */
+	private static Mono<String> userId() {
+		return ReactiveSecurityContextHolder.getContext()
+				.map(context -> context.getAuthentication())
+				.filter(JwtAuthenticationToken.class::isInstance)
+				.flatMap(token -> Mono.justOrEmpty(
+						((JwtAuthenticationToken) token).getToken().getClaimAsString(CurrentUser.USER_ID_CLAIM)));
+	}
+
+	private <T> Mono<T> blocking(Callable<T> call) {
+		return Mono.fromCallable(call).subscribeOn(jdbc);
+	}
+
+	private static Mono<ServerResponse> badRequest() {
+		return ServerResponse.badRequest().header("Cache-Control", "no-cache").build();
+	}
+
+	private static Mono<ServerResponse> ok(Object body) {
+		return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+				.header("Cache-Control", "no-cache").syncBody(body);
+	}
+}
@@ -15,6 +15,7 @@ import javax.persistence.Id;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 
 import org.springframework.format.annotation.DateTimeFormat;
@@ -71,6 +72,14 @@ public class Account implements Serializable {
 	@NotNull
 	private String currency;
 
+	/**
+	 * Primitive, so that an account read from a row is never taken for a new
+	 * one, and a new one starts at 0 like the column default.
+	 */
+	@Version
+	@Column(name = "version", nullable = false)
+	private long version;
+
 	public Integer getId() {
 		return id;
 	}
@@ -127,6 +136,14 @@ public class Account implements Serializable {
 		this.currency = currency;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -210,7 +227,8 @@ public class Account implements Serializable {
 				.append(", type=").append(type).append(", creationdate=")
 				.append(creationdate).append(", openbalance=")
 				.append(openbalance).append(", balance=").append(balance)
-				.append(", currency=").append(currency).append("]");
+				.append(", currency=").append(currency).append(", version=")
+				.append(version).append("]");
 		return builder.toString();
 	}
 
@@ -0,0 +1,86 @@
+package io.pivotal.accounts.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Objects;
+
+/**
+ * The columns of an account most callers need to list accounts.
+ *
+ * Read-only view of an account, selected by constructor projection. It is
+ * not an entity, so reading it costs no persistence context entry, no
+ * dirty-checking snapshot and no dates or opening balance per row.
+ *
+ */
+public class AccountSummary implements Serializable {
+
+	private static final long serialVersionUID = 2086127411520351236L;
+
+	private final Integer id;
+
+	private final String name;
+
+	private final AccountType type;
+
+	private final BigDecimal balance;
+
+	private final String currency;
+
+	public AccountSummary(Integer id, String name, AccountType type, BigDecimal balance, String currency) {
+		this.id = id;
+		this.name = name;
+		this.type = type;
+		this.balance = balance;
+		this.currency = currency;
+	}
+
+	public AccountSummary(Account account) {
+		this(account.getId(), account.getName(), account.getType(), account.getBalance(), account.getCurrency());
+	}
+
+	public Integer getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public AccountType getType() {
+		return type;
+	}
+
+	public BigDecimal getBalance() {
+		return balance;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, name, type, balance, currency);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		AccountSummary other = (AccountSummary) obj;
+		return Objects.equals(id, other.id) && Objects.equals(name, other.name) && type == other.type
+				&& Objects.equals(balance, other.balance) && Objects.equals(currency, other.currency);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("AccountSummary [id=").append(id).append(", name=")
+				.append(name).append(", type=").append(type)
+				.append(", balance=").append(balance).append(", currency=")
+				.append(currency).append("]");
+		return builder.toString();
+	}
+}
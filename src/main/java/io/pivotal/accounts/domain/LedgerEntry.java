@@ -0,0 +1,185 @@
+package io.pivotal.accounts.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Represents an entry in the transaction ledger.
+ *
+ * Entity object that records a transaction applied to an account. Entries are
+ * only ever appended: ids are allocated from a sequence in blocks, so inserting
+ * an entry needs no extra round trip and inserts can be batched.
+ *
+ */
+@Entity
+@Table(name = "LEDGER")
+public class LedgerEntry implements Serializable {
+
+	private static final long serialVersionUID = 4367722407370498361L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ledger_seq")
+	@SequenceGenerator(name = "ledger_seq", sequenceName = "LEDGER_SEQ", allocationSize = 50)
+	@Column(name = "id")
+	private Long id;
+
+	@Column(name = "accountid")
+	@NotNull
+	private Integer accountId;
+
+	@Column(name = "transactionid")
+	private Integer transactionId;
+
+	@Column(name = "transactiontype", length = 10)
+	@NotNull
+	@Enumerated(EnumType.STRING)
+	private TransactionType type;
+
+	@Column(name = "amount", precision = 14, scale = 2, nullable = false)
+	@NotNull
+	private BigDecimal amount;
+
+	@Column(name = "currency", length = 3)
+	private String currency;
+
+	/**
+	 * The amount and currency submitted, for a transaction converted into the
+	 * currency of its account, else null.
+	 */
+	@Column(name = "originalamount", precision = 14, scale = 2)
+	private BigDecimal originalAmount;
+
+	@Column(name = "originalcurrency", length = 3)
+	private String originalCurrency;
+
+	@Column(name = "description", length = 250)
+	private String description;
+
+	@Column(name = "transactiondate")
+	@Temporal(TemporalType.TIMESTAMP)
+	@NotNull
+	private Date date;
+
+	public LedgerEntry() {
+	}
+
+	public LedgerEntry(Transaction transaction) {
+		this.accountId = transaction.getAccountId();
+		this.transactionId = transaction.getTransactionId();
+		this.type = transaction.getType();
+		this.amount = transaction.getAmount();
+		this.currency = transaction.getCurrency();
+		this.originalAmount = transaction.getOriginalAmount();
+		this.originalCurrency = transaction.getOriginalCurrency();
+		this.description = transaction.getDescription();
+		this.date = transaction.getDate() != null ? transaction.getDate() : new Date();
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Integer getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(Integer accountId) {
+		this.accountId = accountId;
+	}
+
+	public Integer getTransactionId() {
+		return transactionId;
+	}
+
+	public void setTransactionId(Integer transactionId) {
+		this.transactionId = transactionId;
+	}
+
+	public TransactionType getType() {
+		return type;
+	}
+
+	public void setType(TransactionType type) {
+		this.type = type;
+	}
+
+	public BigDecimal getAmount() {
+		return amount;
+	}
+
+	public void setAmount(BigDecimal amount) {
+		this.amount = amount;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public BigDecimal getOriginalAmount() {
+		return originalAmount;
+	}
+
+	public void setOriginalAmount(BigDecimal originalAmount) {
+		this.originalAmount = originalAmount;
+	}
+
+	public String getOriginalCurrency() {
+		return originalCurrency;
+	}
+
+	public void setOriginalCurrency(String originalCurrency) {
+		this.originalCurrency = originalCurrency;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public void setDate(Date date) {
+		this.date = date;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("LedgerEntry [id=").append(id).append(", accountId=")
+				.append(accountId).append(", transactionId=")
+				.append(transactionId).append(", type=").append(type)
+				.append(", amount=").append(amount).append(", currency=")
+				.append(currency).append(", originalAmount=").append(originalAmount)
+				.append(", originalCurrency=").append(originalCurrency)
+				.append(", description=").append(description)
+				.append(", date=").append(date).append("]");
+		return builder.toString();
+	}
+}
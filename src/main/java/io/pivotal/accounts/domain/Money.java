@@ -0,0 +1,220 @@
+package io.pivotal.accounts.domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * An amount of money as a long of minor units, e.g. cents, and its currency.
+ * <p>
+ * Balances and amounts are stored as <code>decimal(14, 2)</code>, so every
+ * amount the database holds is a whole number of minor units between
+ * {@link #MIN_MINOR} and {@link #MAX_MINOR}, and sums and differences of two
+ * of them cannot overflow a long. The service works on minor units and only
+ * converts to and from BigDecimal where amounts are read and written, as JSON
+ * or in the database:
+ * <ul>
+ * <li>a BigDecimal is rounded half up, i.e. away from zero, to two decimal
+ * places, as MySQL stores it in a <code>decimal(14, 2)</code> column;</li>
+ * <li>an amount, sum or difference beyond the 14 digits of the columns throws
+ * an ArithmeticException rather than being truncated.</li>
+ * </ul>
+ * A transaction holds its amount as an instance, created once when its
+ * amount or currency is set, so applying it reads the minor units and the
+ * currency without converting or allocating. The static arithmetic works on
+ * plain minor units, for balances, which are kept as longs.
+ *
+ */
+public final class Money implements Comparable<Money> {
+
+	/**
+	 * Decimal places of the amount and balance columns.
+	 */
+	public static final int SCALE = 2;
+
+	/**
+	 * Largest amount the columns hold, 999999999999.99, in minor units.
+	 */
+	public static final long MAX_MINOR = 99_999_999_999_999L;
+
+	/**
+	 * Smallest amount the columns hold, in minor units.
+	 */
+	public static final long MIN_MINOR = -MAX_MINOR;
+
+	private static final int INTEGER_DIGITS = 12;
+
+	private final long minor;
+
+	private final String currency;
+
+	private Money(long minor, String currency) {
+		this.minor = minor;
+		this.currency = currency;
+	}
+
+	/**
+	 * @param currency
+	 *            The currency code, null if not known.
+	 * @throws ArithmeticException
+	 *             if the amount is out of range.
+	 */
+	public static Money ofMinor(long minor, String currency) {
+		return new Money(checkRange(minor), currency);
+	}
+
+	/**
+	 * @param currency
+	 *            The currency code, null if not known.
+	 * @throws ArithmeticException
+	 *             if the amount is out of range once rounded.
+	 */
+	public static Money of(BigDecimal amount, String currency) {
+		return new Money(toMinor(amount), currency);
+	}
+
+	public long getMinor() {
+		return minor;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public BigDecimal toBigDecimal() {
+		return toBigDecimal(minor);
+	}
+
+	public int signum() {
+		return Long.signum(minor);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the currencies differ.
+	 * @throws ArithmeticException
+	 *             if the sum is out of range.
+	 */
+	public Money plus(Money other) {
+		checkCurrency(other);
+		return new Money(add(minor, other.minor), currency);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the currencies differ.
+	 * @throws ArithmeticException
+	 *             if the difference is out of range.
+	 */
+	public Money minus(Money other) {
+		checkCurrency(other);
+		return new Money(subtract(minor, other.minor), currency);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the currencies differ.
+	 */
+	@Override
+	public int compareTo(Money other) {
+		checkCurrency(other);
+		return Long.compare(minor, other.minor);
+	}
+
+	/**
+	 * Converts an amount to minor units.
+	 *
+	 * @return the amount in minor units, rounded half up.
+	 * @throws ArithmeticException
+	 *             if the rounded amount is out of range.
+	 */
+	public static long toMinor(BigDecimal amount) {
+		// checked before rounding, which would expand e.g. 1E+999999999 digit by digit
+		if (amount.signum() == 0) {
+			return 0;
+		}
+		int integerDigits = amount.precision() - amount.scale();
+		if (integerDigits > INTEGER_DIGITS) {
+			throw new ArithmeticException("amount out of range: " + amount);
+		}
+		if (integerDigits < -SCALE) {
+			// below 0.001, rounds to zero
+			return 0;
+		}
+		BigDecimal rounded = amount.scale() == SCALE ? amount : amount.setScale(SCALE, RoundingMode.HALF_UP);
+		long minor;
+		try {
+			// a compact BigDecimal with scale 0 gives its value without creating a BigInteger
+			minor = rounded.scaleByPowerOfTen(SCALE).longValueExact();
+		} catch (ArithmeticException e) {
+			throw new ArithmeticException("amount out of range: " + amount);
+		}
+		if (!inRange(minor)) {
+			throw new ArithmeticException("amount out of range: " + amount);
+		}
+		return minor;
+	}
+
+	/**
+	 * @return the amount with two decimal places.
+	 */
+	public static BigDecimal toBigDecimal(long minor) {
+		return BigDecimal.valueOf(minor, SCALE);
+	}
+
+	/**
+	 * @throws ArithmeticException
+	 *             if the sum is out of range.
+	 */
+	public static long add(long minor, long other) {
+		return checkRange(Math.addExact(minor, other));
+	}
+
+	/**
+	 * @throws ArithmeticException
+	 *             if the difference is out of range.
+	 */
+	public static long subtract(long minor, long other) {
+		return checkRange(Math.subtractExact(minor, other));
+	}
+
+	/**
+	 * @return true if the amount is within the range of the columns.
+	 */
+	public static boolean inRange(long minor) {
+		return minor >= MIN_MINOR && minor <= MAX_MINOR;
+	}
+
+	private static long checkRange(long minor) {
+		if (!inRange(minor)) {
+			throw new ArithmeticException("amount out of range: " + toBigDecimal(minor));
+		}
+		return minor;
+	}
+
+	private void checkCurrency(Money other) {
+		if (!Objects.equals(currency, other.currency)) {
+			throw new IllegalArgumentException("currencies differ: " + currency + ", " + other.currency);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(minor) * 31 + Objects.hashCode(currency);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Money))
+			return false;
+		Money other = (Money) obj;
+		return minor == other.minor && Objects.equals(currency, other.currency);
+	}
+
+	@Override
+	public String toString() {
+		return currency == null ? toBigDecimal().toPlainString() : toBigDecimal().toPlainString() + " " + currency;
+	}
+}
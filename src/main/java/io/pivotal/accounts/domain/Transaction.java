@@ -3,15 +3,35 @@ package io.pivotal.accounts.domain;
 import java.math.BigDecimal;
 import java.util.Date;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class Transaction {
 
 	private Integer transactionId;
 	private BigDecimal amount;
+	/**
+	 * The amount in minor units and its currency, created when either is set.
+	 */
+	@JsonIgnore
+	private Money money;
 	private String currency;
+	/**
+	 * The amount and currency submitted, set when the amount is converted
+	 * into the currency of the account.
+	 */
+	@JsonIgnore
+	private BigDecimal originalAmount;
+	@JsonIgnore
+	private String originalCurrency;
 	private Integer accountId;
 	private TransactionType type;
 	private String description;
 	private Date date;
+	/**
+	 * Taken from the <code>Idempotency-Key</code> header rather than the body.
+	 */
+	@JsonIgnore
+	private String idempotencyKey;
 	public Integer getTransactionId() {
 		return transactionId;
 	}
@@ -21,14 +41,61 @@ public class Transaction {
 	public BigDecimal getAmount() {
 		return amount;
 	}
+	/**
+	 * Sets the amount rounded to the two decimal places it is stored with,
+	 * see {@link Money}.
+	 *
+	 * @throws ArithmeticException
+	 *             if the amount does not fit in the amount column.
+	 */
 	public void setAmount(BigDecimal amount) {
-		this.amount = amount;
+		this.money = amount == null ? null : Money.of(amount, currency);
+		this.amount = amount == null || amount.scale() == Money.SCALE ? amount : money.toBigDecimal();
+	}
+	/**
+	 * @return the amount in minor units, 0 if there is no amount.
+	 */
+	@JsonIgnore
+	public long getAmountMinor() {
+		return money == null ? 0 : money.getMinor();
+	}
+	/**
+	 * @return the amount and its currency, null if there is no amount.
+	 */
+	@JsonIgnore
+	public Money getMoney() {
+		return money;
 	}
 	public String getCurrency() {
 		return currency;
 	}
 	public void setCurrency(String currency) {
 		this.currency = currency;
+		if (money != null) {
+			money = Money.ofMinor(money.getMinor(), currency);
+		}
+	}
+	/**
+	 * @return the amount submitted, or null if it was not converted.
+	 */
+	@JsonIgnore
+	public BigDecimal getOriginalAmount() {
+		return originalAmount;
+	}
+	@JsonIgnore
+	public void setOriginalAmount(BigDecimal originalAmount) {
+		this.originalAmount = originalAmount;
+	}
+	/**
+	 * @return the currency submitted, or null if the amount was not converted.
+	 */
+	@JsonIgnore
+	public String getOriginalCurrency() {
+		return originalCurrency;
+	}
+	@JsonIgnore
+	public void setOriginalCurrency(String originalCurrency) {
+		this.originalCurrency = originalCurrency;
 	}
 	public Integer getAccountId() {
 		return accountId;
@@ -54,6 +121,14 @@ public class Transaction {
 	public void setDate(Date date) {
 		this.date = date;
 	}
+	@JsonIgnore
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+	@JsonIgnore
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,11 @@
+package io.pivotal.accounts.domain;
+
+/**
+ * Outcome of processing a transaction. CONFLICT is the outcome of a
+ * transaction submitted with the idempotency key of another transaction; it
+ * is never recorded nor journaled, so new values go last.
+ *
+ */
+public enum TransactionStatus {
+	SUCCESS, FAILED, CONFLICT
+}
@@ -0,0 +1,69 @@
+package io.pivotal.accounts.event;
+
+/**
+ * Published whenever an account is saved or its balance changes.
+ *
+ */
+public class AccountChangedEvent {
+
+	private Integer accountId;
+
+	private String userid;
+
+	private Long version;
+
+	public AccountChangedEvent() {
+	}
+
+	public AccountChangedEvent(Integer accountId) {
+		this.accountId = accountId;
+	}
+
+	public AccountChangedEvent(Integer accountId, String userid) {
+		this.accountId = accountId;
+		this.userid = userid;
+	}
+
+	public AccountChangedEvent(Integer accountId, String userid, Long version) {
+		this.accountId = accountId;
+		this.userid = userid;
+		this.version = version;
+	}
+
+	public Integer getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(Integer accountId) {
+		this.accountId = accountId;
+	}
+
+	public String getUserid() {
+		return userid;
+	}
+
+	public void setUserid(String userid) {
+		this.userid = userid;
+	}
+
+	/**
+	 * @return the version of the account after the change, or null if the
+	 *         change did not read it.
+	 */
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("AccountChangedEvent [accountId=").append(accountId)
+				.append(", userid=").append(userid).append(", version=")
+				.append(version).append("]");
+		return builder.toString();
+	}
+}
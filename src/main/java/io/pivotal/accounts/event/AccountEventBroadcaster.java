@@ -0,0 +1,72 @@
+package io.pivotal.accounts.event;
+
+import java.util.UUID;
+
+import io.pivotal.accounts.service.AccountCacheInvalidator;
+import io.pivotal.accounts.service.ReadYourWrites;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Keeps the account caches of all instances coherent. Committed local changes
+ * are published on {@link AccountEventChannels#OUTPUT}, and changes received
+ * from other instances evict the local cache entries and send the reads of
+ * the owner to the primary database for a while, see {@link ReadYourWrites}.
+ *
+ */
+@EnableBinding(AccountEventChannels.class)
+public class AccountEventBroadcaster {
+
+	private static final Logger logger = LoggerFactory.getLogger(AccountEventBroadcaster.class);
+
+	/**
+	 * Header carrying the id of the instance a change was published by.
+	 */
+	public static final String ORIGIN_HEADER = "accountEventOrigin";
+
+	private final String instanceId = UUID.randomUUID().toString();
+
+	@Autowired
+	AccountEventChannels channels;
+
+	@Autowired
+	AccountCacheInvalidator invalidator;
+
+	@Autowired
+	ReadYourWrites readYourWrites;
+
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	public void publish(AccountChangedEvent event) {
+		try {
+			channels.accountEventsOutput().send(MessageBuilder.withPayload(event)
+					.setHeader(ORIGIN_HEADER, instanceId).build());
+		} catch (RuntimeException e) {
+			// the change is committed; peers fall back to their cache expiry
+			logger.warn("AccountEventBroadcaster.publish: could not publish {}", event, e);
+		}
+	}
+
+	@StreamListener(AccountEventChannels.INPUT)
+	public void onRemoteChange(@Payload AccountChangedEvent event,
+			@Header(name = ORIGIN_HEADER, required = false) String origin) {
+		if (instanceId.equals(origin)) {
+			return;
+		}
+		logger.debug("AccountEventBroadcaster.onRemoteChange: {}", event);
+		invalidator.evict(event.getAccountId(), event.getUserid(), event.getVersion());
+		readYourWrites.written(event.getUserid());
+	}
+
+	String getInstanceId() {
+		return instanceId;
+	}
+}
@@ -0,0 +1,25 @@
+package io.pivotal.accounts.event;
+
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+
+/**
+ * Channels account changes are exchanged on between the instances of the
+ * accounts service. Both are bound to the same destination; the input has no
+ * consumer group, so every instance receives every change.
+ *
+ */
+public interface AccountEventChannels {
+
+	String OUTPUT = "accountEventsOutput";
+
+	String INPUT = "accountEventsInput";
+
+	@Output(OUTPUT)
+	MessageChannel accountEventsOutput();
+
+	@Input(INPUT)
+	SubscribableChannel accountEventsInput();
+}
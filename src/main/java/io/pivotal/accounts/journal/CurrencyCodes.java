@@ -0,0 +1,81 @@
+package io.pivotal.accounts.journal;
+
+/**
+ * Packs three-letter ISO 4217 currency codes into 15 bits, five per letter,
+ * so that a record holds its currency in a <code>short</code> without a
+ * dictionary. Decoded codes are interned: every record of a currency returns
+ * the same String instance. A currency that is not three letters packs into
+ * {@link #UNKNOWN}, which no letters pack into, so that the transaction is
+ * still logged.
+ *
+ */
+final class CurrencyCodes {
+
+	/**
+	 * The code of a transaction without a currency.
+	 */
+	static final short NONE = 0;
+
+	/**
+	 * The code of a transaction whose currency is not three letters.
+	 */
+	static final short UNKNOWN = 0x7fff;
+
+	/**
+	 * What {@link #UNKNOWN} decodes to.
+	 */
+	static final String UNKNOWN_CURRENCY = "???";
+
+	private static final String[] DECODED = new String[1 << 15];
+
+	private CurrencyCodes() {
+	}
+
+	/**
+	 * @param currency
+	 *            Three letters, in either case, or null.
+	 * @return the packed code, {@link #UNKNOWN} if the currency is not three
+	 *         letters.
+	 */
+	static short encode(String currency) {
+		if (currency == null) {
+			return NONE;
+		}
+		if (currency.length() != 3) {
+			return UNKNOWN;
+		}
+		int code = 0;
+		for (int i = 0; i < 3; i++) {
+			char c = Character.toUpperCase(currency.charAt(i));
+			if (c < 'A' || c > 'Z') {
+				return UNKNOWN;
+			}
+			code = code << 5 | (c - 'A' + 1);
+		}
+		return (short) code;
+	}
+
+	/**
+	 * @return the currency of the packed code, null for {@link #NONE} and
+	 *         {@link #UNKNOWN_CURRENCY} for {@link #UNKNOWN}.
+	 */
+	static String decode(short code) {
+		if (code == NONE) {
+			return null;
+		}
+		if (code == UNKNOWN) {
+			return UNKNOWN_CURRENCY;
+		}
+		String currency = DECODED[code];
+		if (currency == null) {
+			// racing threads build equal strings, either is fine to keep
+			currency = new String(new char[] { letter(code >> 10), letter(code >> 5), letter(code) });
+			DECODED[code] = currency;
+		}
+		return currency;
+	}
+
+	private static char letter(int bits) {
+		return (char) ('A' - 1 + (bits & 0x1f));
+	}
+}
@@ -0,0 +1,114 @@
+package io.pivotal.accounts.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+
+/**
+ * A segment file of the transaction log: a 32-byte header followed by room
+ * for a fixed number of records, mapped into memory.
+ * <p>
+ * The header holds the magic number <code>ACTL</code>, the format version,
+ * the record size, the number of records the segment has room for and the
+ * sequence number of its first record.
+ *
+ */
+final class Segment {
+
+	static final int HEADER_BYTES = 32;
+
+	private static final int MAGIC = 0x4c544341; // "ACTL" little-endian
+
+	private static final short VERSION = 1;
+
+	private static final String PREFIX = "transactions-";
+
+	private static final String SUFFIX = ".seg";
+
+	final Path file;
+
+	final MappedByteBuffer buffer;
+
+	final int capacity;
+
+	final long firstSeq;
+
+	private Segment(Path file, MappedByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.buffer = buffer;
+		buffer.order(TransactionRecord.ORDER);
+		if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+				|| buffer.getShort(6) != TransactionRecord.BYTES) {
+			throw new IOException("not a version " + VERSION + " transaction log segment: " + file);
+		}
+		this.capacity = buffer.getInt(8);
+		this.firstSeq = buffer.getLong(16);
+	}
+
+	/**
+	 * Creates a zeroed segment with room for the given number of records.
+	 */
+	static Segment create(Path dir, long firstSeq, int capacity) throws IOException {
+		Path file = dir.resolve(String.format("%s%020d%s", PREFIX, firstSeq, SUFFIX));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER_BYTES + (long) capacity * TransactionRecord.BYTES);
+			buffer.order(TransactionRecord.ORDER);
+			buffer.putInt(0, MAGIC);
+			buffer.putShort(4, VERSION);
+			buffer.putShort(6, (short) TransactionRecord.BYTES);
+			buffer.putInt(8, capacity);
+			buffer.putLong(16, firstSeq);
+			buffer.force();
+			return new Segment(file, buffer);
+		}
+	}
+
+	/**
+	 * Maps an existing segment; the mapping outlives the channel.
+	 */
+	static Segment open(Path file, boolean writable) throws IOException {
+		try (FileChannel channel = writable
+				? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ)) {
+			return new Segment(file, channel.map(writable ? FileChannel.MapMode.READ_WRITE
+					: FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * @return the segment files of the directory, in order.
+	 */
+	static TreeMap<Long, Path> list(Path dir) throws IOException {
+		TreeMap<Long, Path> segments = new TreeMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())),
+						file);
+			}
+		}
+		return segments;
+	}
+
+	static int offset(int index) {
+		return HEADER_BYTES + index * TransactionRecord.BYTES;
+	}
+
+	/**
+	 * @return the number of valid records from the start of the segment.
+	 */
+	int count(TransactionRecord record) {
+		int count = 0;
+		while (count < capacity && record.wrap(buffer, offset(count), firstSeq + count).isValid()) {
+			count++;
+		}
+		return count;
+	}
+}
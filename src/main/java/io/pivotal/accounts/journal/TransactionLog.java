@@ -0,0 +1,202 @@
+package io.pivotal.accounts.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import io.pivotal.accounts.domain.Transaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Local log of the transactions applied to the balances, for audit
+ * reconstruction and recovery, where the account table only holds the
+ * current balance.
+ * <p>
+ * Each applied transaction is written as a fixed-width
+ * {@link TransactionRecord} into memory-mapped segment files in
+ * <code>accounts.transaction-log.dir</code>, once the database transaction
+ * applying it commits. A segment has room for
+ * <code>accounts.transaction-log.segment-records</code> records; when it is
+ * full a new one is started. Writes land in the page cache, and are forced to
+ * disk every <code>accounts.transaction-log.force-interval-millis</code>, so
+ * the log survives a crash of the process but may lose the last interval on a
+ * crash of the host. A transaction is never left out: one in a currency
+ * that is not three letters is logged with an unknown currency, and if a new
+ * segment cannot be started, or a record cannot be written, the transactions
+ * wait in memory, in order, for the next append or force. The segments are read with
+ * {@link TransactionLogReader}, e.g. by {@link TransactionLogTool}.
+ *
+ */
+@Component
+@ConditionalOnProperty("accounts.transaction-log.dir")
+public class TransactionLog implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransactionLog.class);
+
+	private final Path dir;
+
+	private final int segmentRecords;
+
+	private final CRC32 crc = new CRC32();
+
+	private Segment segment;
+
+	private ByteBuffer checked;
+
+	private int next;
+
+	/**
+	 * Transactions waiting to be written, in order, guarded by this.
+	 */
+	private final List<Unwritten> unwritten = new ArrayList<>();
+
+	@Autowired
+	public TransactionLog(@Value("${accounts.transaction-log.dir}") String dir,
+			@Value("${accounts.transaction-log.segment-records:1048576}") int segmentRecords) throws IOException {
+		this(Paths.get(dir), segmentRecords);
+	}
+
+	/**
+	 * Opens the log in the given directory, continuing after the last valid
+	 * record of the last segment.
+	 */
+	TransactionLog(Path dir, int segmentRecords) throws IOException {
+		if (segmentRecords <= 0
+				|| segmentRecords > (Integer.MAX_VALUE - Segment.HEADER_BYTES) / TransactionRecord.BYTES) {
+			throw new IllegalArgumentException("segment records out of range: " + segmentRecords);
+		}
+		this.dir = Files.createDirectories(dir);
+		this.segmentRecords = segmentRecords;
+		Map.Entry<Long, Path> last = Segment.list(dir).lastEntry();
+		if (last == null) {
+			use(Segment.create(dir, 1, segmentRecords), 0);
+		} else {
+			Segment opened = Segment.open(last.getValue(), true);
+			use(opened, opened.count(new TransactionRecord()));
+		}
+		logger.info("TransactionLog: appending to {} at {}", segment.file, segment.firstSeq + next);
+	}
+
+	/**
+	 * Appends the successful transactions once the current database
+	 * transaction commits, or right away if there is none.
+	 */
+	public void appendOnCommit(List<Transaction> transactions) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					append(transactions);
+				}
+			});
+		} else {
+			append(transactions);
+		}
+	}
+
+	/**
+	 * Appends the successful transactions. The transactions are already
+	 * applied, so a transaction that cannot be written yet is kept for the
+	 * next append rather than thrown.
+	 */
+	void append(List<Transaction> transactions) {
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			writeUnwritten();
+			for (Transaction transaction : transactions) {
+				long date = transaction.getDate() == null ? now : transaction.getDate().getTime();
+				if (!unwritten.isEmpty() || !write(transaction, date)) {
+					unwritten.add(new Unwritten(transaction, date));
+				}
+			}
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${accounts.transaction-log.force-interval-millis:1000}")
+	public synchronized void force() {
+		writeUnwritten();
+		segment.buffer.force();
+	}
+
+	@PreDestroy
+	@Override
+	public synchronized void close() {
+		force();
+	}
+
+	private void writeUnwritten() {
+		int written = 0;
+		while (written < unwritten.size()
+				&& write(unwritten.get(written).transaction, unwritten.get(written).date)) {
+			written++;
+		}
+		unwritten.subList(0, written).clear();
+	}
+
+	/**
+	 * Writes the transaction as the next record, starting a new segment if
+	 * the current one is full.
+	 *
+	 * @return false if a new segment cannot be started or the record cannot
+	 *         be written.
+	 */
+	private boolean write(Transaction transaction, long date) {
+		if (next == segment.capacity) {
+			try {
+				segment.buffer.force();
+				use(Segment.create(dir, segment.firstSeq + next, segmentRecords), 0);
+			} catch (IOException | RuntimeException e) {
+				logger.error("TransactionLog: failed to start a segment, transactions wait to be logged.", e);
+				return false;
+			}
+		}
+		if (CurrencyCodes.encode(transaction.getCurrency()) == CurrencyCodes.UNKNOWN) {
+			logger.warn("TransactionLog: logging {} with an unknown currency", transaction);
+		}
+		try {
+			TransactionRecord.write(segment.buffer, checked, Segment.offset(next), transaction, date, crc);
+			next++;
+		} catch (RuntimeException e) {
+			// without an account or a type, which no applied transaction is; kept rather than dropped
+			logger.error("TransactionLog: failed to log {}, transactions wait to be logged.", transaction, e);
+			return false;
+		}
+		return true;
+	}
+
+	private void use(Segment segment, int next) {
+		this.segment = segment;
+		this.checked = segment.buffer.duplicate();
+		this.next = next;
+	}
+
+	private static final class Unwritten {
+
+		final Transaction transaction;
+
+		final long date;
+
+		Unwritten(Transaction transaction, long date) {
+			this.transaction = transaction;
+			this.date = date;
+		}
+	}
+}
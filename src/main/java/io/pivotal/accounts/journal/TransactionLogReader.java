@@ -0,0 +1,45 @@
+package io.pivotal.accounts.journal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Reads the segments of a {@link TransactionLog} in place.
+ * <p>
+ * Each segment is mapped read-only and the records are handed out as one
+ * {@link TransactionRecord} view moved along the mapping, so reading copies
+ * and allocates nothing per record; a consumer that keeps a record must copy
+ * what it needs before returning.
+ *
+ */
+public class TransactionLogReader {
+
+	private final Path dir;
+
+	public TransactionLogReader(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Hands every record of the log to the consumer, in order. A segment
+	 * ends at its first record that is not valid.
+	 *
+	 * @return the number of records read.
+	 */
+	public long forEach(Consumer<TransactionRecord> consumer) throws IOException {
+		TransactionRecord record = new TransactionRecord();
+		long count = 0;
+		for (Path file : Segment.list(dir).values()) {
+			Segment segment = Segment.open(file, false);
+			for (int i = 0; i < segment.capacity; i++) {
+				if (!record.wrap(segment.buffer, Segment.offset(i), segment.firstSeq + i).isValid()) {
+					break;
+				}
+				consumer.accept(record);
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,119 @@
+package io.pivotal.accounts.journal;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.TransactionType;
+
+/**
+ * Rebuilds the balances of the accounts from the segments of a
+ * {@link TransactionLog}, without starting the service:
+ *
+ * <pre>
+ * ./gradlew replayTransactionLog --args='/var/lib/accounts/transactions --account=500 --records'
+ * </pre>
+ *
+ * For each account and currency it prints the number of transactions and the
+ * net amount, credits less debits, which added to the opening balance of the
+ * account gives its balance. <code>--account=&lt;id&gt;</code> only replays
+ * the given account and <code>--records</code> also prints every record
+ * replayed, for audits.
+ *
+ */
+public final class TransactionLogTool {
+
+	private TransactionLogTool() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("usage: TransactionLogTool <dir> [--account=<id>] [--records]");
+			System.exit(2);
+		}
+		Integer account = null;
+		boolean records = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].startsWith("--account=")) {
+				account = Integer.valueOf(args[i].substring("--account=".length()));
+			} else if (args[i].equals("--records")) {
+				records = true;
+			} else {
+				System.err.println("unknown option: " + args[i]);
+				System.exit(2);
+			}
+		}
+		replay(Paths.get(args[0]), account, records, System.out);
+	}
+
+	/**
+	 * Replays the log and prints the net amounts.
+	 *
+	 * @param account
+	 *            The only account to replay, or null for all.
+	 * @param records
+	 *            Whether to print every record replayed.
+	 * @return the net amounts by account and currency.
+	 */
+	static Map<Long, Net> replay(Path dir, Integer account, boolean records, PrintStream out) throws IOException {
+		Map<Long, Net> nets = new TreeMap<>();
+		if (records) {
+			out.println("seq\tdate\taccount\ttype\tamount\tcurrency\ttransaction");
+		}
+		long count = new TransactionLogReader(dir).forEach(record -> {
+			if (account != null && account != record.accountId()) {
+				return;
+			}
+			if (records) {
+				out.println(record.seq() + "\t" + Instant.ofEpochMilli(record.date()) + "\t" + record.accountId()
+						+ "\t" + record.type() + "\t" + record.amount().toPlainString() + "\t" + record.currency()
+						+ "\t" + record.transactionId());
+			}
+			nets.computeIfAbsent((long) record.accountId() << 16 | record.currencyCode(),
+					key -> new Net(record.accountId(), record.currency())).add(record);
+		});
+		out.println("account\tcurrency\ttransactions\tnet");
+		for (Net net : nets.values()) {
+			out.println(net.accountId + "\t" + net.currency + "\t" + net.transactions + "\t"
+					+ net.amount().toPlainString());
+		}
+		out.println(count + " records read from " + dir);
+		return nets;
+	}
+
+	/**
+	 * Net amount of the transactions of an account in one currency.
+	 */
+	static final class Net {
+
+		final int accountId;
+
+		final String currency;
+
+		long transactions;
+
+		long minorUnits;
+
+		Net(int accountId, String currency) {
+			this.accountId = accountId;
+			this.currency = currency;
+		}
+
+		void add(TransactionRecord record) {
+			transactions++;
+			minorUnits = record.type() == TransactionType.CREDIT
+					? Math.addExact(minorUnits, record.amountMinor())
+					: Math.subtractExact(minorUnits, record.amountMinor());
+		}
+
+		BigDecimal amount() {
+			return Money.toBigDecimal(minorUnits);
+		}
+	}
+}
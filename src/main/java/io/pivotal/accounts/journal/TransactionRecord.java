@@ -0,0 +1,184 @@
+package io.pivotal.accounts.journal;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionType;
+
+/**
+ * The binary format of an applied transaction in the transaction log, and a
+ * reusable view of one record in place.
+ * <p>
+ * Records are 32 bytes, little-endian:
+ *
+ * <pre>
+ *  0  int    account id
+ *  4  byte   type, the ordinal of TransactionType
+ *  5  byte   reserved, 0
+ *  6  short  currency, see CurrencyCodes
+ *  8  long   amount in minor units, scale 2 like the amount columns
+ * 16  long   date, milliseconds since the epoch
+ * 24  int    transaction id, Integer.MIN_VALUE if none
+ * 28  int    CRC32 of bytes 0 to 27
+ * </pre>
+ *
+ * A record is valid only if its CRC32 matches, so the zeroed space after the
+ * last record of a segment, and a record torn by a crash, read as the end of
+ * the segment. The sequence number of a record is not stored; it follows from
+ * its position in the segment.
+ *
+ */
+public final class TransactionRecord {
+
+	/**
+	 * Size of a record.
+	 */
+	public static final int BYTES = 32;
+
+	/**
+	 * Byte order of records and segment headers.
+	 */
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/**
+	 * Decimal places of the amounts in minor units.
+	 */
+	public static final int SCALE = Money.SCALE;
+
+	private static final int ACCOUNT_ID = 0;
+
+	private static final int TYPE = 4;
+
+	private static final int CURRENCY = 6;
+
+	private static final int AMOUNT = 8;
+
+	private static final int DATE = 16;
+
+	private static final int TRANSACTION_ID = 24;
+
+	private static final int CRC = 28;
+
+	private static final int NO_TRANSACTION_ID = Integer.MIN_VALUE;
+
+	private static final TransactionType[] TYPES = TransactionType.values();
+
+	private final CRC32 crc = new CRC32();
+
+	private ByteBuffer buffer;
+
+	private ByteBuffer checked;
+
+	private int offset;
+
+	private long seq;
+
+	/**
+	 * Points this view at the record at the given offset of the buffer.
+	 *
+	 * @return this view.
+	 */
+	TransactionRecord wrap(ByteBuffer buffer, int offset, long seq) {
+		if (this.buffer != buffer) {
+			this.buffer = buffer;
+			this.checked = buffer.duplicate();
+		}
+		this.offset = offset;
+		this.seq = seq;
+		return this;
+	}
+
+	/**
+	 * @return true if the record is complete and matches its CRC32.
+	 */
+	boolean isValid() {
+		return buffer.getInt(offset + CRC) == checksum(crc, checked, offset);
+	}
+
+	public long seq() {
+		return seq;
+	}
+
+	public int accountId() {
+		return buffer.getInt(offset + ACCOUNT_ID);
+	}
+
+	public TransactionType type() {
+		return TYPES[buffer.get(offset + TYPE)];
+	}
+
+	/**
+	 * @return the interned currency code, or null.
+	 */
+	public String currency() {
+		return CurrencyCodes.decode(buffer.getShort(offset + CURRENCY));
+	}
+
+	/**
+	 * @return the packed currency code, see CurrencyCodes.
+	 */
+	int currencyCode() {
+		return buffer.getShort(offset + CURRENCY) & 0xffff;
+	}
+
+	/**
+	 * @return the amount in minor units, e.g. cents.
+	 */
+	public long amountMinor() {
+		return buffer.getLong(offset + AMOUNT);
+	}
+
+	/**
+	 * @return the amount; unlike the other accessors this allocates.
+	 */
+	public BigDecimal amount() {
+		return Money.toBigDecimal(amountMinor());
+	}
+
+	/**
+	 * @return the date in milliseconds since the epoch.
+	 */
+	public long date() {
+		return buffer.getLong(offset + DATE);
+	}
+
+	/**
+	 * @return the transaction id, or null if the transaction had none.
+	 */
+	public Integer transactionId() {
+		int id = buffer.getInt(offset + TRANSACTION_ID);
+		return id == NO_TRANSACTION_ID ? null : id;
+	}
+
+	/**
+	 * Writes the transaction as a record at the given offset of the buffer.
+	 *
+	 * @param crc
+	 *            Reused for the checksum.
+	 * @param checked
+	 *            A duplicate of the buffer, reused for the checksum.
+	 */
+	static void write(ByteBuffer buffer, ByteBuffer checked, int offset, Transaction transaction, long date,
+			CRC32 crc) {
+		buffer.putInt(offset + ACCOUNT_ID, transaction.getAccountId());
+		buffer.put(offset + TYPE, (byte) transaction.getType().ordinal());
+		buffer.put(offset + TYPE + 1, (byte) 0);
+		buffer.putShort(offset + CURRENCY, CurrencyCodes.encode(transaction.getCurrency()));
+		buffer.putLong(offset + AMOUNT, transaction.getAmountMinor());
+		buffer.putLong(offset + DATE, date);
+		buffer.putInt(offset + TRANSACTION_ID,
+				transaction.getTransactionId() == null ? NO_TRANSACTION_ID : transaction.getTransactionId());
+		buffer.putInt(offset + CRC, checksum(crc, checked, offset));
+	}
+
+	private static int checksum(CRC32 crc, ByteBuffer checked, int offset) {
+		crc.reset();
+		checked.limit(offset + CRC).position(offset);
+		crc.update(checked);
+		return (int) crc.getValue();
+	}
+}
@@ -1,12 +1,22 @@
 package io.pivotal.accounts.repository;
 
 import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountSummary;
 import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.Money;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface AccountRepository extends CrudRepository<Account,Integer> {
 
@@ -15,4 +25,104 @@ public interface AccountRepository extends CrudRepository<Account,Integer> {
 
 	@Query("from Account where userid = ?#{principal.claims['user_id']}")
     List<Account> findByUserid();
+
+	/**
+	 * The accounts of the given user, for callers that are not on the thread
+	 * of the authenticated request, where <code>principal</code> is not bound.
+	 */
+	List<Account> findByUserid(String userid);
+
+	/**
+	 * The summaries of the accounts of the user, in id order. Summaries are not
+	 * entities, so they are neither managed nor dirty-checked.
+	 */
+	@Query("select new io.pivotal.accounts.domain.AccountSummary(a.id, a.name, a.type, a.balance, a.currency)"
+			+ " from Account a where a.userid = :userid order by a.id")
+	List<AccountSummary> findSummariesByUserid(@Param("userid") String userid);
+
+	@Query("select new io.pivotal.accounts.domain.AccountSummary(a.id, a.name, a.type, a.balance, a.currency)"
+			+ " from Account a where a.userid = :userid and a.type = :type order by a.id")
+	List<AccountSummary> findSummariesByUseridAndType(@Param("userid") String userid, @Param("type") AccountType type);
+
+	/**
+	 * A page of the accounts of the user, in id order, starting after the
+	 * given id. Only the size of the page is used from the pageable, the
+	 * position is given by the id.
+	 */
+	@Query("from Account a where a.userid = :userid and a.id > :after order by a.id")
+	List<Account> findPage(@Param("userid") String userid, @Param("after") Integer after, Pageable page);
+
+	@Query("from Account a where a.userid = :userid and a.type = :type and a.id > :after order by a.id")
+	List<Account> findPageByType(@Param("userid") String userid, @Param("type") AccountType type,
+			@Param("after") Integer after, Pageable page);
+
+	/**
+	 * All accounts of the user, in id order, fetched from the database in
+	 * batches while the stream is read. Must be read in a transaction. On
+	 * MySQL the fetch size is only honoured with <code>useCursorFetch=true</code>.
+	 */
+	@QueryHints({ @QueryHint(name = "org.hibernate.fetchSize", value = "500"),
+			@QueryHint(name = "org.hibernate.readOnly", value = "true") })
+	@Query("from Account a where a.userid = :userid order by a.id")
+	Stream<Account> streamByUserid(@Param("userid") String userid);
+
+	@QueryHints({ @QueryHint(name = "org.hibernate.fetchSize", value = "500"),
+			@QueryHint(name = "org.hibernate.readOnly", value = "true") })
+	@Query("from Account a where a.userid = :userid and a.type = :type order by a.id")
+	Stream<Account> streamByUseridAndType(@Param("userid") String userid, @Param("type") AccountType type);
+
+	/**
+	 * Subtracts the amount, in minor units, from the balance in a single
+	 * statement, only if the balance covers it. The amount is scaled by the
+	 * database, which multiplies decimals exactly, so no BigDecimal is bound;
+	 * the cast keeps the database from typing the parameter after the literal.
+	 *
+	 * @return the number of rows updated, 0 if the account does not exist or
+	 *         has insufficient funds.
+	 */
+	@Modifying
+	@Transactional
+	@Query("update Account a set a.balance = a.balance - cast(:amount as long) * 0.01, a.version = a.version + 1"
+			+ " where a.id = :id and a.balance >= cast(:amount as long) * 0.01")
+	int debit(@Param("id") Integer id, @Param("amount") long amount);
+
+	/**
+	 * Adds the amount, in minor units, to the balance in a single statement,
+	 * only if the sum fits the balance column, see {@link Money#MAX_MINOR}.
+	 *
+	 * @return the number of rows updated, 0 if the account does not exist or
+	 *         the sum is out of range.
+	 */
+	@Modifying
+	@Transactional
+	@Query("update Account a set a.balance = a.balance + cast(:amount as long) * 0.01, a.version = a.version + 1"
+			+ " where a.id = :id and a.balance <= 999999999999.99 - cast(:amount as long) * 0.01")
+	int credit(@Param("id") Integer id, @Param("amount") long amount);
+
+	@Query("select a.balance, a.version from Account a where a.id = :id")
+	List<Object[]> findBalanceAndVersionById(@Param("id") Integer id);
+
+	@Query("select a.version from Account a where a.id = :id")
+	Long findVersionById(@Param("id") Integer id);
+
+	@Query("select a.userid from Account a where a.id = :id")
+	String findUseridById(@Param("id") Integer id);
+
+	@Query("select a.currency from Account a where a.id = :id")
+	String findCurrencyById(@Param("id") Integer id);
+
+	@Query("select a.id, a.balance, a.userid, a.version from Account a where a.id in :ids")
+	List<Object[]> findBalancesByIdIn(@Param("ids") Collection<Integer> ids);
+
+	/**
+	 * Sets the balance, only if the account still has the given version.
+	 *
+	 * @return the number of rows updated, 0 if the account has changed.
+	 */
+	@Modifying
+	@Transactional
+	@Query("update Account a set a.balance = :balance, a.version = a.version + 1"
+			+ " where a.id = :id and a.version = :version")
+	int updateBalance(@Param("id") Integer id, @Param("version") Long version,
+			@Param("balance") BigDecimal balance);
 }
@@ -0,0 +1,8 @@
+package io.pivotal.accounts.repository;
+
+import io.pivotal.accounts.domain.LedgerEntry;
+import org.springframework.data.repository.CrudRepository;
+
+public interface LedgerRepository extends CrudRepository<LedgerEntry, Long> {
+
+}
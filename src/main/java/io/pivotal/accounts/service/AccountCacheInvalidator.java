@@ -0,0 +1,90 @@
+package io.pivotal.accounts.service;
+
+import java.util.List;
+
+import io.pivotal.accounts.config.CacheConfig;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.event.AccountChangedEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Evicts changed accounts from the local caches once the change is committed,
+ * so that the next read loads the committed balance. A change carrying the
+ * version it left the account at does not evict an entry loaded at a later
+ * version already, so a change delivered late, e.g. from another instance,
+ * cannot replace a fresher entry with an older one. An entry at the same
+ * version is evicted: the write-behind balances of {@link JournaledBalances}
+ * move without the version, which only changes when they are checkpointed.
+ *
+ */
+@Component
+public class AccountCacheInvalidator {
+
+	private static final Logger logger = LoggerFactory.getLogger(AccountCacheInvalidator.class);
+
+	@Autowired
+	CacheManager cacheManager;
+
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	public void onAccountChanged(AccountChangedEvent event) {
+		logger.debug("AccountCacheInvalidator.onAccountChanged: {}", event);
+		evict(event.getAccountId(), event.getUserid(), event.getVersion());
+	}
+
+	/**
+	 * Evicts the account with the given id, and the account list of its owner,
+	 * from the local caches, unless they hold the account at a later version.
+	 *
+	 * @param accountId
+	 *            The id of the account.
+	 * @param userid
+	 *            The owner of the account, or null if not known.
+	 * @param version
+	 *            The version the change left the account at, or null if not
+	 *            known.
+	 */
+	public void evict(Integer accountId, String userid, Long version) {
+		Cache accounts = cacheManager.getCache(CacheConfig.ACCOUNTS);
+		if (accounts != null && accountId != null) {
+			Account cached = accounts.get(accountId, Account.class);
+			if (cached == null || !isLater(cached, version)) {
+				accounts.evict(accountId);
+			}
+		}
+		Cache userAccounts = cacheManager.getCache(CacheConfig.USER_ACCOUNTS);
+		if (userAccounts != null) {
+			if (userid == null) {
+				userAccounts.clear();
+			} else if (!isLater(cachedAccount(userAccounts.get(userid, List.class), accountId), version)) {
+				userAccounts.evict(userid);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the account is cached at a later version than the one
+	 *         given.
+	 */
+	private static boolean isLater(Account cached, Long version) {
+		return cached != null && version != null && cached.getVersion() > version;
+	}
+
+	private static Account cachedAccount(List<?> cached, Integer accountId) {
+		if (cached != null) {
+			for (Object each : cached) {
+				if (each instanceof Account && ((Account) each).getId().equals(accountId)) {
+					return (Account) each;
+				}
+			}
+		}
+		return null;
+	}
+}
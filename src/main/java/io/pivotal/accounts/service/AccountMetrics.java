@@ -0,0 +1,114 @@
+package io.pivotal.accounts.service;
+
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+import io.pivotal.accounts.exception.NoRecordsFoundException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Transaction and database metrics of the accounts service:
+ * <ul>
+ * <li><code>accounts.transactions</code> times each transaction, tagged by
+ * <code>type</code> and <code>outcome</code>.
+ * <li><code>accounts.transactions.batched</code> counts the transactions of
+ * batches, tagged the same way.
+ * <li><code>accounts.repository</code> times database calls, tagged by
+ * <code>repository</code>, <code>method</code> and <code>exception</code>.
+ * </ul>
+ * Outcomes are <code>success</code>, <code>insufficient_funds</code>,
+ * <code>invalid_amount</code>, <code>invalid_type</code>,
+ * <code>not_found</code>, <code>error</code>, <code>duplicate</code> for a
+ * transaction already processed with the same idempotency key and
+ * <code>no_rate</code> for one that could not be converted into the currency
+ * of its account.
+ *
+ */
+@Component
+public class AccountMetrics {
+
+	public static final String TRANSACTIONS = "accounts.transactions";
+
+	public static final String BATCHED_TRANSACTIONS = "accounts.transactions.batched";
+
+	public static final String REPOSITORY = "accounts.repository";
+
+	static final String DUPLICATE = "duplicate";
+
+	static final String NO_RATE = "no_rate";
+
+	static final String CONFLICT = "conflict";
+
+	private final MeterRegistry registry;
+
+	@Autowired
+	public AccountMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	Timer.Sample start() {
+		return Timer.start(registry);
+	}
+
+	void transaction(Timer.Sample sample, Transaction transaction, String outcome) {
+		sample.stop(registry.timer(TRANSACTIONS, "type", type(transaction), "outcome", outcome));
+	}
+
+	void batched(Transaction transaction, TransactionStatus status) {
+		batched(transaction, outcome(transaction, status));
+	}
+
+	void batched(Transaction transaction, String outcome) {
+		registry.counter(BATCHED_TRANSACTIONS, "type", type(transaction), "outcome", outcome).increment();
+	}
+
+	/**
+	 * Times a database call that does not go through a repository.
+	 */
+	<T> T repository(String repository, String method, Supplier<T> call) {
+		Timer.Sample sample = start();
+		String exception = "none";
+		try {
+			return call.get();
+		} catch (RuntimeException e) {
+			exception = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			sample.stop(registry.timer(REPOSITORY, "repository", repository, "method", method, "exception", exception));
+		}
+	}
+
+	/**
+	 * @return why the transaction had the status, following the rules of the
+	 *         conditional updates.
+	 */
+	static String outcome(Transaction transaction, TransactionStatus status) {
+		if (status == TransactionStatus.SUCCESS) {
+			return "success";
+		}
+		if (status == TransactionStatus.CONFLICT) {
+			return CONFLICT;
+		}
+		if (TransactionType.DEBIT.equals(transaction.getType())) {
+			return "insufficient_funds";
+		}
+		if (TransactionType.CREDIT.equals(transaction.getType())) {
+			return transaction.getAmountMinor() <= 0 ? "invalid_amount" : "error";
+		}
+		return "invalid_type";
+	}
+
+	static String outcome(RuntimeException e) {
+		return e instanceof NoRecordsFoundException ? "not_found" : "error";
+	}
+
+	private static String type(Transaction transaction) {
+		return transaction.getType() == null ? "none" : transaction.getType().name();
+	}
+}
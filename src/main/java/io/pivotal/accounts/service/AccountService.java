@@ -1,17 +1,64 @@
 package io.pivotal.accounts.service;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import io.micrometer.core.instrument.Timer;
+import io.pivotal.accounts.config.CacheConfig;
+import io.pivotal.accounts.config.CurrentUser;
+import io.pivotal.accounts.config.VirtualThreadConfig;
 import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountSummary;
 import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.LedgerEntry;
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+import io.pivotal.accounts.event.AccountChangedEvent;
 import io.pivotal.accounts.exception.NoRecordsFoundException;
+import io.pivotal.accounts.journal.TransactionLog;
 import io.pivotal.accounts.repository.AccountRepository;
+import io.pivotal.accounts.repository.LedgerRepository;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * The service in the accounts microservice.
@@ -24,12 +71,136 @@ public class AccountService {
 
 	private static final Logger logger = LoggerFactory.getLogger(AccountService.class);
 
+	private static final String UPDATE_BALANCE_SQL =
+			"update account set balance = ?, version = version + 1 where id = ? and version = ?";
+
+	/**
+	 * Returned by {@link #apply(long, Transaction)} for a transaction that
+	 * fails; below the range of any balance.
+	 */
+	static final long FAILED = Long.MIN_VALUE;
+
 	/**
 	 * The accounts repository.
 	 */
 	@Autowired
 	AccountRepository accounts;
 
+	/**
+	 * The ledger transactions are recorded in.
+	 */
+	@Autowired
+	LedgerRepository ledger;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@PersistenceContext
+	EntityManager entityManager;
+
+	/**
+	 * Publishes account changes, delivered to listeners after commit.
+	 */
+	@Autowired
+	ApplicationEventPublisher publisher;
+
+	@Autowired
+	CacheManager cacheManager;
+
+	/**
+	 * Transaction outcome and database timings.
+	 */
+	@Autowired
+	AccountMetrics metrics;
+
+	/**
+	 * Sampled logging of returned and saved accounts.
+	 */
+	@Autowired
+	PayloadLog payloadLog;
+
+	/**
+	 * Sends the reads of users who just changed an account to the primary.
+	 */
+	@Autowired
+	ReadYourWrites readYourWrites;
+
+	/**
+	 * Outcomes of the transactions submitted with an idempotency key.
+	 */
+	@Autowired
+	IdempotencyStore idempotency;
+
+	/**
+	 * Converts transactions into the currency of their account.
+	 */
+	@Autowired
+	CurrencyConverter converter;
+
+	/**
+	 * Write-behind balances of the journaled accounts, when a journal
+	 * directory is configured.
+	 */
+	@Autowired(required = false)
+	JournaledBalances journal;
+
+	/**
+	 * Local log of the applied transactions, when a log directory is
+	 * configured.
+	 */
+	@Autowired(required = false)
+	TransactionLog transactionLog;
+
+	/**
+	 * Retries the transaction path on version conflicts.
+	 */
+	@Autowired
+	OptimisticRetry retry;
+
+	/**
+	 * Number of stripes transactions are serialized on, 0 to apply them
+	 * directly on the calling thread.
+	 */
+	@Value("${accounts.transactions.stripes:0}")
+	int stripeCount;
+
+	/**
+	 * Maximum number of queued transactions a stripe applies in one go.
+	 */
+	@Value("${accounts.transactions.stripe-batch-size:64}")
+	int stripeBatchSize;
+
+	/**
+	 * Creates the stripe threads when virtual threads are enabled, see
+	 * VirtualThreadConfig.
+	 */
+	@Autowired(required = false)
+	@Qualifier(VirtualThreadConfig.THREAD_FACTORY)
+	ThreadFactory stripeThreadFactory;
+
+	private StripedTransactionExecutor stripes;
+
+	@PostConstruct
+	void startStripes() {
+		if (stripeCount > 0) {
+			logger.info("AccountService: serializing transactions on {} stripes.", stripeCount);
+			stripes = stripeThreadFactory == null
+					? new StripedTransactionExecutor(stripeCount, stripeBatchSize, this::processCoalesced)
+					: new StripedTransactionExecutor(stripeCount, stripeBatchSize, this::processCoalesced,
+							stripeThreadFactory);
+		}
+	}
+
+	@PreDestroy
+	void stopStripes() {
+		if (stripes != null) {
+			stripes.shutdown();
+		}
+	}
+
 	/**
 	 * Retrieve an account with given id. The id here is the unique id value of
 	 * the account managed by the repository (auto-increment).
@@ -38,57 +209,240 @@ public class AccountService {
 	 *            The id of the account.
 	 * @return The account object if found or throws a NoRecordsFoundException.
 	 */
+	@Cacheable(cacheNames = CacheConfig.ACCOUNTS, key = "#id", sync = true)
 	public Account findAccount(Integer id) {
 
-		logger.debug("AccountService.findAccount: id=" + id);
+		logger.debug("AccountService.findAccount: id={}", id);
 
-		Optional<Account> account = accounts.findById(id);
+		// the window is the owner's, who is known once the account was read
+		String owner = cacheManager.getCache(CacheConfig.ACCOUNT_OWNERS).get(id, String.class);
+		Optional<Account> account = readCached(owner, tx -> accounts.findById(id).map(this::withJournaledBalance),
+				found -> found.map(Account::getUserid).orElse(null));
 		if (!account.isPresent()) {
-			logger.warn("AccountService.findAccount: could not find account with id: " + id);
+			logger.warn("AccountService.findAccount: could not find account with id: {}", id);
 			throw new NoRecordsFoundException();
 		}
+		cacheManager.getCache(CacheConfig.ACCOUNT_OWNERS).put(id, account.get().getUserid());
+		cacheManager.getCache(CacheConfig.ACCOUNT_CURRENCIES).put(id, account.get().getCurrency());
 
-		logger.info(String.format("AccountService.findAccount - retrieved account with id: %s. Payload is: %s", id, account.get()));
+		payloadLog.log(PayloadLog.FIND_ACCOUNT, id, account.get());
 
 		return account.get();
 	}
 
 	/**
 	 * Retrieve a list of accounts for a given user. The id here is the unique user id
-	 * value of the account, ie the username.
+	 * value of the account, ie the username. The list is cached per user until
+	 * one of the accounts of the user changes.
 	 * @return The account object if found
 	 */
 	public List<Account> findAccounts() {
 
-		List<Account> account = accounts.findByUserid();
-		
-		logger.debug("Found " + account.size() + " account(s).");
-		
-		logger.info(String.format("AccountService.findAccount - retrieved account for user  Payload is: %s", account));
+		String userId = CurrentUser.userId();
+		if (userId != null) {
+			return findAccounts(userId);
+		}
+		List<Account> account = withJournaledBalances(accounts.findByUserid());
+
+		logger.debug("Found {} account(s).", account.size());
+
+		payloadLog.log(PayloadLog.FIND_ACCOUNTS, userId, account);
 
 		return account;
 	}
+
+	/**
+	 * Retrieve the list of accounts of the given user, for callers that do not
+	 * run on the thread of an authenticated request. The list is cached per
+	 * user until one of the accounts of the user changes.
+	 *
+	 * @param userId
+	 *            The <code>user_id</code> claim of the user.
+	 * @return The accounts of the user.
+	 */
+	public List<Account> findAccounts(String userId) {
+
+		List<Account> account = cacheManager.getCache(CacheConfig.USER_ACCOUNTS).get(userId,
+				() -> loadAccounts(userId));
+
+		logger.debug("Found {} account(s).", account.size());
+
+		payloadLog.log(PayloadLog.FIND_ACCOUNTS, userId, account);
+
+		return account;
+	}
+
+	private List<Account> loadAccounts(String userId) {
+		List<Account> account = readCached(userId, tx -> withJournaledBalances(accounts.findByUserid(userId)),
+				found -> userId);
+		Cache owners = cacheManager.getCache(CacheConfig.ACCOUNT_OWNERS);
+		Cache currencies = cacheManager.getCache(CacheConfig.ACCOUNT_CURRENCIES);
+		for (Account each : account) {
+			owners.put(each.getId(), userId);
+			currencies.put(each.getId(), each.getCurrency());
+		}
+		return Collections.unmodifiableList(account);
+	}
 	
 	/**
 	 * Retrieve a list of accounts for a given user. The id here is the unique user id
-	 * value of the account, ie the username.
+	 * value of the account, ie the username. The accounts are filtered from the
+	 * cached list of the user rather than queried again.
 	 *
 	 * @param type The type of the account to return.
 	 * @return The account object if found
 	 */
 	public List<Account> findAccountsByType(AccountType type) {
 
-		logger.debug("AccountService.findAccount: and type: " + type.toString());
+		logger.debug("AccountService.findAccountsByType: type={}", type);
+
+		String userId = CurrentUser.userId();
+		if (userId != null) {
+			return findAccountsByType(userId, type);
+		}
+		List<Account> account = withJournaledBalances(accounts.findByUseridAndType(type));
+
+		logger.debug("Found {} account(s).", account.size());
 
-		List<Account> account = accounts.findByUseridAndType(type);
-		
-		logger.debug("Found " + account.size() + " account(s).");
-		
-		logger.info(String.format("AccountService.findAccount - retrieved account with Payload is: %s",  account));
+		payloadLog.log(PayloadLog.FIND_ACCOUNTS_BY_TYPE, type, account);
 
 		return account;
 	}
 
+	/**
+	 * Retrieve the accounts of the given type of the given user, filtered from
+	 * the cached list of the user.
+	 *
+	 * @param userId
+	 *            The <code>user_id</code> claim of the user.
+	 * @param type
+	 *            The type of the account to return.
+	 * @return The accounts of the user with that type.
+	 */
+	public List<Account> findAccountsByType(String userId, AccountType type) {
+
+		List<Account> account = new ArrayList<>();
+		for (Account each : findAccounts(userId)) {
+			if (type == each.getType()) {
+				account.add(each);
+			}
+		}
+
+		logger.debug("Found {} account(s).", account.size());
+
+		payloadLog.log(PayloadLog.FIND_ACCOUNTS_BY_TYPE, type, account);
+
+		return account;
+	}
+
+	/**
+	 * Retrieve the summaries of the accounts of the given user, in id order.
+	 * If the accounts of the user are cached the summaries are taken from
+	 * them, otherwise only the summary columns are selected, in a read-only
+	 * transaction so that Hibernate neither flushes nor keeps snapshots.
+	 *
+	 * @param userId
+	 *            The <code>user_id</code> claim of the user.
+	 * @param type
+	 *            The type of the accounts to return, null for all.
+	 * @return The summaries of the accounts.
+	 */
+	public List<AccountSummary> findAccountSummaries(String userId, AccountType type) {
+
+		logger.debug("AccountService.findAccountSummaries: type={}", type);
+
+		List<AccountSummary> summaries;
+		// no user, no cached list: Caffeine does not take null keys
+		Cache.ValueWrapper wrapper = userId == null ? null
+				: cacheManager.getCache(CacheConfig.USER_ACCOUNTS).get(userId);
+		@SuppressWarnings("unchecked")
+		List<Account> cached = wrapper == null ? null : (List<Account>) wrapper.get();
+		if (cached != null) {
+			summaries = new ArrayList<>(cached.size());
+			for (Account each : cached) {
+				if (type == null || type == each.getType()) {
+					summaries.add(new AccountSummary(each));
+				}
+			}
+		} else {
+			summaries = read(userId, tx -> type == null ? accounts.findSummariesByUserid(userId)
+					: accounts.findSummariesByUseridAndType(userId, type));
+			if (journal != null) {
+				for (int i = 0; i < summaries.size(); i++) {
+					AccountSummary summary = summaries.get(i);
+					BigDecimal balance = journal.balanceOf(summary.getId());
+					if (balance != null) {
+						summaries.set(i, new AccountSummary(summary.getId(), summary.getName(), summary.getType(),
+								balance, summary.getCurrency()));
+					}
+				}
+			}
+		}
+
+		logger.debug("Found {} account(s).", summaries.size());
+
+		payloadLog.log(PayloadLog.FIND_ACCOUNT_SUMMARIES, userId, summaries);
+
+		return summaries;
+	}
+
+	/**
+	 * Retrieve a page of the accounts of the given user, in id order. The
+	 * position is the last id of the previous page rather than an offset, so
+	 * every page is an index range scan however deep it is.
+	 *
+	 * @param userId
+	 *            The <code>user_id</code> claim of the user.
+	 * @param type
+	 *            The type of the accounts to return, null for all.
+	 * @param after
+	 *            The last id of the previous page, null for the first page.
+	 * @param size
+	 *            The maximum number of accounts to return.
+	 * @return The accounts of the page, fewer than size on the last page.
+	 */
+	public List<Account> findAccountsPage(String userId, AccountType type, Integer after, int size) {
+
+		logger.debug("AccountService.findAccountsPage: type={}, after={}, size={}", type, after, size);
+
+		Integer from = after == null ? Integer.MIN_VALUE : after;
+		Pageable page = PageRequest.of(0, size);
+		List<Account> account = read(userId, tx -> withJournaledBalances(type == null
+				? accounts.findPage(userId, from, page) : accounts.findPageByType(userId, type, from, page)));
+
+		payloadLog.log(PayloadLog.FIND_ACCOUNTS, userId, account);
+
+		return account;
+	}
+
+	/**
+	 * Hands all accounts of the given user to the consumer, in id order, as
+	 * they are read from the database. Each account is detached once consumed,
+	 * so memory use does not grow with the number of accounts.
+	 *
+	 * @param userId
+	 *            The <code>user_id</code> claim of the user.
+	 * @param type
+	 *            The type of the accounts to hand over, null for all.
+	 * @param consumer
+	 *            Receives the accounts.
+	 */
+	public void streamAccounts(String userId, AccountType type, Consumer<Account> consumer) {
+
+		logger.debug("AccountService.streamAccounts: userId={}, type={}", userId, type);
+
+		read(userId, tx -> {
+			try (Stream<Account> stream = type == null ? accounts.streamByUserid(userId)
+					: accounts.streamByUseridAndType(userId, type)) {
+				stream.forEach(account -> {
+					consumer.accept(withJournaledBalance(account));
+					entityManager.detach(account);
+				});
+			}
+			return null;
+		});
+	}
+
 	/**
 	 * Saves the given account in the repository.
 	 * 
@@ -98,10 +452,611 @@ public class AccountService {
 	 */
 	public Integer saveAccount(Account accountRequest) {
 
-		logger.debug("AccountService.saveAccount:" + accountRequest.toString());
+		logger.debug("AccountService.saveAccount: {}", accountRequest);
 		// need to set some stuff that cannot be null!
 		Account account = accounts.save(accountRequest);
-		logger.info("AccountService.saveAccount: account saved: " + account);
+		cacheManager.getCache(CacheConfig.ACCOUNT_CURRENCIES).put(account.getId(), account.getCurrency());
+		publisher.publishEvent(new AccountChangedEvent(account.getId(), account.getUserid(), account.getVersion()));
+		logger.info("AccountService.saveAccount: account saved: id={}", account.getId());
+		payloadLog.log(PayloadLog.SAVE_ACCOUNT, account.getId(), account);
 		return account.getId();
 	}
+
+	/**
+	 * Processes a transaction against its account. The balance is changed
+	 * with a single conditional update rather than a read-modify-write of the
+	 * account, so concurrent debits cannot overdraw or overwrite each other.
+	 * <p>
+	 * When striping is enabled the transaction is queued behind the other
+	 * transactions of the same account, and transactions queued together are
+	 * written as one balance update.
+	 * <p>
+	 * A transaction with an idempotency key that was already processed is
+	 * not applied again; the original outcome is returned.
+	 * <p>
+	 * Transactions of journaled accounts are applied to their balance in
+	 * memory and journaled instead, see {@link JournaledBalances}.
+	 * <p>
+	 * A transaction in another currency than its account's is converted into
+	 * the currency of the account first, see {@link CurrencyConverter}.
+	 *
+	 * @param transaction
+	 *            The transaction to process.
+	 * @return SUCCESS if the balance was changed, FAILED if there are
+	 *         insufficient funds, a credit amount is not positive or there is
+	 *         no rate to convert the amount with.
+	 */
+	public TransactionStatus processTransaction(Transaction transaction) {
+
+		logger.debug("AccountService.processTransaction: {}", transaction);
+
+		Timer.Sample sample = metrics.start();
+		try {
+			String key = IdempotencyStore.keyOf(transaction);
+			TransactionStatus known = key == null ? null
+					: idempotency.find(key, IdempotencyStore.fingerprintOf(transaction));
+			if (known != null) {
+				logger.debug("AccountService.processTransaction: already processed: {} {}", key, known);
+				metrics.transaction(sample, transaction,
+						known == TransactionStatus.CONFLICT ? AccountMetrics.CONFLICT : AccountMetrics.DUPLICATE);
+				return known;
+			}
+			if (!convert(transaction)) {
+				metrics.transaction(sample, transaction, AccountMetrics.NO_RATE);
+				return TransactionStatus.FAILED;
+			}
+			TransactionStatus status = journaled(transaction) ? journal.apply(transaction)
+					: stripes == null ? applyTransaction(transaction) : applyOnStripe(transaction);
+			metrics.transaction(sample, transaction, AccountMetrics.outcome(transaction, status));
+			return status;
+		} catch (RuntimeException e) {
+			metrics.transaction(sample, transaction, AccountMetrics.outcome(e));
+			throw e;
+		}
+	}
+
+	private TransactionStatus applyOnStripe(Transaction transaction) {
+		try {
+			return stripes.submit(transaction).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Processes a batch of transactions in one database transaction, with the
+	 * same outcome per transaction as {@link #processTransaction(Transaction)}.
+	 * Transactions of an account that does not exist fail.
+	 * <p>
+	 * The balances of all accounts in the batch are read with one query, the
+	 * transactions are applied in order in memory and the new balances are
+	 * written with one JDBC batch of updates conditional on the account
+	 * versions read. If an account changed concurrently the batch is rolled
+	 * back and retried with backoff. Transactions already processed with
+	 * their idempotency key get the original outcome. Transactions of
+	 * journaled accounts are applied one by one in memory instead.
+	 * Transactions are converted into the currency of their account first,
+	 * and fail without being batched if they cannot be.
+	 *
+	 * @param transactions
+	 *            The transactions to process, in order.
+	 * @return the outcome of each transaction, in the same order.
+	 */
+	public List<TransactionStatus> processTransactions(List<Transaction> transactions) {
+
+		logger.debug("AccountService.processTransactions: {} transactions.", transactions.size());
+
+		// accounts are independent, so journaled and unconvertible ones keep their order when split out
+		List<Integer> batched = new ArrayList<>(transactions.size());
+		TransactionStatus[] all = new TransactionStatus[transactions.size()];
+		boolean[] noRate = new boolean[transactions.size()];
+		for (int i = 0; i < transactions.size(); i++) {
+			Transaction transaction = transactions.get(i);
+			boolean converted = convert(transaction);
+			if (!converted || journaled(transaction)) {
+				String key = IdempotencyStore.keyOf(transaction);
+				TransactionStatus known = key == null ? null
+						: idempotency.find(key, IdempotencyStore.fingerprintOf(transaction));
+				noRate[i] = known == null && !converted;
+				all[i] = known != null ? known : converted ? journal.apply(transaction) : TransactionStatus.FAILED;
+			} else {
+				batched.add(i);
+			}
+		}
+		List<TransactionStatus> statuses;
+		if (batched.size() == transactions.size()) {
+			statuses = applyBatchWithRetry(transactions);
+		} else {
+			if (!batched.isEmpty()) {
+				List<Transaction> batch = new ArrayList<>(batched.size());
+				for (Integer i : batched) {
+					batch.add(transactions.get(i));
+				}
+				List<TransactionStatus> applied = applyBatchWithRetry(batch);
+				for (int i = 0; i < batched.size(); i++) {
+					all[batched.get(i)] = applied.get(i);
+				}
+			}
+			statuses = Arrays.asList(all);
+		}
+		for (int i = 0; i < statuses.size(); i++) {
+			if (noRate[i]) {
+				metrics.batched(transactions.get(i), AccountMetrics.NO_RATE);
+			} else {
+				metrics.batched(transactions.get(i), statuses.get(i));
+			}
+		}
+		return statuses;
+	}
+
+	private List<TransactionStatus> applyBatchWithRetry(List<Transaction> transactions) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		try {
+			return retry.execute(null, () -> template.execute(tx -> applyBatch(transactions)));
+		} catch (DuplicateKeyException e) {
+			// a concurrent submission recorded one of the keys first; it is known now
+			logger.debug("AccountService.processTransactions: concurrent duplicate: {}", e.getMessage());
+			return retry.execute(null, () -> template.execute(tx -> applyBatch(transactions)));
+		}
+	}
+
+	private List<TransactionStatus> applyBatch(List<Transaction> transactions) {
+		TransactionStatus[] statuses = new TransactionStatus[transactions.size()];
+		Map<String, Integer> firstByKey = new HashMap<>();
+		Map<Integer, List<Integer>> byAccount = new LinkedHashMap<>();
+		for (Integer i : unprocessed(transactions, statuses, firstByKey)) {
+			byAccount.computeIfAbsent(transactions.get(i).getAccountId(), id -> new ArrayList<>()).add(i);
+		}
+		Map<Integer, Long> balances = new HashMap<>();
+		Map<Integer, String> owners = new HashMap<>();
+		Map<Integer, Long> versions = new HashMap<>();
+		Set<Integer> ids = new HashSet<>(byAccount.keySet());
+		ids.remove(null);
+		if (!ids.isEmpty()) {
+			for (Object[] row : accounts.findBalancesByIdIn(ids)) {
+				balances.put((Integer) row[0], Money.toMinor((BigDecimal) row[1]));
+				owners.put((Integer) row[0], (String) row[2]);
+				versions.put((Integer) row[0], (Long) row[3]);
+			}
+		}
+
+		List<Object[]> updates = new ArrayList<>();
+		for (Map.Entry<Integer, List<Integer>> entry : byAccount.entrySet()) {
+			List<Integer> indexes = entry.getValue();
+			Long balance = balances.get(entry.getKey());
+			if (balance == null) {
+				logger.warn("AccountService.processTransactions: could not find account with id: {}", entry.getKey());
+				for (Integer index : indexes) {
+					statuses[index] = TransactionStatus.FAILED;
+				}
+				continue;
+			}
+			List<Transaction> accountTransactions = new ArrayList<>(indexes.size());
+			for (Integer index : indexes) {
+				accountTransactions.add(transactions.get(index));
+			}
+			TransactionStatus[] accountStatuses = new TransactionStatus[indexes.size()];
+			long newBalance = applyInOrder(balance, accountTransactions, accountStatuses);
+			for (int i = 0; i < indexes.size(); i++) {
+				statuses[indexes.get(i)] = accountStatuses[i];
+			}
+			record(accountTransactions, accountStatuses);
+			remember(accountTransactions, accountStatuses);
+			if (newBalance != balance) {
+				Long version = versions.get(entry.getKey());
+				updates.add(new Object[] { Money.toBigDecimal(newBalance), entry.getKey(), version });
+				publisher.publishEvent(new AccountChangedEvent(entry.getKey(), owners.get(entry.getKey()),
+						nextVersion(version)));
+			}
+		}
+
+		if (!updates.isEmpty()) {
+			int[] counts = metrics.repository("JdbcTemplate", "batchUpdate",
+					() -> jdbcTemplate.batchUpdate(UPDATE_BALANCE_SQL, updates));
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) {
+					throw new ObjectOptimisticLockingFailureException(Account.class, updates.get(i)[1]);
+				}
+			}
+		}
+		repeat(transactions, statuses, firstByKey);
+		return Arrays.asList(statuses);
+	}
+
+	/**
+	 * Applies the transactions of one account in order. A single transaction
+	 * takes the conditional update path; several are applied in memory against
+	 * the current balance and written with one update conditional on the
+	 * account version. If the account keeps changing in between, e.g. by
+	 * another instance, they are applied one by one once the retries are used
+	 * up. Transactions already processed with their idempotency key, including
+	 * earlier in the same list, get the original outcome.
+	 *
+	 * @param accountId
+	 *            The account all transactions belong to.
+	 * @param transactions
+	 *            The transactions to apply, in order.
+	 * @return the outcome of each transaction, in the same order.
+	 */
+	List<TransactionStatus> processCoalesced(Integer accountId, List<Transaction> transactions) {
+		TransactionStatus[] statuses = new TransactionStatus[transactions.size()];
+		Map<String, Integer> firstByKey = new HashMap<>();
+		List<Integer> unprocessed = unprocessed(transactions, statuses, firstByKey);
+		if (unprocessed.size() == transactions.size()) {
+			return processUnprocessed(accountId, transactions);
+		}
+		if (!unprocessed.isEmpty()) {
+			List<Transaction> apply = new ArrayList<>(unprocessed.size());
+			for (Integer i : unprocessed) {
+				apply.add(transactions.get(i));
+			}
+			List<TransactionStatus> applied = processUnprocessed(accountId, apply);
+			for (int i = 0; i < unprocessed.size(); i++) {
+				statuses[unprocessed.get(i)] = applied.get(i);
+			}
+		}
+		repeat(transactions, statuses, firstByKey);
+		return Arrays.asList(statuses);
+	}
+
+	private List<TransactionStatus> processUnprocessed(Integer accountId, List<Transaction> transactions) {
+		if (transactions.size() == 1) {
+			return Collections.singletonList(applyTransaction(transactions.get(0)));
+		}
+		try {
+			List<TransactionStatus> statuses = retry.execute(accountId,
+					() -> applyCoalesced(accountId, transactions));
+			logger.debug("AccountService.processCoalesced: {} transactions processed for account: {}",
+					transactions.size(), accountId);
+			return statuses;
+		} catch (OptimisticLockingFailureException e) {
+			logger.debug("AccountService.processCoalesced: account changed concurrently: {}", accountId);
+		} catch (DuplicateKeyException e) {
+			logger.debug("AccountService.processCoalesced: concurrent duplicate for account: {}", accountId);
+		}
+		List<TransactionStatus> statuses = new ArrayList<>(transactions.size());
+		for (Transaction transaction : transactions) {
+			statuses.add(applyTransaction(transaction));
+		}
+		return statuses;
+	}
+
+	private List<TransactionStatus> applyCoalesced(Integer accountId, List<Transaction> transactions) {
+		return new TransactionTemplate(transactionManager).execute(tx -> {
+			List<Object[]> rows = accounts.findBalanceAndVersionById(accountId);
+			if (rows.isEmpty()) {
+				logger.warn("AccountService.processCoalesced: could not find account with id: {}", accountId);
+				throw new NoRecordsFoundException();
+			}
+			long balance = Money.toMinor((BigDecimal) rows.get(0)[0]);
+			Long version = (Long) rows.get(0)[1];
+			TransactionStatus[] result = new TransactionStatus[transactions.size()];
+			long newBalance = applyInOrder(balance, transactions, result);
+			if (newBalance != balance) {
+				if (accounts.updateBalance(accountId, version, Money.toBigDecimal(newBalance)) == 0) {
+					throw new ObjectOptimisticLockingFailureException(Account.class, accountId);
+				}
+				publisher.publishEvent(new AccountChangedEvent(accountId, ownerOf(accountId), nextVersion(version)));
+			}
+			record(transactions, result);
+			remember(transactions, result);
+			return Arrays.asList(result);
+		});
+	}
+
+	/**
+	 * Applies a single transaction with a conditional update and records it in
+	 * the ledger, and its outcome under its idempotency key, in one database
+	 * transaction.
+	 */
+	private TransactionStatus applyTransaction(Transaction transaction) {
+		String key = IdempotencyStore.keyOf(transaction);
+		try {
+			return new TransactionTemplate(transactionManager).execute(tx -> {
+				TransactionStatus status = applyInTransaction(transaction);
+				if (key != null) {
+					idempotency.record(key, transaction.getAccountId(), status,
+							IdempotencyStore.fingerprintOf(transaction));
+				}
+				return status;
+			});
+		} catch (DuplicateKeyException e) {
+			// a concurrent submission with the same key committed first, this one is rolled back
+			TransactionStatus known = idempotency.find(key, IdempotencyStore.fingerprintOf(transaction));
+			if (known == null) {
+				throw e;
+			}
+			logger.debug("AccountService.applyTransaction: concurrent duplicate: {}", key);
+			return known;
+		}
+	}
+
+	private TransactionStatus applyInTransaction(Transaction transaction) {
+		TransactionStatus status = TransactionStatus.FAILED;
+		Money money = transaction.getMoney();
+		if (money == null) {
+			return status;
+		}
+		if (TransactionType.DEBIT.equals(transaction.getType())) {
+			status = debit(transaction.getAccountId(), money.getMinor());
+		} else if (TransactionType.CREDIT.equals(transaction.getType())) {
+			status = credit(transaction.getAccountId(), money.getMinor());
+		}
+		if (status == TransactionStatus.SUCCESS) {
+			ledger.save(new LedgerEntry(transaction));
+			if (transactionLog != null) {
+				transactionLog.appendOnCommit(Collections.singletonList(transaction));
+			}
+			// the row is locked by the update until commit, so this is the version it set
+			publisher.publishEvent(new AccountChangedEvent(transaction.getAccountId(),
+					ownerOf(transaction.getAccountId()), accounts.findVersionById(transaction.getAccountId())));
+		}
+		return status;
+	}
+
+	/**
+	 * Resolves the transactions already processed with their idempotency
+	 * key to the original outcome, and notes the first of the transactions
+	 * sharing a key.
+	 *
+	 * @return the indexes of the transactions still to apply, which are
+	 *         neither processed nor repeats of an earlier one in the list.
+	 */
+	private List<Integer> unprocessed(List<Transaction> transactions, TransactionStatus[] statuses,
+			Map<String, Integer> firstByKey) {
+		List<Integer> unprocessed = new ArrayList<>(transactions.size());
+		for (int i = 0; i < transactions.size(); i++) {
+			String key = IdempotencyStore.keyOf(transactions.get(i));
+			if (key == null) {
+				unprocessed.add(i);
+			} else if (firstByKey.putIfAbsent(key, i) == null) {
+				statuses[i] = idempotency.find(key, IdempotencyStore.fingerprintOf(transactions.get(i)));
+				if (statuses[i] == null) {
+					unprocessed.add(i);
+				}
+			}
+		}
+		return unprocessed;
+	}
+
+	/**
+	 * Gives the repeats of a key in the list the outcome of the first
+	 * transaction with that key, or CONFLICT if they are not the same
+	 * transaction.
+	 */
+	private static void repeat(List<Transaction> transactions, TransactionStatus[] statuses,
+			Map<String, Integer> firstByKey) {
+		for (int i = 0; i < transactions.size(); i++) {
+			if (statuses[i] == null) {
+				Integer first = firstByKey.get(IdempotencyStore.keyOf(transactions.get(i)));
+				statuses[i] = IdempotencyStore.fingerprintOf(transactions.get(i))
+						.equals(IdempotencyStore.fingerprintOf(transactions.get(first))) ? statuses[first]
+								: TransactionStatus.CONFLICT;
+			}
+		}
+	}
+
+	/**
+	 * Records the outcome of the transactions that have an idempotency key.
+	 */
+	private void remember(List<Transaction> transactions, TransactionStatus[] statuses) {
+		for (int i = 0; i < transactions.size(); i++) {
+			String key = IdempotencyStore.keyOf(transactions.get(i));
+			if (key != null) {
+				idempotency.record(key, transactions.get(i).getAccountId(), statuses[i],
+						IdempotencyStore.fingerprintOf(transactions.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * Records the successful transactions in the ledger, and in the
+	 * transaction log once committed. The entries are inserted in JDBC
+	 * batches when the persistence context is flushed.
+	 */
+	private void record(List<Transaction> transactions, TransactionStatus[] statuses) {
+		List<LedgerEntry> entries = new ArrayList<>(transactions.size());
+		List<Transaction> applied = new ArrayList<>(transactions.size());
+		for (int i = 0; i < transactions.size(); i++) {
+			if (statuses[i] == TransactionStatus.SUCCESS) {
+				entries.add(new LedgerEntry(transactions.get(i)));
+				applied.add(transactions.get(i));
+			}
+		}
+		if (!entries.isEmpty()) {
+			ledger.saveAll(entries);
+			if (transactionLog != null) {
+				transactionLog.appendOnCommit(applied);
+			}
+		}
+	}
+
+	/**
+	 * Applies the transaction to the given balance, in minor units, with the
+	 * same rules as the conditional updates. A credit that would take the
+	 * balance beyond what the balance column holds fails too.
+	 *
+	 * @return the new balance, or {@link #FAILED} if the transaction fails.
+	 */
+	static long apply(long balance, Transaction transaction) {
+		Money money = transaction.getMoney();
+		if (money == null) {
+			return FAILED;
+		}
+		long amount = money.getMinor();
+		if (TransactionType.DEBIT.equals(transaction.getType())) {
+			return balance >= amount && Money.inRange(balance - amount) ? balance - amount : FAILED;
+		} else if (TransactionType.CREDIT.equals(transaction.getType())) {
+			return amount > 0 && Money.inRange(balance + amount) ? balance + amount : FAILED;
+		}
+		return FAILED;
+	}
+
+	/**
+	 * Applies the transactions in order to the given balance, in minor units,
+	 * recording the outcome of each.
+	 *
+	 * @return the balance after all successful transactions.
+	 */
+	private static long applyInOrder(long balance, List<Transaction> transactions, TransactionStatus[] statuses) {
+		long newBalance = balance;
+		for (int i = 0; i < transactions.size(); i++) {
+			long applied = apply(newBalance, transactions.get(i));
+			if (applied == FAILED) {
+				statuses[i] = TransactionStatus.FAILED;
+			} else {
+				statuses[i] = TransactionStatus.SUCCESS;
+				newBalance = applied;
+			}
+		}
+		return newBalance;
+	}
+
+	private TransactionStatus debit(Integer id, long amount) {
+		if (accounts.debit(id, amount) > 0) {
+			logger.debug("AccountService.debit: transaction processed.");
+			return TransactionStatus.SUCCESS;
+		}
+		// nothing updated: either no such account or no sufficient funds available
+		checkAccountExists(id);
+		return TransactionStatus.FAILED;
+	}
+
+	private TransactionStatus credit(Integer id, long amount) {
+		if (amount <= 0) {
+			// amount can not be negative for a credit, please use a debit
+			return TransactionStatus.FAILED;
+		}
+		if (accounts.credit(id, amount) == 0) {
+			// nothing updated: either no such account or a balance beyond the column
+			checkAccountExists(id);
+			return TransactionStatus.FAILED;
+		}
+		logger.debug("AccountService.credit: transaction processed.");
+		return TransactionStatus.SUCCESS;
+	}
+
+	/**
+	 * Runs a read of the accounts of the given user in a read-only
+	 * transaction, which is routed to a replica when replicas are configured,
+	 * unless the user changed an account recently and the replica may not
+	 * have the change yet.
+	 *
+	 * @param userId
+	 *            The user the accounts belong to, null if not known.
+	 */
+	private <T> T read(String userId, TransactionCallback<T> read) {
+		return readFrom(readYourWrites.mustReadPrimary(userId), read);
+	}
+
+	private <T> T readFrom(boolean primary, TransactionCallback<T> read) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setReadOnly(!primary);
+		return template.execute(read);
+	}
+
+	/**
+	 * Runs a read whose result goes into the shared caches, like
+	 * {@link #read(String, TransactionCallback)}, and runs it again on the
+	 * primary if it ran on a replica and the owner of the result is within
+	 * the window by the time it returns, because the owner was not known
+	 * before or changed an account meanwhile; or if it found nothing without
+	 * knowing the owner, as a replica may not have a new account yet. The
+	 * caches then never take a result of a replica that may not have the
+	 * change of the owner.
+	 *
+	 * @param owner
+	 *            The owner of the accounts read, null if not known.
+	 * @param ownerOf
+	 *            The owner of the accounts in the result, null if none.
+	 */
+	private <T> T readCached(String owner, TransactionCallback<T> read, Function<T, String> ownerOf) {
+		boolean primary = readYourWrites.mustReadPrimary(owner);
+		T result = readFrom(primary, read);
+		if (!primary) {
+			String found = ownerOf.apply(result);
+			if (found == null ? owner == null : readYourWrites.mustReadPrimary(found)) {
+				logger.debug("AccountService.readCached: reading again on the primary for userid={}", found);
+				result = readFrom(true, read);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts the transaction into the currency of its account, which is
+	 * only looked up if the transaction has a currency, and then mostly
+	 * found in the cache.
+	 *
+	 * @return false if the transaction cannot be converted.
+	 */
+	private boolean convert(Transaction transaction) {
+		return transaction.getCurrency() == null
+				|| converter.convert(transaction, currencyOf(transaction.getAccountId()));
+	}
+
+	/**
+	 * @return the currency of the account, or null if there is no such
+	 *         account; which is not cached, as the account may yet be
+	 *         created.
+	 */
+	private String currencyOf(Integer accountId) {
+		Cache cache = cacheManager.getCache(CacheConfig.ACCOUNT_CURRENCIES);
+		Cache.ValueWrapper cached = cache.get(accountId);
+		if (cached != null && cached.get() != null) {
+			return (String) cached.get();
+		}
+		String currency = accounts.findCurrencyById(accountId);
+		if (currency != null) {
+			cache.put(accountId, currency);
+		}
+		return currency;
+	}
+
+	private boolean journaled(Transaction transaction) {
+		return journal != null && journal.isJournaled(transaction.getAccountId());
+	}
+
+	/**
+	 * Replaces the balance of a journaled account with the one held in
+	 * memory. The account is detached first, so the balance is never written
+	 * back by a flush.
+	 */
+	private Account withJournaledBalance(Account account) {
+		BigDecimal balance = journal == null ? null : journal.balanceOf(account.getId());
+		if (balance != null) {
+			entityManager.detach(account);
+			account.setBalance(balance);
+		}
+		return account;
+	}
+
+	private List<Account> withJournaledBalances(List<Account> account) {
+		if (journal != null) {
+			account.forEach(this::withJournaledBalance);
+		}
+		return account;
+	}
+
+	private static Long nextVersion(Long version) {
+		return version == null ? null : version + 1;
+	}
+
+	/**
+	 * @return the userid owning the account, from the owners cache if known.
+	 */
+	private String ownerOf(Integer accountId) {
+		return cacheManager.getCache(CacheConfig.ACCOUNT_OWNERS).get(accountId,
+				() -> accounts.findUseridById(accountId));
+	}
+
+	private void checkAccountExists(Integer id) {
+		if (!accounts.existsById(id)) {
+			logger.warn("AccountService.checkAccountExists: could not find account with id: {}", id);
+			throw new NoRecordsFoundException();
+		}
+	}
 }
@@ -0,0 +1,500 @@
+package io.pivotal.accounts.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the transactions applied to in-memory balances.
+ * <p>
+ * Entries are appended to the current segment file by a single writer
+ * thread. Whatever has queued up while the previous group was being written
+ * is written and forced to disk together, so one fsync makes a whole group
+ * durable (group commit). Each entry is framed with its length and a CRC32,
+ * and a torn entry at the end of the last segment, left by a crash during a
+ * write, is truncated when the journal is opened.
+ * <p>
+ * {@link #roll()} closes the current segment and starts a new one; once the
+ * entries of the closed segments are checkpointed elsewhere they are deleted
+ * with {@link #deleteClosedSegments()}.
+ *
+ */
+class BalanceJournal implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BalanceJournal.class);
+
+	private static final String SEGMENT_PREFIX = "journal-";
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Length and CRC32 framing each entry.
+	 */
+	private static final int FRAME_BYTES = 8;
+
+	/**
+	 * Written in place of the type of a transaction without one.
+	 */
+	private static final byte NO_TYPE = -1;
+
+	/**
+	 * Written in place of the scale of a missing amount, which no amount has,
+	 * so entries with an amount are laid out as before.
+	 */
+	private static final int NO_AMOUNT = Integer.MIN_VALUE;
+
+	/**
+	 * A transaction as journaled: its outcome and the balance of the account
+	 * after it, in minor units.
+	 */
+	static final class Entry {
+
+		final long seq;
+
+		final Transaction transaction;
+
+		final TransactionStatus status;
+
+		final long balance;
+
+		Entry(long seq, Transaction transaction, TransactionStatus status, long balance) {
+			this.seq = seq;
+			this.transaction = transaction;
+			this.status = status;
+			this.balance = balance;
+		}
+	}
+
+	private final Path dir;
+
+	private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+
+	/**
+	 * Queued by {@link #close()} to stop the writer once everything before
+	 * it is written.
+	 */
+	private final Append closing = new Append(null, null, 0);
+
+	private final Thread writer;
+
+	/**
+	 * Entries appended since the last roll, guarded by this.
+	 */
+	private List<Entry> sinceRoll = new ArrayList<>();
+
+	private long nextSeq;
+
+	private FileChannel segment;
+
+	private long segmentFirstSeq;
+
+	/**
+	 * Why entries can no longer be appended, guarded by this.
+	 */
+	private RuntimeException closed;
+
+	/**
+	 * Opens the journal in the given directory, handing the entries after the
+	 * given sequence number to the consumer in order. New entries go to a new
+	 * segment, so the replayed segments are deleted by the next
+	 * {@link #deleteClosedSegments()}.
+	 *
+	 * @param dir
+	 *            The directory of the segment files, created if missing.
+	 * @param checkpointed
+	 *            The sequence number of the last entry checkpointed.
+	 * @param replay
+	 *            Receives the entries not checkpointed yet.
+	 */
+	BalanceJournal(Path dir, long checkpointed, Consumer<Entry> replay) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		long lastSeq = checkpointed;
+		List<Path> segments = new ArrayList<>(segments().values());
+		for (int i = 0; i < segments.size(); i++) {
+			lastSeq = Math.max(lastSeq, read(segments.get(i), i == segments.size() - 1, checkpointed, replay));
+		}
+		this.nextSeq = lastSeq + 1;
+		openSegment(nextSeq);
+		this.writer = new Thread(this::write, "balance-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Appends the transaction with its outcome and the balance after it, in
+	 * minor units.
+	 *
+	 * @return the entry, completed once it is durable.
+	 */
+	CompletableFuture<Entry> append(Transaction transaction, TransactionStatus status, long balance) {
+		Append append;
+		synchronized (this) {
+			if (closed != null) {
+				throw closed;
+			}
+			Entry entry = new Entry(nextSeq++, transaction, status, balance);
+			append = new Append(entry, encode(entry), 0);
+			sinceRoll.add(entry);
+			queue.add(append);
+		}
+		return append.done.thenApply(ignored -> append.entry);
+	}
+
+	/**
+	 * Closes the current segment and starts a new one.
+	 *
+	 * @return the entries of the closed segment, once they are durable.
+	 */
+	List<Entry> roll() {
+		Append roll;
+		List<Entry> rolled;
+		synchronized (this) {
+			if (closed != null) {
+				throw closed;
+			}
+			rolled = sinceRoll;
+			sinceRoll = new ArrayList<>();
+			roll = new Append(null, null, nextSeq);
+			queue.add(roll);
+		}
+		roll.done.join();
+		return rolled;
+	}
+
+	/**
+	 * Deletes the segments closed by {@link #roll()} or replayed on open.
+	 */
+	void deleteClosedSegments() throws IOException {
+		long current;
+		synchronized (this) {
+			current = segmentFirstSeq;
+		}
+		for (Map.Entry<Long, Path> each : segments().headMap(current).entrySet()) {
+			Files.delete(each.getValue());
+			logger.debug("BalanceJournal.deleteClosedSegments: deleted {}", each.getValue());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed == null) {
+				closed = new IllegalStateException("balance journal closed");
+				queue.add(closing);
+			}
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		segment.close();
+	}
+
+	private void write() {
+		List<Append> group = new ArrayList<>();
+		boolean running = true;
+		while (running) {
+			try {
+				group.add(queue.take());
+			} catch (InterruptedException e) {
+				logger.warn("BalanceJournal: writer interrupted, the journal is closed.");
+				fail(group, new IllegalStateException("balance journal writer interrupted"));
+				return;
+			}
+			queue.drainTo(group);
+			running = !group.remove(closing);
+			try {
+				writeGroup(group);
+			} catch (IOException e) {
+				logger.error("BalanceJournal: failed to write {} entries, the journal is closed.", group.size(), e);
+				fail(group, new UncheckedIOException(e));
+				return;
+			}
+			for (Append append : group) {
+				append.done.complete(null);
+			}
+			group.clear();
+		}
+	}
+
+	/**
+	 * Fails the given and all queued appends, and any made from now on.
+	 */
+	private void fail(List<Append> group, RuntimeException cause) {
+		synchronized (this) {
+			closed = cause;
+			queue.drainTo(group);
+		}
+		for (Append append : group) {
+			append.done.completeExceptionally(cause);
+		}
+	}
+
+	private void writeGroup(List<Append> group) throws IOException {
+		List<ByteBuffer> buffers = new ArrayList<>(group.size());
+		for (Append append : group) {
+			if (append.bytes != null) {
+				buffers.add(append.bytes);
+				continue;
+			}
+			// a roll: everything before it goes to the current segment
+			writeFully(buffers);
+			segment.force(false);
+			segment.close();
+			synchronized (this) {
+				openSegment(append.rollSeq);
+			}
+		}
+		writeFully(buffers);
+		segment.force(false);
+	}
+
+	private void writeFully(List<ByteBuffer> buffers) throws IOException {
+		ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+		long remaining = 0;
+		for (ByteBuffer buffer : array) {
+			remaining += buffer.remaining();
+		}
+		while (remaining > 0) {
+			remaining -= segment.write(array);
+		}
+		buffers.clear();
+	}
+
+	private void openSegment(long firstSeq) throws IOException {
+		segmentFirstSeq = firstSeq;
+		segment = FileChannel.open(dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX)),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * @return the segment files by the sequence number of their first entry.
+	 */
+	private TreeMap<Long, Path> segments() throws IOException {
+		TreeMap<Long, Path> segments = new TreeMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+						name.length() - SEGMENT_SUFFIX.length())), file);
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Reads the entries of a segment, truncating a torn entry at the end of
+	 * the last segment. An entry that matches its CRC32 but cannot be decoded
+	 * was written whole, so it fails the read wherever it is.
+	 *
+	 * @return the sequence number of the last entry read.
+	 */
+	private static long read(Path file, boolean last, long after, Consumer<Entry> replay) throws IOException {
+		long lastSeq = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+			while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+				// read the whole segment
+			}
+			bytes.flip();
+			while (bytes.hasRemaining()) {
+				int start = bytes.position();
+				Entry entry;
+				try {
+					entry = decode(bytes);
+				} catch (IOException e) {
+					throw new IOException("corrupt balance journal entry in " + file + " at " + start, e);
+				}
+				if (entry == null) {
+					if (!last) {
+						throw new IOException("corrupt balance journal entry in " + file + " at " + start);
+					}
+					logger.warn("BalanceJournal: truncating torn entry in {} at {}", file, start);
+					channel.truncate(start);
+					channel.force(true);
+					break;
+				}
+				lastSeq = entry.seq;
+				if (entry.seq > after) {
+					replay.accept(entry);
+				}
+			}
+		}
+		return lastSeq;
+	}
+
+	static ByteBuffer encode(Entry entry) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			Transaction transaction = entry.transaction;
+			out.writeInt(0); // length, set below
+			out.writeLong(entry.seq);
+			out.writeInt(transaction.getAccountId());
+			out.writeByte(transaction.getType() == null ? NO_TYPE : transaction.getType().ordinal());
+			out.writeByte(entry.status.ordinal());
+			out.writeLong(transaction.getDate() == null ? Long.MIN_VALUE : transaction.getDate().getTime());
+			out.writeBoolean(transaction.getTransactionId() != null);
+			out.writeInt(transaction.getTransactionId() == null ? 0 : transaction.getTransactionId());
+			if (transaction.getAmount() == null) {
+				out.writeInt(NO_AMOUNT);
+			} else {
+				writeDecimal(out, transaction.getAmount());
+			}
+			writeDecimal(out, Money.toBigDecimal(entry.balance));
+			writeString(out, transaction.getCurrency());
+			writeString(out, transaction.getDescription());
+			writeString(out, transaction.getIdempotencyKey());
+			out.writeBoolean(transaction.getOriginalAmount() != null);
+			if (transaction.getOriginalAmount() != null) {
+				writeDecimal(out, transaction.getOriginalAmount());
+			}
+			writeString(out, transaction.getOriginalCurrency());
+			out.writeInt(0); // CRC32, set below
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		int length = buffer.capacity() - FRAME_BYTES;
+		buffer.putInt(0, length);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 4, length);
+		buffer.putInt(4 + length, (int) crc.getValue());
+		return buffer;
+	}
+
+	/**
+	 * @return the entry at the position of the buffer, or null if it is
+	 *         incomplete or does not match its CRC32.
+	 * @throws IOException
+	 *             if the entry matches its CRC32 but cannot be decoded, which
+	 *             is not a torn write and must not be truncated.
+	 */
+	static Entry decode(ByteBuffer bytes) throws IOException {
+		if (bytes.remaining() < FRAME_BYTES) {
+			return null;
+		}
+		int start = bytes.position();
+		int length = bytes.getInt(start);
+		if (length <= 0 || length > bytes.remaining() - FRAME_BYTES) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes.array(), bytes.arrayOffset() + start + 4, length);
+		if ((int) crc.getValue() != bytes.getInt(start + 4 + length)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(bytes.array(), bytes.arrayOffset() + start + 4, length))) {
+			long seq = in.readLong();
+			Transaction transaction = new Transaction();
+			transaction.setAccountId(in.readInt());
+			byte type = in.readByte();
+			transaction.setType(type == NO_TYPE ? null : TransactionType.values()[type]);
+			TransactionStatus status = TransactionStatus.values()[in.readByte()];
+			long date = in.readLong();
+			transaction.setDate(date == Long.MIN_VALUE ? null : new Date(date));
+			boolean hasId = in.readBoolean();
+			int id = in.readInt();
+			transaction.setTransactionId(hasId ? id : null);
+			int scale = in.readInt();
+			transaction.setAmount(scale == NO_AMOUNT ? null : readDecimal(in, scale));
+			long balance = Money.toMinor(readDecimal(in));
+			transaction.setCurrency(readString(in));
+			transaction.setDescription(readString(in));
+			transaction.setIdempotencyKey(readString(in));
+			// entries journaled before the original amount was end here
+			if (in.available() > 0) {
+				if (in.readBoolean()) {
+					transaction.setOriginalAmount(readDecimal(in));
+				}
+				transaction.setOriginalCurrency(readString(in));
+			}
+			bytes.position(start + FRAME_BYTES + length);
+			return new Entry(seq, transaction, status, balance);
+		} catch (IOException | ArithmeticException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("malformed entry", e);
+		}
+	}
+
+	private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+		byte[] unscaled = value.unscaledValue().toByteArray();
+		out.writeInt(value.scale());
+		out.writeShort(unscaled.length);
+		out.write(unscaled);
+	}
+
+	private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+		return readDecimal(in, in.readInt());
+	}
+
+	private static BigDecimal readDecimal(DataInputStream in, int scale) throws IOException {
+		byte[] unscaled = new byte[in.readUnsignedShort()];
+		in.readFully(unscaled);
+		return new BigDecimal(new BigInteger(unscaled), scale);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static final class Append {
+
+		final Entry entry;
+
+		/**
+		 * The framed entry, or null for a roll.
+		 */
+		final ByteBuffer bytes;
+
+		/**
+		 * The sequence number of the first entry after a roll.
+		 */
+		final long rollSeq;
+
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Append(Entry entry, ByteBuffer bytes, long rollSeq) {
+			this.entry = entry;
+			this.bytes = bytes;
+			this.rollSeq = rollSeq;
+		}
+	}
+}
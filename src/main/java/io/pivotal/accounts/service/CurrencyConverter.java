@@ -0,0 +1,191 @@
+package io.pivotal.accounts.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Converts transactions in another currency than their account's into the
+ * currency of the account, before they are applied.
+ * <p>
+ * The rates are held as an {@link ExchangeRates} snapshot, which is never
+ * changed: every <code>accounts.exchange-rates.refresh-interval-millis</code>
+ * a new snapshot is loaded and swapped in, so conversions read the rates
+ * without a lock or a query. The rates are given against
+ * <code>accounts.exchange-rates.base</code> and are loaded from the
+ * properties file <code>accounts.exchange-rates.file</code>, e.g.
+ * <code>EUR=0.87</code>, when it is set, else from the
+ * <code>exchange_rate</code> table. If the rates cannot be loaded the
+ * previous snapshot is kept.
+ *
+ */
+@Component
+public class CurrencyConverter {
+
+	private static final Logger logger = LoggerFactory.getLogger(CurrencyConverter.class);
+
+	/**
+	 * Message of the response refusing a currency that is not three letters.
+	 */
+	public static final String INVALID_CURRENCY = "currency must be three letters";
+
+	private static final String SELECT_RATES_SQL = "select currency, rate from exchange_rate";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final String base;
+
+	private final String file;
+
+	private final AtomicReference<ExchangeRates> rates;
+
+	@Autowired
+	public CurrencyConverter(JdbcTemplate jdbcTemplate,
+			@Value("${accounts.exchange-rates.base:USD}") String base,
+			@Value("${accounts.exchange-rates.file:}") String file) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.base = codeOf(base);
+		this.file = file;
+		this.rates = new AtomicReference<>(ExchangeRates.none(this.base));
+	}
+
+	/**
+	 * Loads the rates and swaps them in.
+	 */
+	@PostConstruct
+	@Scheduled(fixedDelayString = "${accounts.exchange-rates.refresh-interval-millis:60000}")
+	public void refresh() {
+		try {
+			ExchangeRates loaded = ExchangeRates.of(base, file.isEmpty() ? loadTable() : loadFile());
+			if (!rates.getAndSet(loaded).getCurrencies().equals(loaded.getCurrencies())) {
+				logger.info("CurrencyConverter: rates of {} against {} loaded.", loaded.getCurrencies(), base);
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.warn("CurrencyConverter: failed to load the rates, keeping the previous ones.", e);
+		}
+	}
+
+	/**
+	 * @return the current rates.
+	 */
+	public ExchangeRates rates() {
+		return rates.get();
+	}
+
+	void update(ExchangeRates rates) {
+		this.rates.set(rates);
+	}
+
+	/**
+	 * Normalizes the currency of a transaction as submitted, trimmed and in
+	 * upper case, so it compares equal to the codes of the rates and of the
+	 * accounts.
+	 *
+	 * @return false if the transaction has a currency that is not three
+	 *         letters.
+	 */
+	public static boolean normalizeCurrency(Transaction transaction) {
+		String currency = transaction.getCurrency();
+		if (currency == null) {
+			return true;
+		}
+		currency = codeOf(currency);
+		if (currency.length() != 3) {
+			return false;
+		}
+		for (int i = 0; i < currency.length(); i++) {
+			if (currency.charAt(i) < 'A' || currency.charAt(i) > 'Z') {
+				return false;
+			}
+		}
+		transaction.setCurrency(currency);
+		return true;
+	}
+
+	/**
+	 * @return the currency code trimmed and in upper case, null if null; the
+	 *         same string if it already is.
+	 */
+	static String codeOf(String currency) {
+		return currency == null ? null : currency.trim().toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Converts the amount of the transaction into the given currency of its
+	 * account, and sets the transaction to that currency, keeping the amount
+	 * and currency submitted as its original ones. A transaction
+	 * without a currency, or in the currency of the account, is left as it
+	 * is, as is one of an account whose currency is not known.
+	 *
+	 * @param currency
+	 *            The currency of the account, null if not known, in any case:
+	 *            accounts keep the code they were saved with.
+	 * @return false if there is no rate between the currencies, or the
+	 *         converted amount is out of range.
+	 */
+	public boolean convert(Transaction transaction, String currency) {
+		currency = codeOf(currency);
+		String from = transaction.getCurrency();
+		if (from == null || currency == null || from.equals(currency) || transaction.getAmount() == null) {
+			return true;
+		}
+		Money converted;
+		try {
+			converted = rates.get().convert(transaction.getMoney(), currency);
+		} catch (ArithmeticException e) {
+			logger.warn("CurrencyConverter.convert: {} out of range in {}", transaction, currency);
+			return false;
+		}
+		if (converted == null) {
+			logger.warn("CurrencyConverter.convert: no rate from {} to {} for {}", from, currency, transaction);
+			return false;
+		}
+		logger.debug("CurrencyConverter.convert: {} converted to {}", transaction.getMoney(), converted);
+		transaction.setOriginalAmount(transaction.getAmount());
+		transaction.setOriginalCurrency(from);
+		transaction.setCurrency(currency);
+		transaction.setAmount(converted.toBigDecimal());
+		return true;
+	}
+
+	private Map<String, BigDecimal> loadTable() {
+		Map<String, BigDecimal> loaded = new HashMap<>();
+		jdbcTemplate.query(SELECT_RATES_SQL, row -> {
+			loaded.put(codeOf(row.getString(1)), row.getBigDecimal(2));
+		});
+		return loaded;
+	}
+
+	private Map<String, BigDecimal> loadFile() throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		Map<String, BigDecimal> loaded = new HashMap<>();
+		for (String currency : properties.stringPropertyNames()) {
+			loaded.put(codeOf(currency), new BigDecimal(properties.getProperty(currency).trim()));
+		}
+		return loaded;
+	}
+}
@@ -0,0 +1,143 @@
+package io.pivotal.accounts.service;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.pivotal.accounts.domain.Money;
+
+/**
+ * An immutable snapshot of exchange rates, with the cross rate of every pair
+ * of currencies computed when the snapshot is taken, so a conversion is one
+ * lookup and one multiplication.
+ * <p>
+ * Rates are given against a base currency, as the units of a currency one
+ * unit of the base buys; the base itself has the rate 1. Cross rates keep 34
+ * significant digits, and converted amounts are rounded half up to minor
+ * units like the amounts of transactions, see {@link Money}.
+ *
+ */
+public final class ExchangeRates {
+
+	/**
+	 * Returned by {@link #convert(long, String, String)} when there is no rate
+	 * between the currencies; below the range of any amount.
+	 */
+	public static final long NO_RATE = Long.MIN_VALUE;
+
+	private final String base;
+
+	private final Map<String, Integer> indexes;
+
+	/**
+	 * Units of the second currency one unit of the first buys, by index.
+	 */
+	private final BigDecimal[][] cross;
+
+	private ExchangeRates(String base, Map<String, Integer> indexes, BigDecimal[][] cross) {
+		this.base = base;
+		this.indexes = indexes;
+		this.cross = cross;
+	}
+
+	/**
+	 * @param base
+	 *            The currency the rates are given against.
+	 * @param rates
+	 *            The units of each currency one unit of the base buys; a rate
+	 *            given for the base is ignored.
+	 * @throws IllegalArgumentException
+	 *             if a rate is not positive.
+	 */
+	public static ExchangeRates of(String base, Map<String, BigDecimal> rates) {
+		Map<String, BigDecimal> all = new HashMap<>(rates);
+		all.put(base, BigDecimal.ONE);
+		Map<String, Integer> indexes = new HashMap<>();
+		BigDecimal[] toBase = new BigDecimal[all.size()];
+		for (Map.Entry<String, BigDecimal> rate : all.entrySet()) {
+			if (rate.getValue() == null || rate.getValue().signum() <= 0) {
+				throw new IllegalArgumentException("rate of " + rate.getKey() + " not positive: " + rate.getValue());
+			}
+			toBase[indexes.size()] = rate.getValue();
+			indexes.put(rate.getKey(), indexes.size());
+		}
+		BigDecimal[][] cross = new BigDecimal[toBase.length][toBase.length];
+		for (int from = 0; from < toBase.length; from++) {
+			for (int to = 0; to < toBase.length; to++) {
+				cross[from][to] = from == to ? BigDecimal.ONE : toBase[to].divide(toBase[from], MathContext.DECIMAL128);
+			}
+		}
+		return new ExchangeRates(base, Collections.unmodifiableMap(indexes), cross);
+	}
+
+	/**
+	 * @return a snapshot with no rates but the base, which converts nothing.
+	 */
+	public static ExchangeRates none(String base) {
+		return of(base, Collections.emptyMap());
+	}
+
+	public String getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the currencies there are rates for, including the base.
+	 */
+	public Set<String> getCurrencies() {
+		return indexes.keySet();
+	}
+
+	/**
+	 * @return the units of the second currency one unit of the first buys, or
+	 *         null if there is no rate between them.
+	 */
+	public BigDecimal rate(String from, String to) {
+		Integer fromIndex = indexes.get(from);
+		Integer toIndex = indexes.get(to);
+		return fromIndex == null || toIndex == null ? null : cross[fromIndex][toIndex];
+	}
+
+	/**
+	 * Converts an amount in minor units. An amount in its own currency is
+	 * returned as is, without a lookup.
+	 *
+	 * @return the amount in the minor units of the second currency, rounded
+	 *         half up, or {@link #NO_RATE} if there is no rate between them.
+	 * @throws ArithmeticException
+	 *             if the converted amount is out of range.
+	 */
+	public long convert(long minor, String from, String to) {
+		if (from.equals(to)) {
+			return minor;
+		}
+		BigDecimal rate = rate(from, to);
+		if (rate == null) {
+			return NO_RATE;
+		}
+		BigDecimal converted = BigDecimal.valueOf(minor).multiply(rate).setScale(0, RoundingMode.HALF_UP);
+		if (converted.compareTo(BigDecimal.valueOf(Money.MAX_MINOR)) > 0
+				|| converted.compareTo(BigDecimal.valueOf(Money.MIN_MINOR)) < 0) {
+			throw new ArithmeticException("converted amount out of range: " + converted);
+		}
+		return converted.longValue();
+	}
+
+	/**
+	 * Converts an amount into another currency, see
+	 * {@link #convert(long, String, String)}.
+	 *
+	 * @return the amount in the second currency, or null if there is no rate
+	 *         between the currencies.
+	 * @throws ArithmeticException
+	 *             if the converted amount is out of range.
+	 */
+	public Money convert(Money amount, String to) {
+		long converted = convert(amount.getMinor(), amount.getCurrency(), to);
+		return converted == NO_RATE ? null : Money.ofMinor(converted, to);
+	}
+}
@@ -0,0 +1,235 @@
+package io.pivotal.accounts.service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Remembers the outcome of each transaction submitted with an idempotency
+ * key, so that a retried submission gets the original outcome instead of
+ * being applied again.
+ * <p>
+ * Outcomes are written to the <code>idempotency_key</code> table in the same
+ * database transaction as the balance change, and the primary key on the
+ * idempotency key makes a concurrent duplicate fail and roll back. Recent
+ * outcomes are also kept in memory, so most retries are answered without a
+ * query.
+ * <p>
+ * Keys are scoped to the account of the transaction, so that the same key
+ * sent for two accounts, or a transaction id reused on another account, are
+ * two submissions. Each outcome is stored with a fingerprint of the account,
+ * type, amount and currency submitted, and a submission that reuses a key
+ * with another fingerprint is refused as a {@link TransactionStatus#CONFLICT}
+ * rather than given the outcome of a different transaction. Keys expire after <code>accounts.idempotency.ttl-millis</code>; the
+ * expired rows are purged every
+ * <code>accounts.idempotency.purge-interval-millis</code>.
+ *
+ */
+@Component
+public class IdempotencyStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+	/**
+	 * Prefix of the keys taken from the transaction id, when no
+	 * <code>Idempotency-Key</code> is given.
+	 */
+	static final String TRANSACTION_ID_PREFIX = "transaction:";
+
+	/**
+	 * Header a client may send a key of its own in.
+	 */
+	public static final String HEADER = "Idempotency-Key";
+
+	/**
+	 * Longest key a client may send; the table holds it behind the account id.
+	 */
+	public static final int MAX_KEY_LENGTH = 128;
+
+	private static final String INSERT_SQL =
+			"insert into idempotency_key (idkey, accountid, status, fingerprint, created) values (?, ?, ?, ?, ?)";
+
+	private static final String SELECT_SQL =
+			"select status, fingerprint from idempotency_key where idkey = ? and created > ?";
+
+	private static final String DELETE_EXPIRED_SQL = "delete from idempotency_key where idkey = ? and created <= ?";
+
+	private static final String PURGE_SQL = "delete from idempotency_key where created <= ?";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final long ttlMillis;
+
+	private final Clock clock;
+
+	private final Cache<String, Outcome> recent;
+
+	@Autowired
+	public IdempotencyStore(JdbcTemplate jdbcTemplate,
+			@Value("${accounts.idempotency.ttl-millis:86400000}") long ttlMillis,
+			@Value("${accounts.idempotency.max-cached-keys:100000}") long maxCachedKeys) {
+		this(jdbcTemplate, ttlMillis, maxCachedKeys, Clock.systemUTC());
+	}
+
+	IdempotencyStore(JdbcTemplate jdbcTemplate, long ttlMillis, long maxCachedKeys, Clock clock) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+		this.recent = Caffeine.newBuilder()
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.maximumSize(maxCachedKeys)
+				.build();
+	}
+
+	/**
+	 * @return the idempotency key of the transaction, scoped to its account:
+	 *         the account id followed by the <code>Idempotency-Key</code> it
+	 *         was submitted with, else by its transaction id, else null.
+	 */
+	public static String keyOf(Transaction transaction) {
+		if (transaction.getIdempotencyKey() != null) {
+			return transaction.getAccountId() + ":" + transaction.getIdempotencyKey();
+		}
+		if (transaction.getTransactionId() != null) {
+			return transaction.getAccountId() + ":" + TRANSACTION_ID_PREFIX + transaction.getTransactionId();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the hex SHA-256 of the account, type, amount and currency of the
+	 *         transaction as submitted, before any conversion into the
+	 *         currency of its account.
+	 */
+	public static String fingerprintOf(Transaction transaction) {
+		boolean converted = transaction.getOriginalCurrency() != null;
+		BigDecimal amount = converted ? transaction.getOriginalAmount() : transaction.getAmount();
+		String submitted = transaction.getAccountId() + "|" + transaction.getType() + "|"
+				+ (amount == null ? null : Money.toMinor(amount)) + "|"
+				+ (converted ? transaction.getOriginalCurrency() : transaction.getCurrency());
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(submitted.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            The idempotency key.
+	 * @param fingerprint
+	 *            The fingerprint of the transaction submitted with the key.
+	 * @return the outcome of the transaction processed with the key,
+	 *         CONFLICT if that transaction had another fingerprint, or null
+	 *         if none was within the time to live.
+	 */
+	public TransactionStatus find(String key, String fingerprint) {
+		Outcome outcome = recent.getIfPresent(key);
+		if (outcome == null) {
+			List<Outcome> rows = jdbcTemplate.query(SELECT_SQL,
+					(row, i) -> new Outcome(TransactionStatus.valueOf(row.getString(1)), row.getString(2)), key,
+					new Timestamp(clock.millis() - ttlMillis));
+			if (!rows.isEmpty()) {
+				outcome = rows.get(0);
+				recent.put(key, outcome);
+			}
+		}
+		return outcome == null ? null : outcome.of(fingerprint);
+	}
+
+	/**
+	 * Records the outcome of the transaction processed with the key, in the
+	 * current database transaction. The outcome is cached once that commits.
+	 *
+	 * @param fingerprint
+	 *            The fingerprint of the transaction, see
+	 *            {@link #fingerprintOf(Transaction)}.
+	 * @throws DuplicateKeyException
+	 *             if the key was recorded by a concurrent transaction.
+	 */
+	public void record(String key, Integer accountId, TransactionStatus status, String fingerprint) {
+		Timestamp now = new Timestamp(clock.millis());
+		Outcome outcome = new Outcome(status, fingerprint);
+		try {
+			jdbcTemplate.update(INSERT_SQL, key, accountId, status.name(), fingerprint, now);
+		} catch (DuplicateKeyException e) {
+			// the key may have expired without being purged yet
+			if (jdbcTemplate.update(DELETE_EXPIRED_SQL, key, new Timestamp(now.getTime() - ttlMillis)) == 0) {
+				throw e;
+			}
+			jdbcTemplate.update(INSERT_SQL, key, accountId, status.name(), fingerprint, now);
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					recent.put(key, outcome);
+				}
+			});
+		} else {
+			recent.put(key, outcome);
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${accounts.idempotency.purge-interval-millis:600000}")
+	public void purge() {
+		int purged = jdbcTemplate.update(PURGE_SQL, new Timestamp(clock.millis() - ttlMillis));
+		logger.debug("IdempotencyStore.purge: {} expired key(s) purged.", purged);
+	}
+
+	/**
+	 * The outcome recorded under a key, with the fingerprint of the
+	 * transaction it is the outcome of.
+	 */
+	static final class Outcome {
+
+		final TransactionStatus status;
+
+		/**
+		 * Null for the keys recorded before fingerprints were.
+		 */
+		final String fingerprint;
+
+		Outcome(TransactionStatus status, String fingerprint) {
+			this.status = status;
+			this.fingerprint = fingerprint;
+		}
+
+		/**
+		 * @return the status, or CONFLICT if the transaction with the given
+		 *         fingerprint is not the one the status is the outcome of.
+		 */
+		TransactionStatus of(String fingerprint) {
+			return this.fingerprint == null || this.fingerprint.equals(fingerprint) ? status
+					: TransactionStatus.CONFLICT;
+		}
+	}
+}
@@ -0,0 +1,483 @@
+package io.pivotal.accounts.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import io.pivotal.accounts.domain.LedgerEntry;
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.event.AccountChangedEvent;
+import io.pivotal.accounts.exception.NoRecordsFoundException;
+import io.pivotal.accounts.journal.TransactionLog;
+import io.pivotal.accounts.repository.AccountRepository;
+import io.pivotal.accounts.repository.LedgerRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write-behind balances for the highest-volume accounts.
+ * <p>
+ * The transactions of the accounts listed in
+ * <code>accounts.journal.accounts</code> are applied to balances held in
+ * memory and appended to a {@link BalanceJournal} in
+ * <code>accounts.journal.dir</code>; a transaction is acknowledged once its
+ * journal entry is on disk, which costs a share of one sequential fsync
+ * rather than a random-access update of the account row. Every
+ * <code>accounts.journal.checkpoint-interval-millis</code> the new balances,
+ * the ledger entries and the idempotency keys are written to the database in
+ * one transaction, together with the sequence number of the last entry
+ * checkpointed, and the checkpointed journal segments are deleted. On
+ * startup the entries after that sequence number are replayed.
+ * <p>
+ * The balances of journaled accounts are owned by this instance: no other
+ * instance may process transactions of them. If the journal cannot be
+ * written, transactions of journaled accounts fail until the instance is
+ * restarted and has replayed the journal. So do they if a checkpoint fails
+ * on the data it writes rather than on the database, which retrying cannot
+ * fix: the entries are quarantined in the journal, which is kept, until the
+ * cause is fixed and the instance restarted.
+ *
+ */
+@Component
+@ConditionalOnProperty("accounts.journal.dir")
+public class JournaledBalances {
+
+	private static final Logger logger = LoggerFactory.getLogger(JournaledBalances.class);
+
+	private static final String UPDATE_BALANCE_SQL =
+			"update account set balance = ?, version = version + 1 where id = ?";
+
+	private static final String SELECT_CHECKPOINT_SQL = "select seq from journal_checkpoint where journal = ?";
+
+	private static final String UPDATE_CHECKPOINT_SQL = "update journal_checkpoint set seq = ? where journal = ?";
+
+	private static final String INSERT_CHECKPOINT_SQL = "insert into journal_checkpoint (journal, seq) values (?, ?)";
+
+	@Autowired
+	AccountRepository accounts;
+
+	@Autowired
+	LedgerRepository ledger;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	ApplicationEventPublisher publisher;
+
+	@Autowired
+	IdempotencyStore idempotency;
+
+	@Autowired(required = false)
+	TransactionLog transactionLog;
+
+	/**
+	 * Directory of the journal segments, on a local disk.
+	 */
+	@Value("${accounts.journal.dir}")
+	String dir;
+
+	/**
+	 * Name of the journal of this instance in the checkpoint table.
+	 */
+	@Value("${accounts.journal.name:accounts}")
+	String name;
+
+	/**
+	 * Comma-separated ids of the accounts to journal.
+	 */
+	@Value("${accounts.journal.accounts:}")
+	String accountIds;
+
+	private Set<Integer> journaled = Collections.emptySet();
+
+	private final ConcurrentMap<Integer, Balance> balances = new ConcurrentHashMap<>();
+
+	/**
+	 * Outcomes of the keyed transactions not checkpointed yet, from when they
+	 * are queued.
+	 */
+	private final ConcurrentMap<String, Keyed> uncheckpointedKeys = new ConcurrentHashMap<>();
+
+	/**
+	 * Why the entries not checkpointed cannot be, if they cannot.
+	 */
+	private volatile RuntimeException quarantined;
+
+	/**
+	 * Durable entries not checkpointed yet, in order, guarded by this.
+	 */
+	private final List<BalanceJournal.Entry> uncheckpointed = new ArrayList<>();
+
+	private BalanceJournal journal;
+
+	@PostConstruct
+	void open() throws IOException {
+		Set<Integer> ids = new HashSet<>();
+		for (String id : accountIds.split(",")) {
+			if (!id.trim().isEmpty()) {
+				ids.add(Integer.valueOf(id.trim()));
+			}
+		}
+		journaled = Collections.unmodifiableSet(ids);
+		List<Long> checkpointed = jdbcTemplate.queryForList(SELECT_CHECKPOINT_SQL, Long.class, name);
+		journal = new BalanceJournal(Paths.get(dir), checkpointed.isEmpty() ? 0 : checkpointed.get(0),
+				this::replay);
+		logger.info("JournaledBalances: journaling {} account(s) in {}, {} entries replayed.", journaled.size(),
+				dir, uncheckpointed.size());
+		if (!balances.isEmpty()) {
+			for (Object[] row : accounts.findBalancesByIdIn(balances.keySet())) {
+				Balance balance = balances.get(row[0]);
+				balance.userid = (String) row[2];
+				balance.version = (Long) row[3];
+			}
+			checkpoint();
+		}
+	}
+
+	@PreDestroy
+	void close() throws IOException {
+		checkpoint();
+		journal.close();
+	}
+
+	private void replay(BalanceJournal.Entry entry) {
+		Balance balance = balances.computeIfAbsent(entry.transaction.getAccountId(), id -> new Balance(0, null, null));
+		balance.durable(entry);
+		balance.pending = entry.balance;
+		String key = IdempotencyStore.keyOf(entry.transaction);
+		if (key != null) {
+			uncheckpointedKeys.put(key, new Keyed(entry.status, IdempotencyStore.fingerprintOf(entry.transaction),
+					CompletableFuture.completedFuture(entry)));
+		}
+		uncheckpointed.add(entry);
+	}
+
+	/**
+	 * @return true if the transactions of the account are journaled.
+	 */
+	public boolean isJournaled(Integer accountId) {
+		return journaled.contains(accountId);
+	}
+
+	/**
+	 * @return the balance of the account held in memory, or null if the
+	 *         balance in the database is current.
+	 */
+	public BigDecimal balanceOf(Integer accountId) {
+		Balance balance = balances.get(accountId);
+		return balance == null ? null : Money.toBigDecimal(balance.amount);
+	}
+
+	/**
+	 * Applies the transaction to the balance of its account in memory, with
+	 * the same rules as the conditional updates, and journals it. Failed
+	 * transactions are only journaled for their idempotency key.
+	 * <p>
+	 * The account is only locked while the entry is queued, not while it is
+	 * written, so the next transaction of the account can join the same group
+	 * commit: it is applied on top of the pending balance. Entries are written
+	 * in order and a failed write fails all entries queued after it, so no
+	 * entry is durable unless the entries it was applied on top of are. The
+	 * balance read by {@link #balanceOf(Integer)} only moves once an entry is
+	 * durable, and a retry of a transaction still being written waits for
+	 * it; if the write fails, the pending balance goes back to the durable
+	 * one and the key is forgotten.
+	 *
+	 * @return the outcome, once the transaction is durable.
+	 */
+	public TransactionStatus apply(Transaction transaction) {
+		RuntimeException cause = quarantined;
+		if (cause != null) {
+			throw new IllegalStateException("journaled balances quarantined, see the checkpoint failure", cause);
+		}
+		Balance balance = balance(transaction.getAccountId());
+		String key = IdempotencyStore.keyOf(transaction);
+		String fingerprint = key == null ? null : IdempotencyStore.fingerprintOf(transaction);
+		TransactionStatus status = null;
+		Keyed known;
+		Keyed keyed = null;
+		CompletableFuture<BalanceJournal.Entry> durable = null;
+		synchronized (balance) {
+			known = key == null ? null : uncheckpointedKeys.get(key);
+			if (known == null) {
+				long applied = AccountService.apply(balance.pending, transaction);
+				status = applied == AccountService.FAILED ? TransactionStatus.FAILED : TransactionStatus.SUCCESS;
+				if (status == TransactionStatus.SUCCESS || key != null) {
+					if (transaction.getDate() == null) {
+						// the ledger entry is dated when applied rather than when checkpointed
+						transaction.setDate(new Date());
+					}
+					long newBalance = status == TransactionStatus.SUCCESS ? applied : balance.pending;
+					durable = journal.append(transaction, status, newBalance);
+					balance.pending = newBalance;
+					if (key != null) {
+						keyed = new Keyed(status, fingerprint, durable);
+						uncheckpointedKeys.put(key, keyed);
+					}
+				}
+			}
+		}
+		if (known != null) {
+			// acknowledged like the original, once it is durable
+			await(known.durable);
+			logger.debug("JournaledBalances.apply: already processed: {}", key);
+			return known.outcome.of(fingerprint);
+		}
+		BalanceJournal.Entry entry = null;
+		try {
+			if (durable != null) {
+				entry = await(durable);
+				balance.durable(entry);
+			}
+		} catch (RuntimeException e) {
+			synchronized (balance) {
+				balance.pending = balance.amount;
+			}
+			if (keyed != null) {
+				uncheckpointedKeys.remove(key, keyed);
+			}
+			throw e;
+		}
+		if (status == TransactionStatus.SUCCESS) {
+			if (transactionLog != null) {
+				transactionLog.appendOnCommit(Collections.singletonList(transaction));
+			}
+			// the version is the checkpointed one, the row only changes when checkpointed
+			publisher.publishEvent(new AccountChangedEvent(transaction.getAccountId(), balance.userid,
+					balance.version));
+		}
+		logger.debug("JournaledBalances.apply: {} journaled as {}", transaction, entry == null ? null : entry.seq);
+		return status;
+	}
+
+	/**
+	 * Writes the balances, ledger entries and idempotency keys of the durable
+	 * entries to the database, and deletes the journal segments holding them.
+	 * Entries that fail to be written are retried with the next checkpoint,
+	 * unless they failed on their data, which no retry fixes: then they are
+	 * quarantined, see the class comment. A key already recorded by the time
+	 * it is checkpointed keeps the recorded outcome.
+	 */
+	@Scheduled(fixedDelayString = "${accounts.journal.checkpoint-interval-millis:1000}")
+	public synchronized void checkpoint() {
+		if (quarantined != null) {
+			return;
+		}
+		uncheckpointed.addAll(journal.roll());
+		if (uncheckpointed.isEmpty()) {
+			return;
+		}
+		Map<Integer, Long> latest = new LinkedHashMap<>();
+		List<LedgerEntry> entries = new ArrayList<>();
+		for (BalanceJournal.Entry entry : uncheckpointed) {
+			latest.put(entry.transaction.getAccountId(), entry.balance);
+			if (entry.status == TransactionStatus.SUCCESS) {
+				entries.add(new LedgerEntry(entry.transaction));
+			}
+		}
+		long seq = uncheckpointed.get(uncheckpointed.size() - 1).seq;
+		Map<Integer, Long> versions;
+		try {
+			versions = new TransactionTemplate(transactionManager).execute(tx -> {
+				List<Object[]> updates = new ArrayList<>(latest.size());
+				for (Map.Entry<Integer, Long> each : latest.entrySet()) {
+					updates.add(new Object[] { Money.toBigDecimal(each.getValue()), each.getKey() });
+				}
+				jdbcTemplate.batchUpdate(UPDATE_BALANCE_SQL, updates);
+				if (!entries.isEmpty()) {
+					ledger.saveAll(entries);
+				}
+				for (BalanceJournal.Entry entry : uncheckpointed) {
+					record(entry);
+				}
+				if (jdbcTemplate.update(UPDATE_CHECKPOINT_SQL, seq, name) == 0) {
+					jdbcTemplate.update(INSERT_CHECKPOINT_SQL, name, seq);
+				}
+				Map<Integer, Long> checkpointed = new HashMap<>();
+				for (Object[] row : accounts.findBalancesByIdIn(latest.keySet())) {
+					checkpointed.put((Integer) row[0], (Long) row[3]);
+				}
+				for (Integer accountId : latest.keySet()) {
+					Balance balance = balances.get(accountId);
+					publisher.publishEvent(new AccountChangedEvent(accountId, balance == null ? null : balance.userid,
+							checkpointed.get(accountId)));
+				}
+				return checkpointed;
+			});
+		} catch (DataIntegrityViolationException e) {
+			quarantined = e;
+			logger.error("JournaledBalances.checkpoint: {} entries up to {} violate the schema and are quarantined"
+					+ " in {}; transactions of journaled accounts fail until they are fixed and the instance is"
+					+ " restarted.", uncheckpointed.size(), seq, dir, e);
+			return;
+		} catch (RuntimeException e) {
+			logger.warn("JournaledBalances.checkpoint: failed to checkpoint {} entries, retrying with the next.",
+					uncheckpointed.size(), e);
+			return;
+		}
+		for (BalanceJournal.Entry entry : uncheckpointed) {
+			String key = IdempotencyStore.keyOf(entry.transaction);
+			if (key != null) {
+				uncheckpointedKeys.remove(key);
+			}
+		}
+		for (Map.Entry<Integer, Long> each : versions.entrySet()) {
+			Balance balance = balances.get(each.getKey());
+			if (balance != null) {
+				balance.version = each.getValue();
+			}
+		}
+		logger.debug("JournaledBalances.checkpoint: {} entries of {} account(s) checkpointed up to {}",
+				uncheckpointed.size(), latest.size(), seq);
+		uncheckpointed.clear();
+		try {
+			journal.deleteClosedSegments();
+		} catch (IOException e) {
+			logger.warn("JournaledBalances.checkpoint: failed to delete checkpointed segments.", e);
+		}
+	}
+
+	/**
+	 * Records the outcome of a keyed entry. A key recorded already, which a
+	 * retry would fail on again, keeps its outcome: the entry was applied
+	 * all the same, so it is reported rather than dropped.
+	 */
+	private void record(BalanceJournal.Entry entry) {
+		String key = IdempotencyStore.keyOf(entry.transaction);
+		if (key == null) {
+			return;
+		}
+		try {
+			idempotency.record(key, entry.transaction.getAccountId(), entry.status,
+					IdempotencyStore.fingerprintOf(entry.transaction));
+		} catch (DuplicateKeyException e) {
+			logger.error("JournaledBalances.checkpoint: key {} of entry {} was recorded already, keeping the"
+					+ " recorded outcome; the transaction was applied as {}.", key, entry.seq, entry.status);
+		}
+	}
+
+	/**
+	 * @return the balance of the account, loaded from the primary database
+	 *         the first time.
+	 */
+	private Balance balance(Integer accountId) {
+		Balance balance = balances.get(accountId);
+		if (balance == null) {
+			List<Object[]> rows = new TransactionTemplate(transactionManager)
+					.execute(tx -> accounts.findBalancesByIdIn(Collections.singleton(accountId)));
+			if (rows.isEmpty()) {
+				logger.warn("JournaledBalances.balance: could not find account with id: {}", accountId);
+				throw new NoRecordsFoundException();
+			}
+			Balance loaded = new Balance(Money.toMinor((BigDecimal) rows.get(0)[1]), (String) rows.get(0)[2],
+					(Long) rows.get(0)[3]);
+			balance = balances.putIfAbsent(accountId, loaded);
+			if (balance == null) {
+				balance = loaded;
+			}
+		}
+		return balance;
+	}
+
+	private static BalanceJournal.Entry await(CompletableFuture<BalanceJournal.Entry> durable) {
+		try {
+			return durable.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new UncheckedIOException(new IOException(e.getCause()));
+		}
+	}
+
+	/**
+	 * The balance of an account held in memory, in minor units: the pending
+	 * one the next transaction is applied on top of, changed while holding
+	 * its monitor, and the one of the last durable entry.
+	 */
+	private static final class Balance {
+
+		long pending;
+
+		volatile long amount;
+
+		private long seq;
+
+		volatile String userid;
+
+		/**
+		 * The version of the account as last checkpointed, null if not known.
+		 */
+		volatile Long version;
+
+		Balance(long amount, String userid, Long version) {
+			this.pending = amount;
+			this.amount = amount;
+			this.userid = userid;
+			this.version = version;
+		}
+
+		/**
+		 * Moves the balance to that of the durable entry, unless that of a
+		 * later one was moved to already: the callers waiting on the entries
+		 * of a group commit may run in any order.
+		 */
+		synchronized void durable(BalanceJournal.Entry entry) {
+			if (entry.seq > seq) {
+				seq = entry.seq;
+				amount = entry.balance;
+			}
+		}
+	}
+
+	/**
+	 * The outcome of a keyed transaction not checkpointed yet, and its entry
+	 * once durable.
+	 */
+	private static final class Keyed {
+
+		final IdempotencyStore.Outcome outcome;
+
+		final CompletableFuture<BalanceJournal.Entry> durable;
+
+		Keyed(TransactionStatus status, String fingerprint, CompletableFuture<BalanceJournal.Entry> durable) {
+			this.outcome = new IdempotencyStore.Outcome(status, fingerprint);
+			this.durable = durable;
+		}
+	}
+}
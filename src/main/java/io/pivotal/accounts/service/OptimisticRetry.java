@@ -0,0 +1,158 @@
+package io.pivotal.accounts.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Retries units of work that fail on an optimistic version conflict.
+ * <p>
+ * Each retry waits a random time up to an exponentially growing bound (full
+ * jitter), so that conflicting writers spread out instead of colliding again.
+ * Retries are limited per call and by a budget shared by all calls: every
+ * first attempt earns a fraction of a retry, and each retry spends one, so
+ * under heavy contention retries cannot multiply the load on the database.
+ * <p>
+ * Conflicts, retries and exhausted retries are counted per account as
+ * <code>accounts.optimistic.*</code> metrics.
+ *
+ */
+@Component
+public class OptimisticRetry {
+
+	private static final Logger logger = LoggerFactory.getLogger(OptimisticRetry.class);
+
+	/**
+	 * Tag value used for work that is not about a single account.
+	 */
+	static final String NO_ACCOUNT = "none";
+
+	/**
+	 * Budget is kept in thousandths of a retry.
+	 */
+	private static final long TOKEN = 1000;
+
+	private final MeterRegistry registry;
+
+	private final int maxAttempts;
+
+	private final long backoffMillis;
+
+	private final long maxBackoffMillis;
+
+	private final long tokensPerAttempt;
+
+	private final long maxTokens;
+
+	private final AtomicLong tokens;
+
+	@Autowired
+	public OptimisticRetry(MeterRegistry registry,
+			@Value("${accounts.retry.max-attempts:5}") int maxAttempts,
+			@Value("${accounts.retry.backoff-millis:2}") long backoffMillis,
+			@Value("${accounts.retry.max-backoff-millis:50}") long maxBackoffMillis,
+			@Value("${accounts.retry.budget-ratio:0.2}") double budgetRatio) {
+		this.registry = registry;
+		this.maxAttempts = maxAttempts;
+		this.backoffMillis = backoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.tokensPerAttempt = (long) (budgetRatio * TOKEN);
+		this.maxTokens = 100 * TOKEN;
+		this.tokens = new AtomicLong(10 * TOKEN);
+	}
+
+	/**
+	 * Runs the unit of work, retrying it on optimistic locking failures. The
+	 * unit of work must run in its own database transaction.
+	 *
+	 * @param accountId
+	 *            The account the work is about, for the metrics; null if none.
+	 * @param work
+	 *            The unit of work.
+	 * @return the result of the unit of work.
+	 * @throws OptimisticLockingFailureException
+	 *             if the last attempt failed on a conflict.
+	 */
+	public <T> T execute(Integer accountId, Supplier<T> work) {
+		String account = accountId == null ? NO_ACCOUNT : accountId.toString();
+		deposit();
+		for (int attempt = 1;; attempt++) {
+			try {
+				return work.get();
+			} catch (OptimisticLockingFailureException e) {
+				counter("accounts.optimistic.conflicts", account).increment();
+				if (attempt >= maxAttempts) {
+					exhausted(account, "attempts").increment();
+					throw e;
+				}
+				if (!withdraw()) {
+					exhausted(account, "budget").increment();
+					throw e;
+				}
+				counter("accounts.optimistic.retries", account).increment();
+				logger.debug("OptimisticRetry.execute: conflict on account {}, attempt {}", account, attempt);
+				if (!backoff(attempt)) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private void deposit() {
+		long current;
+		do {
+			current = tokens.get();
+			if (current >= maxTokens) {
+				return;
+			}
+		} while (!tokens.compareAndSet(current, Math.min(maxTokens, current + tokensPerAttempt)));
+	}
+
+	private boolean withdraw() {
+		long current;
+		do {
+			current = tokens.get();
+			if (current < TOKEN) {
+				return false;
+			}
+		} while (!tokens.compareAndSet(current, current - TOKEN));
+		return true;
+	}
+
+	/**
+	 * Sleeps a random time up to the backoff bound of the attempt.
+	 *
+	 * @return false if interrupted.
+	 */
+	private boolean backoff(int attempt) {
+		long bound = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 16));
+		if (bound <= 0) {
+			return true;
+		}
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private Counter counter(String name, String account) {
+		return registry.counter(name, "account", account);
+	}
+
+	private Counter exhausted(String account, String reason) {
+		return registry.counter("accounts.optimistic.exhausted", "account", account, "reason", reason);
+	}
+}
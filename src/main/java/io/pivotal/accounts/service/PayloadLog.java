@@ -0,0 +1,76 @@
+package io.pivotal.accounts.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs the payloads returned and saved by the service for a sample of calls
+ * per endpoint, as <code>key=value</code> fields at INFO on the
+ * <code>io.pivotal.accounts.payload</code> logger.
+ * <p>
+ * The fraction of calls logged is
+ * <code>accounts.logging.payload-sample-rate.&lt;endpoint&gt;</code>, or
+ * <code>accounts.logging.payload-sample-rate.default</code> (default 0.01).
+ * Payloads of calls that are not sampled are never formatted.
+ *
+ */
+@Component
+public class PayloadLog {
+
+	public static final String LOGGER_NAME = "io.pivotal.accounts.payload";
+
+	static final String FIND_ACCOUNT = "findAccount";
+
+	static final String FIND_ACCOUNTS = "findAccounts";
+
+	static final String FIND_ACCOUNTS_BY_TYPE = "findAccountsByType";
+
+	static final String FIND_ACCOUNT_SUMMARIES = "findAccountSummaries";
+
+	static final String SAVE_ACCOUNT = "saveAccount";
+
+	private static final Logger logger = LoggerFactory.getLogger(LOGGER_NAME);
+
+	private static final String RATE_PROPERTY = "accounts.logging.payload-sample-rate.";
+
+	private final Environment environment;
+
+	private final double defaultRate;
+
+	private final ConcurrentMap<String, Double> rates = new ConcurrentHashMap<>();
+
+	@Autowired
+	public PayloadLog(Environment environment) {
+		this.environment = environment;
+		this.defaultRate = environment.getProperty(RATE_PROPERTY + "default", Double.class, 0.01);
+	}
+
+	/**
+	 * Logs the payload if the call is sampled.
+	 *
+	 * @param endpoint
+	 *            The service method the payload belongs to.
+	 * @param key
+	 *            What identifies the payload, e.g. the account id.
+	 * @param payload
+	 *            The payload, only formatted if logged.
+	 */
+	public void log(String endpoint, Object key, Object payload) {
+		if (logger.isInfoEnabled() && sampled(endpoint)) {
+			logger.info("endpoint={} key={} payload={}", endpoint, key, payload);
+		}
+	}
+
+	boolean sampled(String endpoint) {
+		double rate = rates.computeIfAbsent(endpoint,
+				name -> environment.getProperty(RATE_PROPERTY + name, Double.class, defaultRate));
+		return rate >= 1.0 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+	}
+}
@@ -0,0 +1,75 @@
+package io.pivotal.accounts.service;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.pivotal.accounts.event.AccountChangedEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Remembers the users whose accounts changed recently, so that their reads
+ * go to the primary database until the replicas have caught up.
+ * <p>
+ * Reads run in read-only transactions, which are routed to a replica when
+ * replicas are configured. A replica may lag behind the primary, so for a
+ * window after a committed change of one of their accounts, on this or
+ * another instance, the reads of the accounts of the owner, by whoever
+ * reads them, run in read-write transactions on the primary instead. The
+ * window starts before the caches are evicted, so that a read filling them
+ * again checks it after the eviction.
+ *
+ */
+@Component
+public class ReadYourWrites {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReadYourWrites.class);
+
+	private final Cache<String, Boolean> recentWriters;
+
+	@Autowired
+	public ReadYourWrites(@Value("${accounts.datasource.read-your-writes-millis:5000}") long windowMillis,
+			@Value("${accounts.datasource.read-your-writes-max-users:100000}") long maxUsers) {
+		this.recentWriters = Caffeine.newBuilder()
+				.expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS)
+				.maximumSize(maxUsers)
+				.build();
+	}
+
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	public void onAccountChanged(AccountChangedEvent event) {
+		written(event.getUserid());
+	}
+
+	/**
+	 * Starts the window of the given user.
+	 *
+	 * @param userid
+	 *            The owner of the changed account, or null if not known.
+	 */
+	public void written(String userid) {
+		if (userid != null) {
+			logger.debug("ReadYourWrites.written: userid={}", userid);
+			recentWriters.put(userid, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * @param userid
+	 *            The owner of the accounts read, or null if not known.
+	 * @return true if the reads of the accounts must go to the primary.
+	 */
+	public boolean mustReadPrimary(String userid) {
+		return userid != null && recentWriters.getIfPresent(userid) != null;
+	}
+}
@@ -0,0 +1,176 @@
+package io.pivotal.accounts.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serializes transactions per account on a fixed number of stripes.
+ * <p>
+ * Every account is mapped to exactly one stripe, and each stripe is drained
+ * by a single thread, so no two threads of this instance ever update the same
+ * account concurrently. Whatever has queued up on a stripe while its previous
+ * batch was being written is drained in one go, grouped by account and handed
+ * to the {@link BatchHandler} so that it can be applied in order and written
+ * as one balance update per account. Whatever the handler throws, Errors
+ * included, fails the transactions it was given and the stripe carries on,
+ * so no caller is left waiting on a stripe whose thread has died.
+ *
+ */
+class StripedTransactionExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(StripedTransactionExecutor.class);
+
+	/**
+	 * Applies the queued transactions of one account, in order.
+	 */
+	interface BatchHandler {
+		List<TransactionStatus> apply(Integer accountId, List<Transaction> transactions);
+	}
+
+	private final Stripe[] stripes;
+
+	private final int maxBatchSize;
+
+	private final BatchHandler handler;
+
+	StripedTransactionExecutor(int stripeCount, int maxBatchSize, BatchHandler handler) {
+		this(stripeCount, maxBatchSize, handler, daemonThreads());
+	}
+
+	/**
+	 * @param threadFactory
+	 *            Creates the thread draining each stripe.
+	 */
+	StripedTransactionExecutor(int stripeCount, int maxBatchSize, BatchHandler handler,
+			ThreadFactory threadFactory) {
+		this.maxBatchSize = maxBatchSize;
+		this.handler = handler;
+		this.stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe(threadFactory);
+			stripes[i].thread.start();
+		}
+	}
+
+	/**
+	 * Queues the transaction on the stripe of its account.
+	 *
+	 * @param transaction
+	 *            The transaction to process.
+	 * @return the future outcome of the transaction.
+	 */
+	CompletableFuture<TransactionStatus> submit(Transaction transaction) {
+		Pending pending = new Pending(transaction);
+		stripeFor(transaction.getAccountId()).queue.add(pending);
+		return pending.result;
+	}
+
+	void shutdown() {
+		for (Stripe stripe : stripes) {
+			stripe.thread.interrupt();
+		}
+	}
+
+	private Stripe stripeFor(Integer accountId) {
+		int h = accountId.hashCode();
+		return stripes[Math.floorMod(h ^ (h >>> 16), stripes.length)];
+	}
+
+	private static ThreadFactory daemonThreads() {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "account-stripe-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static final class Pending {
+		final Transaction transaction;
+		final CompletableFuture<TransactionStatus> result = new CompletableFuture<>();
+
+		Pending(Transaction transaction) {
+			this.transaction = transaction;
+		}
+	}
+
+	private final class Stripe implements Runnable {
+
+		final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+		final Thread thread;
+
+		Stripe(ThreadFactory threadFactory) {
+			this.thread = threadFactory.newThread(this);
+		}
+
+		@Override
+		public void run() {
+			List<Pending> batch = new ArrayList<>(maxBatchSize);
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					batch.add(queue.take());
+					queue.drainTo(batch, maxBatchSize - 1);
+					try {
+						process(batch);
+					} catch (Throwable e) {
+						logger.error("StripedTransactionExecutor: failed to process a batch of {} transactions",
+								batch.size(), e);
+						for (Pending pending : batch) {
+							pending.result.completeExceptionally(e);
+						}
+					}
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				batch.addAll(queue);
+				for (Pending pending : batch) {
+					pending.result.completeExceptionally(
+							new IllegalStateException("transaction executor shut down"));
+				}
+			}
+		}
+
+		private void process(List<Pending> batch) {
+			Map<Integer, List<Pending>> byAccount = new LinkedHashMap<>();
+			for (Pending pending : batch) {
+				byAccount.computeIfAbsent(pending.transaction.getAccountId(), id -> new ArrayList<>())
+						.add(pending);
+			}
+			for (Map.Entry<Integer, List<Pending>> entry : byAccount.entrySet()) {
+				List<Pending> pendings = entry.getValue();
+				List<Transaction> transactions = new ArrayList<>(pendings.size());
+				for (Pending pending : pendings) {
+					transactions.add(pending.transaction);
+				}
+				try {
+					List<TransactionStatus> statuses = handler.apply(entry.getKey(), transactions);
+					for (int i = 0; i < pendings.size(); i++) {
+						pendings.get(i).result.complete(statuses.get(i));
+					}
+				} catch (Throwable e) {
+					logger.warn("StripedTransactionExecutor: failed to process transactions for account: {}",
+							entry.getKey(), e);
+					for (Pending pending : pendings) {
+						pending.result.completeExceptionally(e);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+-- Optimistic version of each account, see Account; existing rows start at 0.
+alter table account add column version bigint default 0 not null;
+
+-- Applied transactions, see LedgerEntry.
+create table ledger (
+    id bigint not null primary key,
+    accountid integer not null,
+    transactionid integer,
+    transactiontype varchar(10) not null,
+    amount decimal(14,2) not null,
+    currency varchar(3),
+    description varchar(250),
+    transactiondate timestamp not null
+);
+
+-- ids are allocated in blocks of 50, see LedgerEntry
+create sequence ledger_seq start with 1 increment by 50;
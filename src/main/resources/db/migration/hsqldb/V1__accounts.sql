@@ -0,0 +1,13 @@
+-- Schema as generated by Hibernate before migrations were introduced. Schemas
+-- Hibernate created are baselined at this version, so it must stay as it was;
+-- later changes go into later versions.
+create table account (
+    id integer generated by default as identity (start with 1) primary key,
+    userid varchar(250) not null,
+    name varchar(250) not null,
+    accounttype varchar(255) not null,
+    creationdate timestamp not null,
+    openbalance decimal(14,2) not null,
+    balance decimal(14,2) not null,
+    currency varchar(3) not null
+);
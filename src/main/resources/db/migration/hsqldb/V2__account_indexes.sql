@@ -0,0 +1,7 @@
+-- Access paths of the account lists, all scoped by user and in id order:
+-- by user and type (findByUseridAndType, findPageByType) ...
+create index idx_account_userid_type on account (userid, accounttype, id);
+
+-- ... and by user only (findByUserid, findPage, streamByUserid), where the
+-- keyset pages range over id within the user.
+create index idx_account_userid_id on account (userid, id);
@@ -0,0 +1,10 @@
+-- Outcome of each transaction submitted with an idempotency key, see IdempotencyStore.
+create table idempotency_key (
+    idkey varchar(128) not null primary key,
+    accountid integer,
+    status varchar(10) not null,
+    created timestamp not null
+);
+
+-- expired keys are purged by creation time
+create index idx_idempotency_key_created on idempotency_key (created);
@@ -0,0 +1,5 @@
+-- Sequence number of the last balance journal entry checkpointed into account, see JournaledBalances.
+create table journal_checkpoint (
+    journal varchar(64) not null primary key,
+    seq bigint not null
+);
@@ -0,0 +1,5 @@
+-- Units of each currency one unit of accounts.exchange-rates.base buys, see CurrencyConverter.
+create table exchange_rate (
+    currency varchar(3) not null primary key,
+    rate decimal(19,9) not null
+);
@@ -0,0 +1,7 @@
+-- Idempotency keys are scoped to their account, see IdempotencyStore: the keys
+-- recorded so far move behind their account id, up to 11 digits and a colon
+-- longer, and each outcome gets the fingerprint of its transaction. The keys
+-- recorded so far have none, and their replays are not checked.
+alter table idempotency_key alter column idkey set data type varchar(140);
+update idempotency_key set idkey = cast(accountid as varchar(11)) || ':' || idkey where accountid is not null;
+alter table idempotency_key add column fingerprint varchar(64);
@@ -0,0 +1,23 @@
+-- Optimistic version of each account, see Account; existing rows start at 0.
+alter table account add column version bigint not null default 0;
+
+-- Applied transactions, see LedgerEntry.
+create table ledger (
+    id bigint not null,
+    accountid integer not null,
+    transactionid integer,
+    transactiontype varchar(10) not null,
+    amount decimal(14,2) not null,
+    currency varchar(3),
+    description varchar(250),
+    transactiondate datetime(6) not null,
+    primary key (id)
+) engine=InnoDB;
+
+-- MySQL has no sequences, Hibernate emulates LEDGER_SEQ with a table;
+-- ids are allocated in blocks of 50, see LedgerEntry
+create table ledger_seq (
+    next_val bigint
+) engine=InnoDB;
+
+insert into ledger_seq values (1);
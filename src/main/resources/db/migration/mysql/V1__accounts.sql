@@ -0,0 +1,14 @@
+-- Schema as generated by Hibernate before migrations were introduced. Schemas
+-- Hibernate created are baselined at this version, so it must stay as it was;
+-- later changes go into later versions.
+create table account (
+    id integer not null auto_increment,
+    userid varchar(250) not null,
+    name varchar(250) not null,
+    accounttype varchar(255) not null,
+    creationdate datetime(6) not null,
+    openbalance decimal(14,2) not null,
+    balance decimal(14,2) not null,
+    currency varchar(3) not null,
+    primary key (id)
+) engine=InnoDB;
@@ -0,0 +1,11 @@
+-- Outcome of each transaction submitted with an idempotency key, see IdempotencyStore.
+create table idempotency_key (
+    idkey varchar(128) not null,
+    accountid integer,
+    status varchar(10) not null,
+    created datetime(6) not null,
+    primary key (idkey)
+) engine=InnoDB;
+
+-- expired keys are purged by creation time
+create index idx_idempotency_key_created on idempotency_key (created);
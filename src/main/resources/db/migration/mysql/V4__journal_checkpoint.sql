@@ -0,0 +1,6 @@
+-- Sequence number of the last balance journal entry checkpointed into account, see JournaledBalances.
+create table journal_checkpoint (
+    journal varchar(64) not null,
+    seq bigint not null,
+    primary key (journal)
+) engine=InnoDB;
@@ -0,0 +1,5 @@
+-- V1.1 adds version as not null, but on schemas Hibernate updated before the
+-- migrations, which are baselined at 1.1 rather than 1, it is a nullable column
+-- without a default, and the version conditional updates never match a null.
+update account set version = 0 where version is null;
+alter table account modify version bigint not null default 0;
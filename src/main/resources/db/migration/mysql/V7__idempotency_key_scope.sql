@@ -0,0 +1,7 @@
+-- Idempotency keys are scoped to their account, see IdempotencyStore: the keys
+-- recorded so far move behind their account id, up to 11 digits and a colon
+-- longer, and each outcome gets the fingerprint of its transaction. The keys
+-- recorded so far have none, and their replays are not checked.
+alter table idempotency_key modify idkey varchar(140) not null;
+update idempotency_key set idkey = concat(accountid, ':', idkey) where accountid is not null;
+alter table idempotency_key add column fingerprint varchar(64);
@@ -0,0 +1,4 @@
+-- The amount and currency submitted with a transaction converted into the
+-- currency of its account, see LedgerEntry; null where it was not converted.
+alter table ledger add column originalamount decimal(14,2);
+alter table ledger add column originalcurrency varchar(3);
@@ -0,0 +1,120 @@
+package io.pivotal.accounts.config;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+/**
+ * Tests for the CachingJwtDecoder.
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CachingJwtDecoderTest {
+
+	private static final String TOKEN = "header.claims.signature";
+
+	@Mock
+	private JwtDecoder delegate;
+
+	private MutableClock clock;
+
+	private CachingJwtDecoder decoder;
+
+	@Before
+	public void setUp() {
+		clock = new MutableClock(Instant.parse("2018-11-01T10:00:00Z"));
+		decoder = new CachingJwtDecoder(delegate, 100, Duration.ofMinutes(5), clock);
+	}
+
+	/**
+	 * test a token is verified once while it is valid.
+	 */
+	@Test
+	public void doVerifyTokenOnce() {
+		Jwt jwt = jwt(clock.instant().plusSeconds(60));
+		when(delegate.decode(TOKEN)).thenReturn(jwt);
+
+		assertSame(jwt, decoder.decode(TOKEN));
+		assertSame(jwt, decoder.decode(TOKEN));
+		verify(delegate, times(1)).decode(TOKEN);
+	}
+
+	/**
+	 * test a cached token is verified again once it has expired.
+	 */
+	@Test
+	public void doVerifyExpiredTokenAgain() {
+		Jwt jwt = jwt(clock.instant().plusSeconds(60));
+		when(delegate.decode(TOKEN)).thenReturn(jwt);
+
+		decoder.decode(TOKEN);
+		clock.instant = clock.instant.plusSeconds(60);
+		decoder.decode(TOKEN);
+		verify(delegate, times(2)).decode(TOKEN);
+	}
+
+	/**
+	 * test rejected tokens are not cached.
+	 */
+	@Test
+	public void doNotCacheRejectedToken() {
+		when(delegate.decode(TOKEN)).thenThrow(new JwtException("bad signature"));
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				decoder.decode(TOKEN);
+				fail("expected the token to be rejected");
+			} catch (JwtException e) {
+				// expected
+			}
+		}
+		verify(delegate, times(2)).decode(TOKEN);
+	}
+
+	private Jwt jwt(Instant expiresAt) {
+		return new Jwt(TOKEN, clock.instant(), expiresAt, Collections.singletonMap("alg", "RS256"),
+				Collections.singletonMap(CurrentUser.USER_ID_CLAIM, "johndoe"));
+	}
+
+	private static final class MutableClock extends Clock {
+
+		Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package io.pivotal.accounts.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+/**
+ * Tests for the GrantedAuthoritiesConverter.
+ *
+ */
+public class GrantedAuthoritiesConverterTest {
+
+	private final GrantedAuthoritiesConverter converter = new GrantedAuthoritiesConverter(
+			new String[] { "account" }, 2);
+
+	/**
+	 * test scopes map to roles, without openid.
+	 */
+	@Test
+	public void doMapScopesToRoles() {
+		Collection<GrantedAuthority> authorities = converter.extractAuthorities(jwt("openid", "account", "bank.read"));
+		assertEquals(new HashSet<>(Arrays.asList(new SimpleGrantedAuthority("ROLE_ACCOUNT"),
+				new SimpleGrantedAuthority("ROLE_BANK_READ"))), authorities);
+	}
+
+	/**
+	 * test tokens with the same scopes share one authority set.
+	 */
+	@Test
+	public void doShareAuthoritiesForSameScopes() {
+		assertSame(converter.extractAuthorities(jwt("openid", "account")),
+				converter.extractAuthorities(jwt("openid", "account")));
+	}
+
+	/**
+	 * test authorities are still computed once the cache is full.
+	 */
+	@Test
+	public void doComputeAuthoritiesBeyondLimit() {
+		converter.extractAuthorities(jwt("a"));
+		converter.extractAuthorities(jwt("b"));
+		assertEquals(Collections.singleton(new SimpleGrantedAuthority("ROLE_C")),
+				converter.extractAuthorities(jwt("c")));
+	}
+
+	private static Jwt jwt(String... scopes) {
+		List<String> scope = Arrays.asList(scopes);
+		return new Jwt("token", Instant.now(), Instant.now().plusSeconds(60),
+				Collections.singletonMap("alg", "RS256"), Collections.singletonMap("scope", scope));
+	}
+}
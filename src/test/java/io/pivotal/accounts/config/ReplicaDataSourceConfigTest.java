@@ -0,0 +1,190 @@
+package io.pivotal.accounts.config;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.repository.AccountRepository;
+import io.pivotal.accounts.service.AccountCacheInvalidator;
+import io.pivotal.accounts.service.AccountMetrics;
+import io.pivotal.accounts.service.AccountService;
+import io.pivotal.accounts.service.CurrencyConverter;
+import io.pivotal.accounts.service.IdempotencyStore;
+import io.pivotal.accounts.service.OptimisticRetry;
+import io.pivotal.accounts.service.PayloadLog;
+import io.pivotal.accounts.service.ReadYourWrites;
+
+import org.flywaydb.core.Flyway;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Tests for the routing of reads to replicas, with two embedded databases
+ * that are not replicated: an account found in the replica only must have
+ * been read from the replica.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ReplicaDataSourceConfigTest.TestApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = { "spring.datasource.url=" + ReplicaDataSourceConfigTest.PRIMARY,
+				"spring.datasource.username=sa",
+				"accounts.datasource.replicas[0].url=" + ReplicaDataSourceConfigTest.REPLICA,
+				"accounts.datasource.replicas[0].username=sa" })
+public class ReplicaDataSourceConfigTest {
+
+	static final String PRIMARY = "jdbc:hsqldb:mem:routing-primary";
+
+	static final String REPLICA = "jdbc:hsqldb:mem:routing-replica";
+
+	@SpringBootConfiguration
+	@EnableAutoConfiguration
+	@EntityScan(basePackageClasses = Account.class)
+	@EnableJpaRepositories(basePackageClasses = AccountRepository.class)
+	@Import({ ReplicaDataSourceConfig.class, CacheConfig.class, AccountService.class, AccountMetrics.class,
+			AccountCacheInvalidator.class, OptimisticRetry.class, PayloadLog.class, ReadYourWrites.class,
+			IdempotencyStore.class, CurrencyConverter.class })
+	static class TestApplication {
+	}
+
+	@Autowired
+	private AccountService service;
+
+	@Autowired
+	private ReadYourWrites readYourWrites;
+
+	/**
+	 * The replica is not replicated from the primary, its schema is migrated
+	 * separately.
+	 */
+	@BeforeClass
+	public static void migrateReplica() {
+		Flyway.configure().dataSource(REPLICA, "sa", "").locations("classpath:db/migration/hsqldb").load()
+				.migrate();
+	}
+
+	/**
+	 * test the accounts of a user are read from the replica.
+	 */
+	@Test
+	public void doReadFromReplica() throws SQLException {
+		insert(REPLICA, "replica-reader");
+		assertEquals(1, service.findAccounts("replica-reader").size());
+		assertEquals(0, count(PRIMARY, "replica-reader"));
+	}
+
+	/**
+	 * test new accounts are written to the primary.
+	 */
+	@Test
+	public void doWriteToPrimary() throws SQLException {
+		service.saveAccount(account("primary-writer"));
+		assertEquals(1, count(PRIMARY, "primary-writer"));
+		assertEquals(0, count(REPLICA, "primary-writer"));
+	}
+
+	/**
+	 * test a user reads their own new account, which the replica does not
+	 * have yet, from the primary.
+	 */
+	@Test
+	public void doReadYourWritesFromPrimary() {
+		Integer id = service.saveAccount(account("own-writer"));
+		assertEquals(1, service.findAccounts("own-writer").size());
+		assertEquals("own-writer", service.findAccountsPage("own-writer", null, null, 10).get(0).getUserid());
+		assertEquals(id, service.findAccount(id).getId());
+	}
+
+	/**
+	 * test an account whose owner changed an account recently is read from
+	 * the primary by anyone, and cached as the primary has it, though the
+	 * owner was not known before the read.
+	 */
+	@Test
+	public void doReadOthersWritesFromPrimary() throws SQLException {
+		insert(PRIMARY, 1001, "other-writer", new BigDecimal("20.00"));
+		insert(REPLICA, 1001, "other-writer", new BigDecimal("10.00"));
+		readYourWrites.written("other-writer");
+
+		assertEquals(0, new BigDecimal("20.00").compareTo(service.findAccount(1001).getBalance()));
+		assertEquals(0, new BigDecimal("20.00").compareTo(service.findAccount(1001).getBalance()));
+	}
+
+	/**
+	 * test an account the replica does not have yet is found on the primary
+	 * when its owner is not known.
+	 */
+	@Test
+	public void doFindNewAccountOfUnknownOwner() throws SQLException {
+		insert(PRIMARY, 1003, "unknown-writer", BigDecimal.TEN);
+		assertEquals("unknown-writer", service.findAccount(1003).getUserid());
+	}
+
+	private static Account account(String userId) {
+		Account account = new Account();
+		account.setUserid(userId);
+		account.setName(userId);
+		account.setType(AccountType.CURRENT);
+		account.setCreationdate(new Date());
+		account.setOpenbalance(BigDecimal.TEN);
+		account.setBalance(BigDecimal.TEN);
+		account.setCurrency("USD");
+		return account;
+	}
+
+	private static void insert(String url, String userId) throws SQLException {
+		try (Connection connection = DriverManager.getConnection(url, "sa", "");
+				PreparedStatement insert = connection.prepareStatement("insert into account"
+						+ " (userid, name, accounttype, creationdate, openbalance, balance, currency)"
+						+ " values (?, ?, 'CURRENT', ?, 10, 10, 'USD')")) {
+			insert.setString(1, userId);
+			insert.setString(2, userId);
+			insert.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+			insert.executeUpdate();
+		}
+	}
+
+	private static void insert(String url, int id, String userId, BigDecimal balance) throws SQLException {
+		try (Connection connection = DriverManager.getConnection(url, "sa", "");
+				PreparedStatement insert = connection.prepareStatement("insert into account"
+						+ " (id, userid, name, accounttype, creationdate, openbalance, balance, currency)"
+						+ " values (?, ?, ?, 'CURRENT', ?, 10, ?, 'USD')")) {
+			insert.setInt(1, id);
+			insert.setString(2, userId);
+			insert.setString(3, userId);
+			insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+			insert.setBigDecimal(5, balance);
+			insert.executeUpdate();
+		}
+	}
+
+	private static int count(String url, String userId) throws SQLException {
+		try (Connection connection = DriverManager.getConnection(url, "sa", "");
+				PreparedStatement select = connection.prepareStatement(
+						"select count(*) from account where userid = ?")) {
+			select.setString(1, userId);
+			try (ResultSet result = select.executeQuery()) {
+				result.next();
+				return result.getInt(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package io.pivotal.accounts.config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Tests for the switch to virtual threads, on the runtime the tests run on:
+ * the build targets Java 8, where startup must fail with a clear message.
+ *
+ */
+public class VirtualThreadConfigTest {
+
+	private final ApplicationContextRunner runner = new ApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(TaskExecutionAutoConfiguration.class))
+			.withUserConfiguration(VirtualThreadConfig.class);
+
+	/**
+	 * test the default executors are left in place when the switch is off or
+	 * not set.
+	 */
+	@Test
+	public void doKeepDefaultExecutors() {
+		runner.run(VirtualThreadConfigTest::assertDefaultExecutors);
+		runner.withPropertyValues("accounts.threads.virtual=false").run(VirtualThreadConfigTest::assertDefaultExecutors);
+	}
+
+	/**
+	 * test the switch fails startup with the documented message on a runtime
+	 * without virtual threads.
+	 */
+	@Test
+	public void doFailWithoutVirtualThreads() {
+		assumeFalse(virtualThreadsSupported());
+		runner.withPropertyValues("accounts.threads.virtual=true").run(context -> {
+			assertNotNull(context.getStartupFailure());
+			assertTrue(String.valueOf(context.getStartupFailure()), causedByUnsupported(context.getStartupFailure()));
+		});
+	}
+
+	/**
+	 * test the switch creates virtual threads on a runtime with them.
+	 */
+	@Test
+	public void doCreateVirtualThreads() {
+		assumeTrue(virtualThreadsSupported());
+		runner.withPropertyValues("accounts.threads.virtual=true").run(context -> {
+			Thread thread = context.getBean(VirtualThreadConfig.THREAD_FACTORY, ThreadFactory.class).newThread(() -> {
+			});
+			assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+			assertTrue(context.getBean("applicationTaskExecutor") instanceof TaskExecutorAdapter);
+		});
+	}
+
+	private static void assertDefaultExecutors(ApplicationContext context) {
+		assertFalse(context.containsBean(VirtualThreadConfig.THREAD_FACTORY));
+		assertTrue(context.getBeansOfType(ExecutorService.class).isEmpty());
+		assertTrue(context.getBean("applicationTaskExecutor") instanceof ThreadPoolTaskExecutor);
+	}
+
+	private static boolean virtualThreadsSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static boolean causedByUnsupported(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof IllegalStateException && cause.getMessage()
+					.startsWith("accounts.threads.virtual requires Java 21 or later, running on ")) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
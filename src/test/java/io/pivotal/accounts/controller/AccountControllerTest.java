@@ -2,22 +2,47 @@ package io.pivotal.accounts.controller;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivotal.accounts.config.CurrentUser;
 import io.pivotal.accounts.configuration.ServiceTestConfiguration;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountSummary;
 import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
 import io.pivotal.accounts.service.AccountService;
+import io.pivotal.accounts.service.IdempotencyStore;
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -42,6 +67,11 @@ public class AccountControllerTest {
     @MockBean
     private AccountService service;
 
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
 
     /**
      * Test the POST to <code>/account</code>.
@@ -175,6 +205,137 @@ public class AccountControllerTest {
                 .andDo(print());
     }
 
+    /**
+     * Test the GET to <code>/accounts</code> with the summary view.
+     * test only the summary of each account is returned.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doGetAccountSummaries() throws Exception {
+        when(service.findAccountSummaries(isNull(), eq(AccountType.CURRENT)))
+                .thenReturn(Collections.singletonList(new AccountSummary(ServiceTestConfiguration.account())));
+
+        mockMvc.perform(get("/accounts").param("view", "summary").param("type", "CURRENT"))
+                .andExpect(status().isOk())
+                .andDo(print())
+                .andExpect(jsonPath("$[0].id").value(ServiceTestConfiguration.ACCOUNT_ID))
+                .andExpect(jsonPath("$[0].balance").value(ServiceTestConfiguration.ACCOUNT_BALANCE))
+                .andExpect(jsonPath("$[0].creationdate").doesNotExist())
+                .andExpect(jsonPath("$[0].userid").doesNotExist());
+    }
+
+    /**
+     * Test the GET to <code>/accounts</code> with a page size.
+     * test a full page links to the next one.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doGetAccountsPage() throws Exception {
+        authenticate();
+        when(service.findAccountsPage(eq(ServiceTestConfiguration.USER_ID), isNull(), isNull(), eq(1)))
+                .thenReturn(Collections.singletonList(ServiceTestConfiguration.account()));
+
+        mockMvc.perform(get("/accounts").param("size", "1"))
+                .andExpect(status().isOk())
+                .andDo(print())
+                .andExpect(header().string("Link", containsString(
+                        "after=" + ServiceTestConfiguration.ACCOUNT_ID)))
+                .andExpect(header().string("Link", containsString("rel=\"next\"")))
+                .andExpect(jsonPath("$[0].id").value(ServiceTestConfiguration.ACCOUNT_ID));
+    }
+
+    /**
+     * Test the GET to <code>/accounts</code> after the last account.
+     * test the last page has no link to a next one.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doGetAccountsLastPage() throws Exception {
+        authenticate();
+        when(service.findAccountsPage(eq(ServiceTestConfiguration.USER_ID), eq(AccountType.CURRENT),
+                eq(ServiceTestConfiguration.ACCOUNT_ID), eq(10)))
+                .thenReturn(Collections.emptyList());
+
+        mockMvc.perform(get("/accounts").param("type", "CURRENT")
+                .param("after", ServiceTestConfiguration.ACCOUNT_ID.toString()).param("size", "10"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Link"))
+                .andExpect(jsonPath("$").isEmpty());
+    }
+
+    /**
+     * Test the GET to <code>/accounts</code> accepting newline delimited JSON.
+     * test accounts are streamed one per line.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doStreamAccounts() throws Exception {
+        authenticate();
+        doAnswer(invocation -> {
+            Consumer<Account> consumer = invocation.getArgument(2);
+            consumer.accept(ServiceTestConfiguration.account());
+            consumer.accept(ServiceTestConfiguration.account());
+            return null;
+        }).when(service).streamAccounts(eq(ServiceTestConfiguration.USER_ID), isNull(), any());
+
+        MvcResult result = mockMvc.perform(get("/accounts").accept(AccountController.NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(AccountController.NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"id\":" + ServiceTestConfiguration.ACCOUNT_ID));
+    }
+
+    /**
+     * Test the GET to <code>/accounts</code> with a type, accepting newline
+     * delimited JSON.
+     * test only the accounts of the type are streamed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doStreamAccountsWithType() throws Exception {
+        authenticate();
+        doAnswer(invocation -> {
+            Consumer<Account> consumer = invocation.getArgument(2);
+            consumer.accept(ServiceTestConfiguration.account());
+            return null;
+        }).when(service).streamAccounts(eq(ServiceTestConfiguration.USER_ID), eq(AccountType.CURRENT), any());
+
+        MvcResult result = mockMvc.perform(get("/accounts").param("type", "CURRENT")
+                .accept(AccountController.NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertEquals(1, body.split("\n").length);
+    }
+
+    /**
+     * Test the GET to <code>/accounts</code> without a user_id claim.
+     * test neither a page nor a stream is returned.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doGetAccountsPageUnauthenticated() throws Exception {
+        mockMvc.perform(get("/accounts").param("size", "1"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/accounts").accept(AccountController.NDJSON))
+                .andExpect(status().isUnauthorized());
+    }
+
     /**
      * Test the GET to <code>/accounts/transaction/</code>.
      * test increase of balance.
@@ -183,8 +344,8 @@ public class AccountControllerTest {
      */
     @Test
     public void doIncreaseBalance() throws Exception {
-        when(service.findAccount(ServiceTestConfiguration.ACCOUNT_ID))
-                .thenReturn(ServiceTestConfiguration.account());
+        when(service.processTransaction(any(Transaction.class)))
+                .thenReturn(TransactionStatus.SUCCESS);
 
         MvcResult result = mockMvc.perform(
                 post("/accounts/transaction")
@@ -205,8 +366,8 @@ public class AccountControllerTest {
      */
     @Test
     public void doIncreaseBalanceNegative() throws Exception {
-        when(service.findAccount(ServiceTestConfiguration.ACCOUNT_ID))
-                .thenReturn(ServiceTestConfiguration.account());
+        when(service.processTransaction(any(Transaction.class)))
+                .thenReturn(TransactionStatus.FAILED);
 
         MvcResult result = mockMvc.perform(
                 post("/accounts/transaction")
@@ -227,8 +388,8 @@ public class AccountControllerTest {
      */
     @Test
     public void doDecreaseBalance() throws Exception {
-        when(service.findAccount(ServiceTestConfiguration.ACCOUNT_ID))
-                .thenReturn(ServiceTestConfiguration.account());
+        when(service.processTransaction(any(Transaction.class)))
+                .thenReturn(TransactionStatus.SUCCESS);
 
         mockMvc.perform(
                 post("/accounts/transaction")
@@ -250,8 +411,8 @@ public class AccountControllerTest {
 
     @Test
     public void doDecreaseBalanceNoFunds() throws Exception {
-        when(service.findAccount(ServiceTestConfiguration.ACCOUNT_ID))
-                .thenReturn(ServiceTestConfiguration.account());
+        when(service.processTransaction(any(Transaction.class)))
+                .thenReturn(TransactionStatus.FAILED);
 
         mockMvc.perform(
                 post("/accounts/transaction")
@@ -264,9 +425,168 @@ public class AccountControllerTest {
                 .andDo(print());
     }
 
+    /**
+     * Test the POST to <code>/accounts/transaction</code>.
+     * test the idempotency key is passed on with the transaction.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doTransactionWithIdempotencyKey() throws Exception {
+        when(service.processTransaction(argThat(tx -> "retry-1".equals(tx.getIdempotencyKey()))))
+                .thenReturn(TransactionStatus.SUCCESS);
+
+        mockMvc.perform(
+                post("/accounts/transaction")
+                        .header(IdempotencyStore.HEADER, "retry-1")
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        convertObjectToJson(ServiceTestConfiguration
+                                .getDebitTransaction())))
+                .andExpect(status().isOk())
+                .andExpect(content().string("SUCCESS"));
+    }
+
+    /**
+     * Test the POST to <code>/accounts/transaction</code>.
+     * test a transaction with the idempotency key of another is a conflict.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doTransactionWithConflictingIdempotencyKey() throws Exception {
+        when(service.processTransaction(argThat(tx -> "retry-1".equals(tx.getIdempotencyKey()))))
+                .thenReturn(TransactionStatus.CONFLICT);
+
+        mockMvc.perform(
+                post("/accounts/transaction")
+                        .header(IdempotencyStore.HEADER, "retry-1")
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        convertObjectToJson(ServiceTestConfiguration
+                                .getDebitTransaction())))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("CONFLICT"));
+    }
+
+    /**
+     * Test the POST to <code>/accounts/transaction</code>.
+     * test an idempotency key longer than the store holds is rejected.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doTransactionWithLongIdempotencyKey() throws Exception {
+        char[] key = new char[IdempotencyStore.MAX_KEY_LENGTH + 1];
+        Arrays.fill(key, 'k');
+
+        mockMvc.perform(
+                post("/accounts/transaction")
+                        .header(IdempotencyStore.HEADER, new String(key))
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        convertObjectToJson(ServiceTestConfiguration
+                                .getDebitTransaction())))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test the POST to <code>/accounts/transaction</code>.
+     * test an amount beyond the amount column is rejected.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doTransactionOutOfRange() throws Exception {
+        mockMvc.perform(
+                post("/accounts/transaction")
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        "{\"accountId\":1,\"type\":\"CREDIT\",\"amount\":1000000000000.00}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test the POST to <code>/accounts/transaction</code>.
+     * test the currency is trimmed and upper-cased before it is processed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doTransactionNormalizeCurrency() throws Exception {
+        when(service.processTransaction(argThat((Transaction tx) -> "GBP".equals(tx.getCurrency()))))
+                .thenReturn(TransactionStatus.SUCCESS);
+
+        mockMvc.perform(
+                post("/accounts/transaction")
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        "{\"accountId\":1,\"type\":\"CREDIT\",\"amount\":10.00,\"currency\":\" gbp \"}"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("SUCCESS"));
+    }
+
+    /**
+     * Test the POST to <code>/accounts/transaction</code>.
+     * test a currency that is not three letters is rejected.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doTransactionInvalidCurrency() throws Exception {
+        mockMvc.perform(
+                post("/accounts/transaction")
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        "{\"accountId\":1,\"type\":\"CREDIT\",\"amount\":10.00,\"currency\":\"GB1\"}"))
+                .andExpect(status().isBadRequest());
+        verify(service, never()).processTransaction(any(Transaction.class));
+    }
+
+    /**
+     * Test the POST to <code>/accounts/transactions/batch</code>.
+     * test a batch with a currency that is not three letters is rejected.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doBatchTransactionsInvalidCurrency() throws Exception {
+        mockMvc.perform(
+                post("/accounts/transactions/batch")
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        "[{\"accountId\":1,\"type\":\"CREDIT\",\"amount\":10.00,\"currency\":\"GBP\"},"
+                        + "{\"accountId\":1,\"type\":\"CREDIT\",\"amount\":10.00,\"currency\":\"POUND\"}]"))
+                .andExpect(status().isBadRequest());
+        verify(service, never()).processTransactions(anyList());
+    }
+
+    /**
+     * Test the POST to <code>/accounts/transactions/batch</code>.
+     * test a result is returned for each transaction.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void doBatchTransactions() throws Exception {
+        when(service.processTransactions(anyList()))
+                .thenReturn(Arrays.asList(TransactionStatus.SUCCESS, TransactionStatus.FAILED));
+
+        mockMvc.perform(
+                post("/accounts/transactions/batch")
+                        .contentType(MediaType.APPLICATION_JSON).content(
+                        convertObjectToJson(Arrays.asList(
+                                ServiceTestConfiguration.getDebitTransaction(),
+                                ServiceTestConfiguration.getBadCreditTransaction()))))
+                .andExpect(status().isOk())
+                .andDo(print())
+                .andExpect(jsonPath("$[0]").value("SUCCESS"))
+                .andExpect(jsonPath("$[1]").value("FAILED"));
+    }
+
     private String convertObjectToJson(Object request) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
         mapper.setSerializationInclusion(Include.NON_NULL);
         return mapper.writeValueAsString(request);
     }
+
+    private static void authenticate() {
+        Jwt jwt = new Jwt("token", Instant.now(), Instant.now().plusSeconds(60),
+                Collections.singletonMap("alg", "none"),
+                Collections.singletonMap(CurrentUser.USER_ID_CLAIM, ServiceTestConfiguration.USER_ID));
+        SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+    }
 }
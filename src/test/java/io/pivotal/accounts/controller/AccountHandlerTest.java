@@ -0,0 +1,183 @@
+package io.pivotal.accounts.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.pivotal.accounts.config.CacheConfig;
+import io.pivotal.accounts.config.CurrentUser;
+import io.pivotal.accounts.config.GrantedAuthoritiesConverter;
+import io.pivotal.accounts.config.ReactiveConfig;
+import io.pivotal.accounts.config.ReactiveSecurityConfig;
+import io.pivotal.accounts.configuration.ServiceTestConfiguration;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.repository.AccountRepository;
+import io.pivotal.accounts.service.AccountCacheInvalidator;
+import io.pivotal.accounts.service.AccountMetrics;
+import io.pivotal.accounts.service.AccountService;
+import io.pivotal.accounts.service.CurrencyConverter;
+import io.pivotal.accounts.service.IdempotencyStore;
+import io.pivotal.accounts.service.OptimisticRetry;
+import io.pivotal.accounts.service.PayloadLog;
+import io.pivotal.accounts.service.ReadYourWrites;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+/**
+ * Tests for the reactive mode, against an embedded database.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AccountHandlerTest.TestApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = { "spring.main.web-application-type=reactive",
+				"spring.datasource.url=jdbc:hsqldb:mem:reactive" })
+public class AccountHandlerTest {
+
+	private static final String TOKEN = "token";
+
+	private static final String NO_USER_ID_TOKEN = "no-user-id";
+
+	@SpringBootConfiguration
+	@EnableAutoConfiguration
+	@EntityScan(basePackageClasses = Account.class)
+	@EnableJpaRepositories(basePackageClasses = AccountRepository.class)
+	@Import({ ReactiveConfig.class, ReactiveSecurityConfig.class, AccountHandler.class,
+			GrantedAuthoritiesConverter.class, CacheConfig.class, AccountService.class, AccountMetrics.class,
+			AccountCacheInvalidator.class, OptimisticRetry.class, PayloadLog.class, ReadYourWrites.class,
+			IdempotencyStore.class, CurrencyConverter.class })
+	static class TestApplication {
+	}
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private AccountHandler handler;
+
+	@MockBean
+	private JwtDecoder jwtDecoder;
+
+	@Before
+	public void setUp() {
+		Map<String, Object> claims = new HashMap<>();
+		claims.put("sub", ServiceTestConfiguration.USER_ID);
+		claims.put(CurrentUser.USER_ID_CLAIM, ServiceTestConfiguration.USER_ID);
+		claims.put("scope", Arrays.asList("openid", "account"));
+		when(jwtDecoder.decode(anyString())).thenReturn(new Jwt(TOKEN, Instant.now(),
+				Instant.now().plusSeconds(60), Collections.singletonMap("alg", "RS256"), claims));
+	}
+
+	/**
+	 * test requests without a token are rejected.
+	 */
+	@Test
+	public void doRejectUnauthenticated() {
+		client.get().uri("/accounts").exchange().expectStatus().isUnauthorized();
+	}
+
+	/**
+	 * test accounts are saved for and listed by the user of the token, and a
+	 * debit is applied.
+	 */
+	@Test
+	public void doSaveFindAndDebit() {
+		Account account = ServiceTestConfiguration.account();
+		account.setId(null);
+		authorized(client.post().uri("/accounts")).contentType(MediaType.APPLICATION_JSON).syncBody(account)
+				.exchange().expectStatus().isCreated();
+
+		Integer id = authorized(client.get().uri("/accounts?type=SAVINGS")).exchange()
+				.expectStatus().isOk()
+				.expectBodyList(Account.class).hasSize(1)
+				.returnResult().getResponseBody().get(0).getId();
+
+		authorized(client.get().uri("/accounts/{id}", id)).exchange()
+				.expectStatus().isOk()
+				.expectBody().jsonPath("$.userid").isEqualTo(ServiceTestConfiguration.USER_ID);
+
+		authorized(client.post().uri("/accounts/transaction")).contentType(MediaType.APPLICATION_JSON)
+				.syncBody("{\"accountId\":" + id + ",\"type\":\"DEBIT\",\"amount\":10,\"currency\":\"GBP\"}")
+				.exchange().expectStatus().isOk()
+				.expectBody(String.class).isEqualTo("SUCCESS");
+
+		authorized(client.post().uri("/accounts/transaction")).contentType(MediaType.APPLICATION_JSON)
+				.syncBody("{\"accountId\":" + id + ",\"type\":\"DEBIT\",\"amount\":1000,\"currency\":\"GBP\"}")
+				.exchange().expectStatus().isEqualTo(417);
+	}
+
+	/**
+	 * test a token without a <code>user_id</code> claim is refused, as by
+	 * the servlet controller, rather than failing.
+	 */
+	@Test
+	public void doRejectTokenWithoutUserId() {
+		Map<String, Object> claims = new HashMap<>();
+		claims.put("sub", ServiceTestConfiguration.USER_ID);
+		claims.put("scope", Arrays.asList("openid", "account"));
+		when(jwtDecoder.decode(NO_USER_ID_TOKEN)).thenReturn(new Jwt(NO_USER_ID_TOKEN, Instant.now(),
+				Instant.now().plusSeconds(60), Collections.singletonMap("alg", "RS256"), claims));
+
+		client.get().uri("/accounts").header(HttpHeaders.AUTHORIZATION, "Bearer " + NO_USER_ID_TOKEN)
+				.exchange().expectStatus().isUnauthorized();
+		client.get().uri("/accounts?view=summary").header(HttpHeaders.AUTHORIZATION, "Bearer " + NO_USER_ID_TOKEN)
+				.exchange().expectStatus().isUnauthorized();
+	}
+
+	/**
+	 * test a request authenticated otherwise than with a token is refused
+	 * rather than given an empty list.
+	 */
+	@Test
+	public void doRejectOtherAuthentication() {
+		ServerResponse response = handler.findAccounts(MockServerRequest.builder().build())
+				.subscriberContext(ReactiveSecurityContextHolder.withAuthentication(
+						new TestingAuthenticationToken(ServiceTestConfiguration.USER_ID, null, "ROLE_ACCOUNT")))
+				.block();
+		assertEquals(HttpStatus.UNAUTHORIZED, response.statusCode());
+	}
+
+	/**
+	 * test an id, size or type that cannot be parsed is a bad request.
+	 */
+	@Test
+	public void doRejectBadParameters() {
+		authorized(client.get().uri("/accounts/one")).exchange().expectStatus().isBadRequest();
+		authorized(client.get().uri("/accounts?size=ten")).exchange().expectStatus().isBadRequest();
+		authorized(client.get().uri("/accounts?after=x")).exchange().expectStatus().isBadRequest();
+		authorized(client.get().uri("/accounts?type=CHEQUE")).exchange().expectStatus().isBadRequest();
+		authorized(client.get().uri("/accounts?view=summary&type=CHEQUE")).exchange().expectStatus().isBadRequest();
+	}
+
+	private static <S extends WebTestClient.RequestHeadersSpec<?>> S authorized(S request) {
+		request.header(HttpHeaders.AUTHORIZATION, "Bearer " + TOKEN);
+		return request;
+	}
+}
@@ -0,0 +1,187 @@
+package io.pivotal.accounts.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Property tests of the Money rules against BigDecimal arithmetic, on seeded
+ * random amounts weighted towards the edges of the range, so a failure can be
+ * reproduced from the seed and iteration in its message.
+ *
+ */
+public class MoneyTest {
+
+	private static final long SEED = 20181101L;
+
+	private static final int ITERATIONS = 100_000;
+
+	private static final BigDecimal MAX = new BigDecimal("999999999999.99");
+
+	/**
+	 * test every amount in range converts to BigDecimal and back unchanged.
+	 */
+	@Test
+	public void doRoundTrip() {
+		Random random = new Random(SEED);
+		for (int i = 0; i < ITERATIONS; i++) {
+			long minor = minor(random);
+			BigDecimal amount = Money.toBigDecimal(minor);
+			assertEquals(message(i, minor), Money.SCALE, amount.scale());
+			assertEquals(message(i, minor), minor, Money.toMinor(amount));
+			assertEquals(message(i, minor), amount, Money.ofMinor(minor, "USD").toBigDecimal());
+		}
+	}
+
+	/**
+	 * test amounts are rounded half up to two decimal places, and rejected
+	 * exactly when the rounded amount does not fit the columns.
+	 */
+	@Test
+	public void doRoundHalfUp() {
+		Random random = new Random(SEED);
+		for (int i = 0; i < ITERATIONS; i++) {
+			BigDecimal amount = BigDecimal.valueOf(random.nextLong() % pow10(1 + random.nextInt(18)),
+					random.nextInt(9) - 2);
+			BigDecimal expected = amount.setScale(Money.SCALE, RoundingMode.HALF_UP);
+			if (expected.abs().compareTo(MAX) <= 0) {
+				assertEquals(message(i, amount), expected, Money.toBigDecimal(Money.toMinor(amount)));
+			} else {
+				assertRejected(message(i, amount), () -> Money.toMinor(amount));
+			}
+		}
+		assertEquals(1001, Money.toMinor(new BigDecimal("10.005")));
+		assertEquals(-1001, Money.toMinor(new BigDecimal("-10.005")));
+		assertEquals(1000, Money.toMinor(new BigDecimal("10.0049")));
+		assertEquals(Money.MAX_MINOR, Money.toMinor(new BigDecimal("999999999999.994")));
+		assertRejected("rounds out of range", () -> Money.toMinor(new BigDecimal("999999999999.995")));
+	}
+
+	/**
+	 * test sums and differences are exact, and rejected exactly when they do
+	 * not fit the columns.
+	 */
+	@Test
+	public void doAddAndSubtract() {
+		Random random = new Random(SEED);
+		for (int i = 0; i < ITERATIONS; i++) {
+			long a = minor(random);
+			long b = minor(random);
+			BigDecimal sum = Money.toBigDecimal(a).add(Money.toBigDecimal(b));
+			BigDecimal difference = Money.toBigDecimal(a).subtract(Money.toBigDecimal(b));
+			if (sum.abs().compareTo(MAX) <= 0) {
+				assertEquals(message(i, a + " + " + b), sum, Money.toBigDecimal(Money.add(a, b)));
+				assertTrue(Money.inRange(a + b));
+			} else {
+				assertRejected(message(i, a + " + " + b), () -> Money.add(a, b));
+				assertFalse(Money.inRange(a + b));
+			}
+			if (difference.abs().compareTo(MAX) <= 0) {
+				assertEquals(message(i, a + " - " + b), difference, Money.toBigDecimal(Money.subtract(a, b)));
+			} else {
+				assertRejected(message(i, a + " - " + b), () -> Money.subtract(a, b));
+			}
+		}
+	}
+
+	/**
+	 * test instances keep the currency and compare by value.
+	 */
+	@Test
+	public void doCarryCurrency() {
+		Money ten = Money.of(new BigDecimal("10"), "EUR");
+		Money sum = ten.plus(Money.ofMinor(5, "EUR"));
+		assertEquals(Money.ofMinor(1005, "EUR"), sum);
+		assertEquals("10.05 EUR", sum.toString());
+		assertEquals(ten, sum.minus(Money.ofMinor(5, "EUR")));
+		assertTrue(sum.compareTo(ten) > 0);
+		assertFalse(ten.equals(Money.ofMinor(1000, "USD")));
+	}
+
+	/**
+	 * test amounts of different currencies are not added.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void doRejectOtherCurrency() {
+		Money.ofMinor(100, "EUR").plus(Money.ofMinor(100, "USD"));
+	}
+
+	/**
+	 * test an amount with a huge exponent is rejected without expanding it.
+	 */
+	@Test(timeout = 1000)
+	public void doRejectHugeExponent() {
+		assertRejected("1E+999999999", () -> Money.toMinor(new BigDecimal("1E+999999999")));
+		assertEquals(0, Money.toMinor(new BigDecimal("0E+999999999")));
+		assertEquals(0, Money.toMinor(new BigDecimal("0E-999999999")));
+		assertEquals(0, Money.toMinor(new BigDecimal("1E-999999999")));
+		assertEquals(1, Money.toMinor(new BigDecimal("0.005")));
+		assertEquals(0, Money.toMinor(new BigDecimal("0.0049")));
+	}
+
+	/**
+	 * test the transaction rounds its amount once, when set.
+	 */
+	@Test
+	public void doRoundTransactionAmount() {
+		Transaction transaction = new Transaction();
+		transaction.setAmount(new BigDecimal("7.125"));
+		assertEquals(new BigDecimal("7.13"), transaction.getAmount());
+		assertEquals(713, transaction.getAmountMinor());
+		BigDecimal amount = new BigDecimal("7.12");
+		transaction.setAmount(amount);
+		assertTrue(amount == transaction.getAmount());
+		transaction.setCurrency("EUR");
+		assertEquals(Money.ofMinor(712, "EUR"), transaction.getMoney());
+		transaction.setAmount(null);
+		assertNull(transaction.getAmount());
+		assertNull(transaction.getMoney());
+		assertEquals(0, transaction.getAmountMinor());
+	}
+
+	/**
+	 * @return an amount in range, three times in four within a few minor
+	 *         units of its bounds or of zero.
+	 */
+	static long minor(Random random) {
+		switch (random.nextInt(4)) {
+		case 0:
+			return Money.MAX_MINOR - random.nextInt(3);
+		case 1:
+			return Money.MIN_MINOR + random.nextInt(3);
+		case 2:
+			return random.nextInt(201) - 100;
+		default:
+			return random.nextLong() % (Money.MAX_MINOR + 1);
+		}
+	}
+
+	private static long pow10(int exponent) {
+		long value = 1;
+		for (int i = 0; i < exponent; i++) {
+			value *= 10;
+		}
+		return value;
+	}
+
+	private static String message(int iteration, Object value) {
+		return "seed " + SEED + ", iteration " + iteration + ": " + value;
+	}
+
+	private static void assertRejected(String message, Runnable conversion) {
+		try {
+			conversion.run();
+			fail(message + " should be out of range");
+		} catch (ArithmeticException expected) {
+			// out of range
+		}
+	}
+}
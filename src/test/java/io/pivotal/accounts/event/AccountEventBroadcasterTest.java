@@ -0,0 +1,112 @@
+package io.pivotal.accounts.event;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import io.pivotal.accounts.configuration.ServiceTestConfiguration;
+import io.pivotal.accounts.service.AccountCacheInvalidator;
+import io.pivotal.accounts.service.ReadYourWrites;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Tests for the AccountEventBroadcaster, against the stream test binder.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AccountEventBroadcasterTest.TestApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.NONE)
+public class AccountEventBroadcasterTest {
+
+	@SpringBootConfiguration
+	@EnableAutoConfiguration(exclude = { DataSourceAutoConfiguration.class,
+			DataSourceTransactionManagerAutoConfiguration.class, HibernateJpaAutoConfiguration.class })
+	@Import(AccountEventBroadcaster.class)
+	static class TestApplication {
+	}
+
+	@Autowired
+	private AccountEventChannels channels;
+
+	@Autowired
+	private MessageCollector collector;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Autowired
+	private AccountEventBroadcaster broadcaster;
+
+	@MockBean
+	private AccountCacheInvalidator invalidator;
+
+	@MockBean
+	private ReadYourWrites readYourWrites;
+
+	/**
+	 * test a local change is published to the other instances.
+	 */
+	@Test
+	public void doPublishLocalChange() throws Exception {
+		publisher.publishEvent(new AccountChangedEvent(ServiceTestConfiguration.ACCOUNT_ID));
+
+		Message<?> message = collector.forChannel(channels.accountEventsOutput()).poll(1, TimeUnit.SECONDS);
+		assertNotNull(message);
+		Object payload = message.getPayload();
+		String json = payload instanceof byte[] ? new String((byte[]) payload, StandardCharsets.UTF_8)
+				: payload.toString();
+		assertTrue(json.contains("\"accountId\":" + ServiceTestConfiguration.ACCOUNT_ID));
+	}
+
+	/**
+	 * test a change from another instance evicts the local entry, up to its
+	 * version.
+	 */
+	@Test
+	public void doEvictRemoteChange() {
+		channels.accountEventsInput().send(event("another-instance"));
+		verify(invalidator).evict(ServiceTestConfiguration.ACCOUNT_ID, ServiceTestConfiguration.USER_ID, 4L);
+		verify(readYourWrites).written(ServiceTestConfiguration.USER_ID);
+	}
+
+	/**
+	 * test a change published by this instance is not evicted twice.
+	 */
+	@Test
+	public void doIgnoreOwnChange() {
+		channels.accountEventsInput().send(event(broadcaster.getInstanceId()));
+		verify(invalidator, never()).evict(any(), any(), any());
+	}
+
+	private static Message<byte[]> event(String origin) {
+		String json = "{\"accountId\":" + ServiceTestConfiguration.ACCOUNT_ID
+				+ ",\"userid\":\"" + ServiceTestConfiguration.USER_ID + "\",\"version\":4}";
+		return MessageBuilder.withPayload(json.getBytes(StandardCharsets.UTF_8))
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON_VALUE)
+				.setHeader(AccountEventBroadcaster.ORIGIN_HEADER, origin)
+				.build();
+	}
+}
@@ -0,0 +1,213 @@
+package io.pivotal.accounts.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the TransactionLog, its record format and the replay tool.
+ *
+ */
+public class TransactionLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path dir;
+
+	@Before
+	public void setUp() {
+		dir = folder.getRoot().toPath();
+	}
+
+	/**
+	 * test currency codes pack into a short and decode to interned strings.
+	 */
+	@Test
+	public void doCurrencyCodes() {
+		assertEquals(CurrencyCodes.NONE, CurrencyCodes.encode(null));
+		assertNull(CurrencyCodes.decode(CurrencyCodes.NONE));
+		for (String currency : Arrays.asList("USD", "EUR", "GBP", "AAA", "ZZZ")) {
+			assertEquals(currency, CurrencyCodes.decode(CurrencyCodes.encode(currency)));
+		}
+		assertSame(CurrencyCodes.decode(CurrencyCodes.encode("USD")),
+				CurrencyCodes.decode(CurrencyCodes.encode("USD")));
+	}
+
+	/**
+	 * test letters pack in either case, and codes that are not three letters
+	 * pack into the unknown code rather than being rejected.
+	 */
+	@Test
+	public void doEncodeUnknownCurrencyCode() {
+		assertEquals(CurrencyCodes.encode("USD"), CurrencyCodes.encode("usd"));
+		for (String currency : Arrays.asList("", "US", "USDX", "US1", " US", "\u00c9UR")) {
+			assertEquals(currency, CurrencyCodes.UNKNOWN, CurrencyCodes.encode(currency));
+		}
+		assertEquals(CurrencyCodes.UNKNOWN_CURRENCY, CurrencyCodes.decode(CurrencyCodes.UNKNOWN));
+	}
+
+	/**
+	 * test a transaction in a currency that is not three letters is logged,
+	 * with the unknown currency.
+	 */
+	@Test
+	public void doLogUnknownCurrency() throws IOException {
+		TransactionLog log = new TransactionLog(dir, 4);
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "1.00", "dollars"),
+				transaction(1, TransactionType.CREDIT, "2.00", "usd")));
+		log.close();
+
+		List<String> currencies = new ArrayList<>();
+		new TransactionLogReader(dir).forEach(record -> currencies.add(record.currency()));
+		assertEquals(Arrays.asList(CurrencyCodes.UNKNOWN_CURRENCY, "USD"), currencies);
+	}
+
+	/**
+	 * test transactions that cannot be written because a new segment cannot
+	 * be started wait, in order, and are written once it can.
+	 */
+	@Test
+	public void doKeepUnwritten() throws IOException {
+		TransactionLog log = new TransactionLog(dir, 1);
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "1.00", "USD")));
+		Path full = Segment.list(dir).firstEntry().getValue();
+		Files.move(dir, dir.resolveSibling(dir.getFileName() + ".moved"));
+
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "2.00", "USD")));
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "3.00", "USD")));
+		Files.createDirectories(dir);
+		Files.copy(dir.resolveSibling(dir.getFileName() + ".moved").resolve(full.getFileName()), full);
+		log.force();
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "4.00", "USD")));
+		log.close();
+
+		List<Long> amounts = new ArrayList<>();
+		new TransactionLogReader(dir).forEach(record -> amounts.add(record.amountMinor()));
+		assertEquals(Arrays.asList(100L, 200L, 300L, 400L), amounts);
+	}
+
+	/**
+	 * test a transaction whose record cannot be written is kept, with the
+	 * ones after it, rather than dropped.
+	 */
+	@Test
+	public void doKeepUnwritable() throws IOException {
+		TransactionLog log = new TransactionLog(dir, 4);
+		Transaction untyped = transaction(1, null, "1.00", "USD");
+		log.append(Arrays.asList(untyped));
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "2.00", "USD")));
+		log.force();
+		assertEquals(0, new TransactionLogReader(dir).forEach(record -> {
+		}));
+
+		untyped.setType(TransactionType.DEBIT);
+		log.close();
+
+		List<Long> amounts = new ArrayList<>();
+		new TransactionLogReader(dir).forEach(record -> amounts.add(record.amountMinor()));
+		assertEquals(Arrays.asList(100L, 200L), amounts);
+	}
+
+	/**
+	 * test records are read back as written, across segments and after the
+	 * log is opened again.
+	 */
+	@Test
+	public void doReadBack() throws IOException {
+		TransactionLog log = new TransactionLog(dir, 2);
+		Transaction credit = transaction(1, TransactionType.CREDIT, "10.005", "EUR");
+		credit.setTransactionId(42);
+		log.append(Arrays.asList(credit, transaction(2, TransactionType.DEBIT, "1.10", null)));
+		log.append(Arrays.asList(transaction(1, TransactionType.DEBIT, "0.01", "USD")));
+		log.close();
+		new TransactionLog(dir, 2).append(Arrays.asList(transaction(3, TransactionType.CREDIT, "5", "GBP")));
+
+		List<String> read = new ArrayList<>();
+		long count = new TransactionLogReader(dir).forEach(record -> read.add(record.seq() + " " + record.accountId()
+				+ " " + record.type() + " " + record.amount() + " " + record.currency() + " " + record.date() + " "
+				+ record.transactionId()));
+
+		assertEquals(4, count);
+		assertEquals(Arrays.asList("1 1 CREDIT 10.01 EUR 1541066400000 42", "2 2 DEBIT 1.10 null 1541066400000 null",
+				"3 1 DEBIT 0.01 USD 1541066400000 null", "4 3 CREDIT 5.00 GBP 1541066400000 null"), read);
+		assertEquals(2, Segment.list(dir).size());
+	}
+
+	/**
+	 * test a torn record ends the segment and is overwritten by the next
+	 * append.
+	 */
+	@Test
+	public void doSkipTornRecord() throws IOException {
+		TransactionLog log = new TransactionLog(dir, 4);
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "1.00", "USD"),
+				transaction(1, TransactionType.CREDIT, "2.00", "USD")));
+		log.close();
+		Segment segment = Segment.open(Segment.list(dir).firstEntry().getValue(), true);
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.putLong(Segment.offset(1) + 8, 999);
+		assertEquals(1, new TransactionLogReader(dir).forEach(record -> {
+		}));
+
+		new TransactionLog(dir, 4).append(Arrays.asList(transaction(1, TransactionType.CREDIT, "3.00", "USD")));
+
+		List<Long> amounts = new ArrayList<>();
+		new TransactionLogReader(dir).forEach(record -> amounts.add(record.amountMinor()));
+		assertEquals(Arrays.asList(100L, 300L), amounts);
+	}
+
+	/**
+	 * test the tool nets the credits and debits per account and currency.
+	 */
+	@Test
+	public void doReplayBalances() throws IOException {
+		TransactionLog log = new TransactionLog(dir, 16);
+		log.append(Arrays.asList(transaction(1, TransactionType.CREDIT, "10.00", "USD"),
+				transaction(1, TransactionType.DEBIT, "2.50", "USD"),
+				transaction(2, TransactionType.DEBIT, "1.00", "USD"),
+				transaction(1, TransactionType.CREDIT, "3.00", "EUR")));
+		log.close();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		Map<Long, TransactionLogTool.Net> nets = TransactionLogTool.replay(dir, null, false, new PrintStream(out));
+
+		List<String> lines = new ArrayList<>();
+		for (TransactionLogTool.Net net : nets.values()) {
+			lines.add(net.accountId + " " + net.currency + " " + net.transactions + " " + net.amount());
+		}
+		assertEquals(Arrays.asList("1 EUR 1 3.00", "1 USD 2 7.50", "2 USD 1 -1.00"), lines);
+		assertEquals(1, TransactionLogTool.replay(dir, 2, true, new PrintStream(out)).size());
+	}
+
+	private static Transaction transaction(int accountId, TransactionType type, String amount, String currency) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(accountId);
+		transaction.setType(type);
+		transaction.setAmount(new BigDecimal(amount));
+		transaction.setCurrency(currency);
+		transaction.setDate(new Date(1541066400000L));
+		return transaction;
+	}
+}
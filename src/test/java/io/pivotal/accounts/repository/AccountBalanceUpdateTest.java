@@ -0,0 +1,88 @@
+package io.pivotal.accounts.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.Money;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Tests for the single-statement debit and credit, against an embedded
+ * database migrated like the service's: the amounts are bound in minor units
+ * and scaled by the database.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AccountBalanceUpdateTest.TestApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = { "spring.datasource.url=jdbc:hsqldb:mem:balance-update",
+				"spring.datasource.username=sa" })
+public class AccountBalanceUpdateTest {
+
+	@SpringBootConfiguration
+	@EnableAutoConfiguration
+	@EntityScan(basePackageClasses = Account.class)
+	@EnableJpaRepositories(basePackageClasses = AccountRepository.class)
+	static class TestApplication {
+	}
+
+	@Autowired
+	private AccountRepository accounts;
+
+	/**
+	 * test amounts in minor units are applied exactly, and a debit beyond the
+	 * balance is refused.
+	 */
+	@Test
+	public void doDebitAndCredit() {
+		Integer id = save("10.00");
+
+		assertEquals(1, accounts.debit(id, 1));
+		assertEquals(1, accounts.credit(id, 1250));
+		assertEquals(0, accounts.debit(id, 2250));
+		assertEquals(new BigDecimal("22.49"), balanceOf(id));
+	}
+
+	/**
+	 * test a credit up to the largest balance the column holds is applied,
+	 * and one beyond it is refused rather than failing in the database.
+	 */
+	@Test
+	public void doRefuseCreditOutOfRange() {
+		Integer id = save("999999999999.00");
+
+		assertEquals(1, accounts.credit(id, 99));
+		assertEquals(Money.toBigDecimal(Money.MAX_MINOR), balanceOf(id));
+		assertEquals(0, accounts.credit(id, 1));
+		assertEquals(Money.toBigDecimal(Money.MAX_MINOR), balanceOf(id));
+	}
+
+	private BigDecimal balanceOf(Integer id) {
+		return (BigDecimal) accounts.findBalanceAndVersionById(id).get(0)[0];
+	}
+
+	private Integer save(String balance) {
+		Account account = new Account();
+		account.setUserid("balance-update");
+		account.setName("balance-update");
+		account.setType(AccountType.CURRENT);
+		account.setCreationdate(new Date());
+		account.setOpenbalance(new BigDecimal(balance));
+		account.setBalance(new BigDecimal(balance));
+		account.setCurrency("USD");
+		return accounts.save(account).getId();
+	}
+}
@@ -0,0 +1,229 @@
+package io.pivotal.accounts.repository;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import io.pivotal.accounts.config.CurrentUser;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountType;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Checks the SQL Hibernate generates for the account lists is answered from
+ * the indexes of the migrations rather than by scanning the table. Subclasses
+ * run the checks against a database and explain the plan in its dialect.
+ *
+ */
+@Transactional
+public abstract class AccountIndexTest {
+
+	/**
+	 * Properties of the test contexts: the schema comes from the migrations
+	 * and the generated SQL is recorded by {@link RecordingInspector}.
+	 */
+	static final String INSPECTOR = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+			+ "io.pivotal.accounts.repository.AccountIndexTest$RecordingInspector";
+
+	private static final String USER_ID = "index-user";
+
+	@SpringBootConfiguration
+	@EnableAutoConfiguration
+	@EntityScan(basePackageClasses = Account.class)
+	@EnableJpaRepositories(basePackageClasses = AccountRepository.class)
+	static class TestApplication {
+	}
+
+	/**
+	 * Records the SQL of the statements Hibernate prepares.
+	 */
+	public static class RecordingInspector implements StatementInspector {
+
+		static final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public String inspect(String sql) {
+			statements.add(sql);
+			return sql;
+		}
+	}
+
+	@Autowired
+	AccountRepository accounts;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@PersistenceContext
+	EntityManager entityManager;
+
+	/**
+	 * @param sql
+	 *            A select with all parameters bound as literals.
+	 * @return the plan of the select, as text that names the indexes used.
+	 */
+	abstract String explain(String sql);
+
+	@Before
+	public void setUp() {
+		for (int i = 0; i < 20; i++) {
+			accounts.save(account(USER_ID + "-" + i, i % 2 == 0 ? AccountType.CURRENT : AccountType.SAVINGS));
+		}
+		accounts.save(account(USER_ID, AccountType.CURRENT));
+		entityManager.flush();
+		entityManager.clear();
+		Jwt jwt = new Jwt("index", Instant.now(), Instant.now().plusSeconds(60),
+				Collections.singletonMap("alg", "none"),
+				Collections.singletonMap(CurrentUser.USER_ID_CLAIM, USER_ID));
+		SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+		RecordingInspector.statements.clear();
+	}
+
+	@After
+	public void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
+	/**
+	 * test the list of the authenticated user uses the index on userid and id.
+	 */
+	@Test
+	public void doFindByUseridUsesIndex() {
+		accounts.findByUserid();
+		assertUsesIndex("idx_account_userid_id", lastSelect(), literal(USER_ID));
+	}
+
+	/**
+	 * test the list of a given user uses the index on userid and id.
+	 */
+	@Test
+	public void doFindByGivenUseridUsesIndex() {
+		accounts.findByUserid(USER_ID);
+		assertUsesIndex("idx_account_userid_id", lastSelect(), literal(USER_ID));
+	}
+
+	/**
+	 * test the list by type uses the index on userid and type.
+	 */
+	@Test
+	public void doFindByUseridAndTypeUsesIndex() {
+		accounts.findByUseridAndType(AccountType.CURRENT);
+		assertUsesIndex("idx_account_userid_type", lastSelect(), literal(AccountType.CURRENT.name()),
+				literal(USER_ID));
+	}
+
+	/**
+	 * test a keyset page uses the index on userid and id.
+	 */
+	@Test
+	public void doFindPageUsesIndex() {
+		accounts.findPage(USER_ID, 0, PageRequest.of(0, 10));
+		assertUsesIndex("idx_account_userid_id", lastSelect(), literal(USER_ID), "0", "10");
+	}
+
+	/**
+	 * test a keyset page by type uses the index on userid and type.
+	 */
+	@Test
+	public void doFindPageByTypeUsesIndex() {
+		accounts.findPageByType(USER_ID, AccountType.CURRENT, 0, PageRequest.of(0, 10));
+		assertUsesIndex("idx_account_userid_type", lastSelect(), literal(USER_ID),
+				literal(AccountType.CURRENT.name()), "0", "10");
+	}
+
+	/**
+	 * test the summaries by type use the index on userid and type.
+	 */
+	@Test
+	public void doFindSummariesByUseridAndTypeUsesIndex() {
+		accounts.findSummariesByUseridAndType(USER_ID, AccountType.CURRENT);
+		assertUsesIndex("idx_account_userid_type", lastSelect(), literal(USER_ID),
+				literal(AccountType.CURRENT.name()));
+	}
+
+	/**
+	 * test the stream by type uses the index on userid and type.
+	 */
+	@Test
+	public void doStreamByUseridAndTypeUsesIndex() {
+		try (Stream<Account> stream = accounts.streamByUseridAndType(USER_ID, AccountType.CURRENT)) {
+			stream.count();
+		}
+		assertUsesIndex("idx_account_userid_type", lastSelect(), literal(USER_ID),
+				literal(AccountType.CURRENT.name()));
+	}
+
+	private void assertUsesIndex(String index, String sql, String... parameters) {
+		String plan = explain(bind(sql, parameters)).toLowerCase();
+		// the whole name, as idx_account_userid_id and _type share a prefix
+		boolean uses = Pattern.compile("\\b" + Pattern.quote(index) + "\\b").matcher(plan).find();
+		assertTrue(sql + " uses " + index + ":\n" + plan, uses);
+		assertFalse(sql + " scans the table:\n" + plan, plan.contains("full scan"));
+	}
+
+	private static String lastSelect() {
+		for (int i = RecordingInspector.statements.size() - 1; i >= 0; i--) {
+			String sql = RecordingInspector.statements.get(i);
+			if (sql.trim().toLowerCase().startsWith("select")) {
+				return sql;
+			}
+		}
+		throw new AssertionError("no select in " + RecordingInspector.statements);
+	}
+
+	private static String bind(String sql, String... parameters) {
+		StringBuilder bound = new StringBuilder();
+		int next = 0;
+		for (char c : sql.toCharArray()) {
+			if (c == '?') {
+				bound.append(parameters[next++]);
+			} else {
+				bound.append(c);
+			}
+		}
+		assertTrue("all parameters bound in " + sql, next == parameters.length);
+		return bound.toString();
+	}
+
+	private static String literal(String value) {
+		return "'" + value + "'";
+	}
+
+	private static Account account(String userId, AccountType type) {
+		Account account = new Account();
+		account.setUserid(userId);
+		account.setName(userId + " " + type);
+		account.setType(type);
+		account.setCreationdate(new Date());
+		account.setOpenbalance(BigDecimal.TEN);
+		account.setBalance(BigDecimal.TEN);
+		account.setCurrency("USD");
+		return account;
+	}
+}
@@ -0,0 +1,21 @@
+package io.pivotal.accounts.repository;
+
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Query plans of the account lists on the embedded HSQLDB.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AccountIndexTest.TestApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = { "spring.datasource.url=jdbc:hsqldb:mem:indexes", AccountIndexTest.INSPECTOR })
+public class HsqldbAccountIndexTest extends AccountIndexTest {
+
+	@Override
+	String explain(String sql) {
+		return String.join("\n", jdbcTemplate.queryForList("explain plan for " + sql, String.class));
+	}
+}
@@ -0,0 +1,43 @@
+package io.pivotal.accounts.repository;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StringUtils;
+
+/**
+ * Query plans of the account lists on MySQL. Skipped unless a database is
+ * given with <code>-Daccounts.test.mysql.url</code> (and
+ * <code>.username</code>, <code>.password</code>); the accounts the tests
+ * insert are rolled back.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AccountIndexTest.TestApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = { "spring.datasource.url=${accounts.test.mysql.url:}",
+				"spring.datasource.username=${accounts.test.mysql.username:root}",
+				"spring.datasource.password=${accounts.test.mysql.password:}", AccountIndexTest.INSPECTOR })
+public class MySqlAccountIndexTest extends AccountIndexTest {
+
+	@BeforeClass
+	public static void requireDatabase() {
+		assumeTrue("no accounts.test.mysql.url", StringUtils.hasText(System.getProperty("accounts.test.mysql.url")));
+	}
+
+	@Override
+	String explain(String sql) {
+		StringBuilder plan = new StringBuilder();
+		jdbcTemplate.query("explain " + sql, row -> {
+			plan.append(row.getString("table")).append(": key=").append(row.getString("key"));
+			if ("ALL".equals(row.getString("type"))) {
+				plan.append(" (full scan)");
+			}
+			plan.append('\n');
+		});
+		return plan.toString();
+	}
+}
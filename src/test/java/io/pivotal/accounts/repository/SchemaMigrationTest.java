@@ -0,0 +1,79 @@
+package io.pivotal.accounts.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.flywaydb.core.Flyway;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests for migrating the schemas Hibernate created before the migrations,
+ * which are baselined like the service does.
+ *
+ */
+public class SchemaMigrationTest {
+
+	private static final String UPDATE_BALANCE_SQL =
+			"update account set balance = ?, version = version + 1 where id = ? and version = ?";
+
+	private static final String CREATE_ORIGINAL_SQL = "create table account (id integer generated by default"
+			+ " as identity (start with 1) primary key, userid varchar(250) not null, name varchar(250) not null,"
+			+ " accounttype varchar(255) not null, creationdate timestamp not null,"
+			+ " openbalance decimal(14,2) not null, balance decimal(14,2) not null, currency varchar(3) not null";
+
+	private static final String INSERT_SQL = "insert into account (userid, name, accounttype, creationdate,"
+			+ " openbalance, balance, currency) values (?, ?, 'CURRENT', current_timestamp, 10, 10, 'USD')";
+
+	/**
+	 * test a schema Hibernate created from the original entities, baselined
+	 * at V1, gets the version column, the ledger and its sequence.
+	 */
+	@Test
+	public void doMigrateOriginalSchema() {
+		String url = "jdbc:hsqldb:mem:hibernate-original";
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(url, "sa", ""));
+		jdbcTemplate.execute(CREATE_ORIGINAL_SQL + ")");
+		jdbcTemplate.update(INSERT_SQL, "original", "original");
+
+		migrate(url, "1");
+
+		Integer id = jdbcTemplate.queryForObject("select id from account where userid = 'original'", Integer.class);
+		assertEquals(1, jdbcTemplate.update(UPDATE_BALANCE_SQL, new BigDecimal("20.00"), id, 0L));
+		assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject("select count(*) from ledger", Integer.class));
+		assertEquals(Long.valueOf(1), jdbcTemplate.queryForObject("call next value for ledger_seq", Long.class));
+		assertEquals(Integer.valueOf(0),
+				jdbcTemplate.queryForObject("select count(*) from idempotency_key", Integer.class));
+	}
+
+	/**
+	 * test the versions Hibernate left null on a schema it had already given
+	 * the version column and the ledger, baselined at V1.1, are set to 0 so
+	 * the conditional updates match them, and new rows start at 0.
+	 */
+	@Test
+	public void doBackfillVersion() {
+		String url = "jdbc:hsqldb:mem:hibernate-versioned";
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(url, "sa", ""));
+		jdbcTemplate.execute(CREATE_ORIGINAL_SQL + ", version bigint)");
+		jdbcTemplate.update(INSERT_SQL, "hibernate", "hibernate");
+
+		migrate(url, "1.1");
+
+		Integer id = jdbcTemplate.queryForObject("select id from account where userid = 'hibernate'", Integer.class);
+		assertEquals(Long.valueOf(0), jdbcTemplate.queryForObject("select version from account where id = ?",
+				Long.class, id));
+		assertEquals(1, jdbcTemplate.update(UPDATE_BALANCE_SQL, new BigDecimal("20.00"), id, 0L));
+
+		jdbcTemplate.update(INSERT_SQL, "migrated", "migrated");
+		assertEquals(Long.valueOf(0), jdbcTemplate.queryForObject(
+				"select version from account where userid = 'migrated'", Long.class));
+	}
+
+	private static void migrate(String url, String baselineVersion) {
+		Flyway.configure().dataSource(url, "sa", "").locations("classpath:db/migration/hsqldb")
+				.baselineOnMigrate(true).baselineVersion(baselineVersion).load().migrate();
+	}
+}
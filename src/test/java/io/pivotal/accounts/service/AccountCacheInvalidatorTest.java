@@ -0,0 +1,78 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import io.pivotal.accounts.config.CacheConfig;
+import io.pivotal.accounts.configuration.ServiceTestConfiguration;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.event.AccountChangedEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+/**
+ * Tests for the AccountCacheInvalidator.
+ *
+ */
+public class AccountCacheInvalidatorTest {
+
+	private AccountCacheInvalidator invalidator;
+
+	private Cache accounts;
+
+	private Cache userAccounts;
+
+	@Before
+	public void setUp() {
+		invalidator = new AccountCacheInvalidator();
+		invalidator.cacheManager = new ConcurrentMapCacheManager(CacheConfig.ACCOUNTS, CacheConfig.USER_ACCOUNTS);
+		accounts = invalidator.cacheManager.getCache(CacheConfig.ACCOUNTS);
+		userAccounts = invalidator.cacheManager.getCache(CacheConfig.USER_ACCOUNTS);
+		accounts.put(ServiceTestConfiguration.ACCOUNT_ID, ServiceTestConfiguration.account());
+	}
+
+	/**
+	 * test a changed account is evicted.
+	 */
+	@Test
+	public void doEvictChangedAccount() {
+		invalidator.onAccountChanged(new AccountChangedEvent(ServiceTestConfiguration.ACCOUNT_ID));
+		assertNull(accounts.get(ServiceTestConfiguration.ACCOUNT_ID));
+	}
+
+	/**
+	 * test a change older than the cached account does not evict it, and a
+	 * change to its version or later does.
+	 */
+	@Test
+	public void doKeepLaterVersion() {
+		Account account = ServiceTestConfiguration.account();
+		account.setVersion(5L);
+		accounts.put(ServiceTestConfiguration.ACCOUNT_ID, account);
+		userAccounts.put(ServiceTestConfiguration.USER_ID, Collections.singletonList(account));
+
+		invalidator.onAccountChanged(new AccountChangedEvent(ServiceTestConfiguration.ACCOUNT_ID,
+				ServiceTestConfiguration.USER_ID, 4L));
+		assertNotNull(accounts.get(ServiceTestConfiguration.ACCOUNT_ID));
+		assertNotNull(userAccounts.get(ServiceTestConfiguration.USER_ID));
+
+		invalidator.onAccountChanged(new AccountChangedEvent(ServiceTestConfiguration.ACCOUNT_ID,
+				ServiceTestConfiguration.USER_ID, 5L));
+		assertNull(accounts.get(ServiceTestConfiguration.ACCOUNT_ID));
+		assertNull(userAccounts.get(ServiceTestConfiguration.USER_ID));
+	}
+
+	/**
+	 * test other accounts stay cached.
+	 */
+	@Test
+	public void doKeepOtherAccounts() {
+		invalidator.onAccountChanged(new AccountChangedEvent(ServiceTestConfiguration.NOT_A_VALID_PROFILE));
+		assertNotNull(accounts.get(ServiceTestConfiguration.ACCOUNT_ID));
+	}
+}
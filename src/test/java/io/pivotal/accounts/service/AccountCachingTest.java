@@ -0,0 +1,128 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import io.pivotal.accounts.config.CacheConfig;
+import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+import io.pivotal.accounts.repository.AccountRepository;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Tests for the account caches through the Spring proxies, against an
+ * embedded database: the Hibernate statistics count the loads that reach the
+ * database, and the eviction after commit must make the next read load the
+ * committed balance.
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AccountCachingTest.TestApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.NONE,
+		properties = { "spring.datasource.url=jdbc:hsqldb:mem:caching",
+				"spring.datasource.username=sa",
+				"spring.jpa.properties.hibernate.generate_statistics=true" })
+public class AccountCachingTest {
+
+	@SpringBootConfiguration
+	@EnableAutoConfiguration
+	@EntityScan(basePackageClasses = Account.class)
+	@EnableJpaRepositories(basePackageClasses = AccountRepository.class)
+	@Import({ CacheConfig.class, AccountService.class, AccountMetrics.class, AccountCacheInvalidator.class,
+			OptimisticRetry.class, PayloadLog.class, ReadYourWrites.class, IdempotencyStore.class,
+			CurrencyConverter.class })
+	static class TestApplication {
+	}
+
+	@Autowired
+	private AccountService service;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	@Before
+	public void setUp() {
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	/**
+	 * test an account read twice is loaded once, and loaded again with the
+	 * new balance once a transaction on it commits.
+	 */
+	@Test
+	public void doCacheAccountUntilCommit() {
+		Integer id = service.saveAccount(account("cached-account"));
+		statistics.clear();
+
+		Account account = service.findAccount(id);
+		assertSame(account, service.findAccount(id));
+		assertEquals(1, statistics.getEntityLoadCount());
+
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(credit(id)));
+		assertEquals(0, new BigDecimal("15.00").compareTo(service.findAccount(id).getBalance()));
+		assertEquals(2, statistics.getEntityLoadCount());
+	}
+
+	/**
+	 * test the accounts of a user read twice are loaded once, and loaded
+	 * again once a transaction on one of them commits.
+	 */
+	@Test
+	public void doCacheUserAccountsUntilCommit() {
+		Integer id = service.saveAccount(account("cached-user"));
+		statistics.clear();
+
+		List<Account> accounts = service.findAccounts("cached-user");
+		assertSame(accounts, service.findAccounts("cached-user"));
+		assertEquals(1, statistics.getEntityLoadCount());
+
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(credit(id)));
+		assertEquals(0, new BigDecimal("15.00").compareTo(service.findAccounts("cached-user").get(0).getBalance()));
+		assertEquals(2, statistics.getEntityLoadCount());
+	}
+
+	private static Transaction credit(Integer accountId) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(accountId);
+		transaction.setType(TransactionType.CREDIT);
+		transaction.setAmount(new BigDecimal("5.00"));
+		transaction.setDate(new Date());
+		return transaction;
+	}
+
+	private static Account account(String userId) {
+		Account account = new Account();
+		account.setUserid(userId);
+		account.setName(userId);
+		account.setType(AccountType.CURRENT);
+		account.setCreationdate(new Date());
+		account.setOpenbalance(BigDecimal.TEN);
+		account.setBalance(BigDecimal.TEN);
+		account.setCurrency("USD");
+		return account;
+	}
+}
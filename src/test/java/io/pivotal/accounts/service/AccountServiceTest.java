@@ -3,21 +3,53 @@ package io.pivotal.accounts.service;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Matchers.isA;
 
+import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
 
 import io.pivotal.accounts.configuration.ServiceTestConfiguration;
 import io.pivotal.accounts.domain.Account;
+import io.pivotal.accounts.domain.AccountSummary;
 import io.pivotal.accounts.domain.AccountType;
+import io.pivotal.accounts.domain.LedgerEntry;
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+import io.pivotal.accounts.event.AccountChangedEvent;
 import io.pivotal.accounts.exception.AuthenticationException;
 import io.pivotal.accounts.exception.NoRecordsFoundException;
+import io.pivotal.accounts.journal.TransactionLog;
 import io.pivotal.accounts.repository.AccountRepository;
+import io.pivotal.accounts.repository.LedgerRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,6 +58,14 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 /**
  * Tests for the AccountService.
@@ -42,6 +82,40 @@ public class AccountServiceTest {
 	@Mock
 	AccountRepository repo;
 
+	@Mock
+	LedgerRepository ledger;
+
+	@Mock
+	PlatformTransactionManager transactionManager;
+
+	@Mock
+	JdbcTemplate jdbcTemplate;
+
+	@Mock
+	ApplicationEventPublisher publisher;
+
+	@Mock
+	EntityManager entityManager;
+
+	SimpleMeterRegistry registry;
+
+	@Before
+	public void setUp() {
+		service.cacheManager = new ConcurrentMapCacheManager();
+		service.retry = new OptimisticRetry(new SimpleMeterRegistry(), 3, 0, 0, 1.0);
+		service.payloadLog = new PayloadLog(new MockEnvironment());
+		registry = new SimpleMeterRegistry();
+		service.metrics = new AccountMetrics(registry);
+		service.readYourWrites = new ReadYourWrites(5000, 1000);
+		service.idempotency = new IdempotencyStore(jdbcTemplate, 60000, 1000);
+		service.converter = new CurrencyConverter(jdbcTemplate, "USD", "");
+	}
+
+	@After
+	public void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
 
 	/**
 	 * test retrieval of account by integer.
@@ -51,6 +125,24 @@ public class AccountServiceTest {
 		when(repo.findById(ServiceTestConfiguration.PROFILE_ID)).thenReturn(Optional.of(ServiceTestConfiguration.account()));
 		assertEquals(service.findAccount(ServiceTestConfiguration.PROFILE_ID).toString(),ServiceTestConfiguration.account().toString());
 	}
+	/**
+	 * test an account whose owner changed an account recently is read again
+	 * on the primary, though someone else reads it and the owner was not
+	 * known before.
+	 */
+	@Test
+	public void doFindAccountOfRecentWriter() {
+		when(repo.findById(ServiceTestConfiguration.PROFILE_ID)).thenReturn(Optional.of(ServiceTestConfiguration.account()));
+		service.readYourWrites.written(ServiceTestConfiguration.USER_ID);
+
+		service.findAccount(ServiceTestConfiguration.PROFILE_ID);
+		verify(transactionManager).getTransaction(argThat(definition -> definition.isReadOnly()));
+		verify(transactionManager).getTransaction(argThat(definition -> !definition.isReadOnly()));
+
+		service.findAccount(ServiceTestConfiguration.PROFILE_ID);
+		verify(transactionManager, times(2)).getTransaction(argThat(definition -> !definition.isReadOnly()));
+	}
+
 	/**
 	 * test retrieval of account by string - userid.
 	 */
@@ -71,6 +163,107 @@ public class AccountServiceTest {
 		assertEquals(accounts.size(),0);
 	}
 	
+	/**
+	 * test the account list of a user is queried once and then cached.
+	 */
+	@Test
+	public void doFindAccountsCachedPerUser() {
+		authenticate(ServiceTestConfiguration.USER_ID);
+		when(repo.findByUserid(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.accountList());
+		service.findAccounts();
+		List<Account> accounts = service.findAccounts();
+		assertEquals(accounts.size(),1);
+		verify(repo, times(1)).findByUserid(ServiceTestConfiguration.USER_ID);
+	}
+
+	/**
+	 * test retrieval of accounts by type is answered from the cached list.
+	 */
+	@Test
+	public void doFindAccountsByTypeFromCache() {
+		authenticate(ServiceTestConfiguration.USER_ID);
+		when(repo.findByUserid(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.accountList());
+		assertEquals(service.findAccountsByType(AccountType.SAVINGS).size(),1);
+		assertEquals(service.findAccountsByType(AccountType.CURRENT).size(),0);
+		verify(repo, times(1)).findByUserid(ServiceTestConfiguration.USER_ID);
+		verify(repo, never()).findByUseridAndType(any(AccountType.class));
+	}
+	
+	/**
+	 * test summaries are selected by projection when the user is not cached.
+	 */
+	@Test
+	public void doFindAccountSummaries() {
+		AccountSummary summary = new AccountSummary(ServiceTestConfiguration.account());
+		when(repo.findSummariesByUseridAndType(ServiceTestConfiguration.USER_ID, AccountType.SAVINGS))
+				.thenReturn(Arrays.asList(summary));
+		List<AccountSummary> summaries = service.findAccountSummaries(ServiceTestConfiguration.USER_ID,
+				AccountType.SAVINGS);
+		assertEquals(Arrays.asList(summary), summaries);
+		verify(repo, never()).findByUserid(anyString());
+	}
+
+	/**
+	 * test summaries are taken from the cached accounts of the user.
+	 */
+	@Test
+	public void doFindAccountSummariesFromCache() {
+		when(repo.findByUserid(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.accountList());
+		service.findAccounts(ServiceTestConfiguration.USER_ID);
+		List<AccountSummary> summaries = service.findAccountSummaries(ServiceTestConfiguration.USER_ID, null);
+		assertEquals(Arrays.asList(new AccountSummary(ServiceTestConfiguration.account())), summaries);
+		verify(repo, never()).findSummariesByUserid(anyString());
+	}
+
+	/**
+	 * test summaries without a user skip the cache, which takes no null key.
+	 */
+	@Test
+	public void doFindAccountSummariesWithoutUser() {
+		List<AccountSummary> summaries = service.findAccountSummaries(null, null);
+		assertEquals(Collections.emptyList(), summaries);
+	}
+
+	/**
+	 * test the first page starts before the lowest id and is sized as asked.
+	 */
+	@Test
+	public void doFindAccountsPage() {
+		when(repo.findPage(eq(ServiceTestConfiguration.USER_ID), eq(Integer.MIN_VALUE),
+				argThat(page -> page.getPageNumber() == 0 && page.getPageSize() == 2)))
+				.thenReturn(ServiceTestConfiguration.accountList());
+		List<Account> accounts = service.findAccountsPage(ServiceTestConfiguration.USER_ID, null, null, 2);
+		assertEquals(accounts.size(),1);
+		verify(repo, never()).findByUserid(anyString());
+	}
+
+	/**
+	 * test streamed accounts are handed over and then detached.
+	 */
+	@Test
+	public void doStreamAccounts() {
+		Account account = ServiceTestConfiguration.account();
+		when(repo.streamByUserid(ServiceTestConfiguration.USER_ID)).thenReturn(Stream.of(account));
+		List<Account> streamed = new ArrayList<>();
+		service.streamAccounts(ServiceTestConfiguration.USER_ID, null, streamed::add);
+		assertEquals(Arrays.asList(account), streamed);
+		verify(entityManager).detach(account);
+	}
+
+	/**
+	 * test only the accounts of the given type are streamed.
+	 */
+	@Test
+	public void doStreamAccountsByType() {
+		Account account = ServiceTestConfiguration.account();
+		when(repo.streamByUseridAndType(ServiceTestConfiguration.USER_ID, AccountType.CURRENT))
+				.thenReturn(Stream.of(account));
+		List<Account> streamed = new ArrayList<>();
+		service.streamAccounts(ServiceTestConfiguration.USER_ID, AccountType.CURRENT, streamed::add);
+		assertEquals(Arrays.asList(account), streamed);
+		verify(repo, never()).streamByUserid(anyString());
+	}
+
 	/**
 	 * test retrieval of account by userid and type.
 	 */
@@ -99,8 +292,374 @@ public class AccountServiceTest {
 		Account acc = ServiceTestConfiguration.account();
 		when(repo.save(acc)).thenReturn(acc);
 		assertEquals(service.saveAccount(acc),acc.getId());
+		verify(publisher).publishEvent(argThat((AccountChangedEvent event) -> acc.getId().equals(event.getAccountId())));
+	}
+
+	/**
+	 * test debit with sufficient funds, published with the version it left
+	 * the account at.
+	 */
+	@Test
+	public void doDebit() {
+		Transaction tx = ServiceTestConfiguration.getDebitTransaction();
+		when(repo.debit(tx.getAccountId(), tx.getAmountMinor())).thenReturn(1);
+		when(repo.findVersionById(tx.getAccountId())).thenReturn(7L);
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+		verify(ledger).save(argThat((LedgerEntry entry) -> entry.getAccountId().equals(tx.getAccountId())
+				&& entry.getAmount().equals(tx.getAmount()) && entry.getDate() != null));
+		verify(publisher).publishEvent(argThat((AccountChangedEvent event) -> tx.getAccountId().equals(event.getAccountId())
+				&& Long.valueOf(7L).equals(event.getVersion())));
+	}
+
+	/**
+	 * test debit with not enough funds.
+	 */
+	@Test
+	public void doDebitNoFunds() {
+		Transaction tx = ServiceTestConfiguration.getBadDebitTransaction();
+		when(repo.debit(tx.getAccountId(), tx.getAmountMinor())).thenReturn(0);
+		when(repo.existsById(tx.getAccountId())).thenReturn(true);
+		assertEquals(TransactionStatus.FAILED, service.processTransaction(tx));
+		verify(ledger, never()).save(any(LedgerEntry.class));
+		assertEquals(1, registry.get(AccountMetrics.TRANSACTIONS).tag("type", "DEBIT")
+				.tag("outcome", "insufficient_funds").timer().count());
+	}
+
+	/**
+	 * test debit of an account that does not exist.
+	 */
+	@Test(expected=NoRecordsFoundException.class)
+	public void doDebitAccountNotFound() {
+		Transaction tx = ServiceTestConfiguration.getDebitTransaction();
+		when(repo.debit(tx.getAccountId(), tx.getAmountMinor())).thenReturn(0);
+		when(repo.existsById(tx.getAccountId())).thenReturn(false);
+		service.processTransaction(tx);
+	}
+
+	/**
+	 * test credit of a positive amount.
+	 */
+	@Test
+	public void doCredit() {
+		Transaction tx = ServiceTestConfiguration.getCreditTransaction();
+		when(repo.credit(tx.getAccountId(), tx.getAmountMinor())).thenReturn(1);
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+	}
+
+	/**
+	 * test credit of a negative amount never touches the account.
+	 */
+	@Test
+	public void doCreditNegative() {
+		Transaction tx = ServiceTestConfiguration.getBadCreditTransaction();
+		assertEquals(TransactionStatus.FAILED, service.processTransaction(tx));
+		verify(repo, never()).credit(tx.getAccountId(), tx.getAmountMinor());
+	}
+
+	/**
+	 * test transactions queued for one account are applied in order and
+	 * written with one balance update.
+	 */
+	@Test
+	public void doProcessCoalesced() {
+		Integer id = ServiceTestConfiguration.ACCOUNT_ID;
+		when(repo.findBalanceAndVersionById(id)).thenReturn(balanceAndVersion("100.00", 3L));
+		when(repo.updateBalance(id, 3L, new BigDecimal("80.00"))).thenReturn(1);
+		List<TransactionStatus> statuses = service.processCoalesced(id, Arrays.asList(
+				transaction(TransactionType.DEBIT, "30.00"),
+				transaction(TransactionType.DEBIT, "80.00"),
+				transaction(TransactionType.CREDIT, "10.00")));
+		assertEquals(Arrays.asList(TransactionStatus.SUCCESS, TransactionStatus.FAILED, TransactionStatus.SUCCESS),
+				statuses);
+		verify(repo, never()).debit(id, 3000L);
+	}
+
+	/**
+	 * test coalesced transactions are retried and fall back to one update
+	 * each when the account keeps changing concurrently.
+	 */
+	@Test
+	public void doProcessCoalescedConflict() {
+		Integer id = ServiceTestConfiguration.ACCOUNT_ID;
+		when(repo.findBalanceAndVersionById(id)).thenReturn(balanceAndVersion("100.00", 3L));
+		when(repo.updateBalance(id, 3L, new BigDecimal("50.00"))).thenReturn(0);
+		when(repo.debit(id, 2000L)).thenReturn(1);
+		when(repo.debit(id, 3000L)).thenReturn(1);
+		List<TransactionStatus> statuses = service.processCoalesced(id, Arrays.asList(
+				transaction(TransactionType.DEBIT, "20.00"),
+				transaction(TransactionType.DEBIT, "30.00")));
+		assertEquals(Arrays.asList(TransactionStatus.SUCCESS, TransactionStatus.SUCCESS), statuses);
+		verify(repo, times(3)).updateBalance(id, 3L, new BigDecimal("50.00"));
+	}
+
+	/**
+	 * test a batch is applied per account in order, with one balance write
+	 * per account and unknown accounts failing.
+	 */
+	@Test
+	public void doProcessTransactions() {
+		Integer id = ServiceTestConfiguration.ACCOUNT_ID;
+		List<Object[]> balances = new ArrayList<>();
+		balances.add(new Object[] { id, new BigDecimal("50.00"), ServiceTestConfiguration.USER_ID, 3L });
+		when(repo.findBalancesByIdIn(new HashSet<>(Arrays.asList(id, 999)))).thenReturn(balances);
+		when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[] { 1 });
+
+		Transaction unknown = transaction(TransactionType.CREDIT, "5.00");
+		unknown.setAccountId(999);
+		List<TransactionStatus> statuses = service.processTransactions(Arrays.asList(
+				transaction(TransactionType.DEBIT, "60.00"),
+				unknown,
+				transaction(TransactionType.CREDIT, "20.00"),
+				transaction(TransactionType.CREDIT, "-1.00"),
+				transaction(TransactionType.DEBIT, "60.00")));
+
+		assertEquals(Arrays.asList(TransactionStatus.FAILED, TransactionStatus.FAILED, TransactionStatus.SUCCESS,
+				TransactionStatus.FAILED, TransactionStatus.SUCCESS), statuses);
+		verify(jdbcTemplate).batchUpdate(anyString(), argThat((List<Object[]> updates) -> updates.size() == 1
+				&& new BigDecimal("10.00").equals(updates.get(0)[0]) && Long.valueOf(3L).equals(updates.get(0)[2])));
+		verify(ledger).saveAll(argThat((List<LedgerEntry> entries) -> entries.size() == 2));
+	}
+
+	/**
+	 * test a retried transaction with the same idempotency key gets the
+	 * original outcome without being applied again.
+	 */
+	@Test
+	public void doProcessTransactionOnce() {
+		Transaction tx = ServiceTestConfiguration.getDebitTransaction();
+		tx.setIdempotencyKey("retried");
+		when(repo.debit(tx.getAccountId(), tx.getAmountMinor())).thenReturn(1);
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+		verify(repo, times(1)).debit(tx.getAccountId(), tx.getAmountMinor());
+		verify(ledger, times(1)).save(isA(LedgerEntry.class));
+		assertEquals(1, registry.get(AccountMetrics.TRANSACTIONS).tag("outcome", AccountMetrics.DUPLICATE)
+				.timer().count());
+	}
+
+	/**
+	 * test another transaction with the idempotency key of one already
+	 * processed is a conflict rather than given its outcome, and is not
+	 * applied; while the same key on another account is another submission.
+	 */
+	@Test
+	public void doProcessTransactionConflict() {
+		Transaction tx = ServiceTestConfiguration.getDebitTransaction();
+		tx.setIdempotencyKey("reused");
+		when(repo.debit(tx.getAccountId(), tx.getAmountMinor())).thenReturn(1);
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+
+		Transaction other = ServiceTestConfiguration.getDebitTransaction();
+		other.setIdempotencyKey("reused");
+		other.setAmount(tx.getAmount().add(BigDecimal.ONE));
+		assertEquals(TransactionStatus.CONFLICT, service.processTransaction(other));
+		verify(repo, never()).debit(other.getAccountId(), other.getAmountMinor());
+		assertEquals(1, registry.get(AccountMetrics.TRANSACTIONS).tag("outcome", AccountMetrics.CONFLICT)
+				.timer().count());
+
+		Transaction elsewhere = ServiceTestConfiguration.getDebitTransaction();
+		elsewhere.setIdempotencyKey("reused");
+		elsewhere.setAccountId(tx.getAccountId() + 1);
+		when(repo.debit(elsewhere.getAccountId(), elsewhere.getAmountMinor())).thenReturn(1);
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(elsewhere));
 	}
 
+	/**
+	 * test repeats of a transaction id within coalesced transactions are
+	 * applied once.
+	 */
+	@Test
+	public void doProcessCoalescedOnce() {
+		Integer id = ServiceTestConfiguration.ACCOUNT_ID;
+		when(repo.findBalanceAndVersionById(id)).thenReturn(balanceAndVersion("100.00", 3L));
+		when(repo.updateBalance(id, 3L, new BigDecimal("40.00"))).thenReturn(1);
+		Transaction first = transaction(TransactionType.DEBIT, "30.00");
+		first.setTransactionId(1);
+		Transaction repeated = transaction(TransactionType.DEBIT, "30.00");
+		repeated.setTransactionId(1);
+		Transaction other = transaction(TransactionType.DEBIT, "30.00");
+		other.setTransactionId(2);
+		List<TransactionStatus> statuses = service.processCoalesced(id, Arrays.asList(first, repeated, other));
+		assertEquals(Arrays.asList(TransactionStatus.SUCCESS, TransactionStatus.SUCCESS, TransactionStatus.SUCCESS),
+				statuses);
+		verify(ledger).saveAll(argThat((List<LedgerEntry> entries) -> entries.size() == 2));
+	}
+
+	/**
+	 * test a transaction reusing the transaction id of another within
+	 * coalesced transactions is a conflict, and is not applied.
+	 */
+	@Test
+	public void doProcessCoalescedConflict() {
+		Integer id = ServiceTestConfiguration.ACCOUNT_ID;
+		when(repo.findBalanceAndVersionById(id)).thenReturn(balanceAndVersion("100.00", 3L));
+		when(repo.updateBalance(id, 3L, new BigDecimal("70.00"))).thenReturn(1);
+		Transaction first = transaction(TransactionType.DEBIT, "30.00");
+		first.setTransactionId(1);
+		Transaction reused = transaction(TransactionType.DEBIT, "40.00");
+		reused.setTransactionId(1);
+		List<TransactionStatus> statuses = service.processCoalesced(id, Arrays.asList(first, reused));
+		assertEquals(Arrays.asList(TransactionStatus.SUCCESS, TransactionStatus.CONFLICT), statuses);
+		verify(ledger).saveAll(argThat((List<LedgerEntry> entries) -> entries.size() == 1));
+	}
+
+	/**
+	 * test transactions of journaled accounts are applied in memory, in a
+	 * batch too, rather than by updating the account.
+	 */
+	@Test
+	public void doProcessJournaledTransactions() {
+		JournaledBalances journal = mock(JournaledBalances.class);
+		service.journal = journal;
+		Integer id = ServiceTestConfiguration.ACCOUNT_ID;
+		Transaction debit = transaction(TransactionType.DEBIT, "30.00");
+		when(journal.isJournaled(id)).thenReturn(true);
+		when(journal.apply(debit)).thenReturn(TransactionStatus.SUCCESS);
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(debit));
+		assertEquals(Arrays.asList(TransactionStatus.SUCCESS),
+				service.processTransactions(Arrays.asList(debit)));
+		verify(repo, never()).debit(id, 3000L);
+		verify(repo, never()).findBalancesByIdIn(any());
+	}
+
+	/**
+	 * test reads show the balance of journaled accounts held in memory.
+	 */
+	@Test
+	public void doFindJournaledAccount() {
+		JournaledBalances journal = mock(JournaledBalances.class);
+		service.journal = journal;
+		Account account = ServiceTestConfiguration.account();
+		when(repo.findById(account.getId())).thenReturn(Optional.of(account));
+		when(journal.balanceOf(account.getId())).thenReturn(new BigDecimal("12.34"));
+		assertEquals(new BigDecimal("12.34"), service.findAccount(account.getId()).getBalance());
+		verify(entityManager).detach(account);
+	}
+
+	/**
+	 * test applied transactions are written to the transaction log.
+	 */
+	@Test
+	public void doLogAppliedTransaction() {
+		TransactionLog transactionLog = mock(TransactionLog.class);
+		service.transactionLog = transactionLog;
+		Transaction tx = ServiceTestConfiguration.getDebitTransaction();
+		when(repo.debit(tx.getAccountId(), tx.getAmountMinor())).thenReturn(1);
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+		verify(transactionLog).appendOnCommit(Collections.singletonList(tx));
+	}
+
+	/**
+	 * test transactions are applied to balances in minor units like the
+	 * conditional updates apply them to the balance column, on seeded random
+	 * balances and amounts.
+	 */
+	@Test
+	public void doApplyInMinorUnits() {
+		BigDecimal max = Money.toBigDecimal(Money.MAX_MINOR);
+		Random random = new Random(20181101L);
+		for (int i = 0; i < 100_000; i++) {
+			long balance = random.nextLong() % (Money.MAX_MINOR + 1);
+			long amount = random.nextBoolean() ? random.nextLong() % (Money.MAX_MINOR + 1)
+					: random.nextInt(20001) - 10000;
+			Transaction tx = transaction(random.nextBoolean() ? TransactionType.DEBIT : TransactionType.CREDIT,
+					Money.toBigDecimal(amount).toPlainString());
+			BigDecimal before = Money.toBigDecimal(balance);
+			BigDecimal after = null;
+			if (tx.getType() == TransactionType.DEBIT && before.compareTo(tx.getAmount()) >= 0) {
+				after = before.subtract(tx.getAmount());
+			} else if (tx.getType() == TransactionType.CREDIT && tx.getAmount().signum() > 0) {
+				after = before.add(tx.getAmount());
+			}
+			if (after != null && after.abs().compareTo(max) > 0) {
+				after = null;
+			}
+			long applied = AccountService.apply(balance, tx);
+			assertEquals("iteration " + i + ": " + balance + " " + tx, after,
+					applied == AccountService.FAILED ? null : Money.toBigDecimal(applied));
+		}
+	}
+
+	/**
+	 * test a transaction in another currency than its account's is converted
+	 * before it is applied, with the currency of the account looked up once,
+	 * and recorded in the ledger with the amount and currency submitted.
+	 */
+	@Test
+	public void doConvertTransaction() {
+		Map<String, BigDecimal> rates = new HashMap<>();
+		rates.put("GBP", new BigDecimal("0.80"));
+		service.converter.update(ExchangeRates.of("USD", rates));
+		when(repo.findCurrencyById(ServiceTestConfiguration.ACCOUNT_ID)).thenReturn("USD");
+		when(repo.debit(ServiceTestConfiguration.ACCOUNT_ID, 1250L)).thenReturn(1);
+
+		Transaction tx = transaction(TransactionType.DEBIT, "10.00");
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+		assertEquals("USD", tx.getCurrency());
+		verify(ledger).save(argThat((LedgerEntry entry) -> new BigDecimal("12.50").equals(entry.getAmount())
+				&& "USD".equals(entry.getCurrency()) && new BigDecimal("10.00").equals(entry.getOriginalAmount())
+				&& "GBP".equals(entry.getOriginalCurrency())));
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(transaction(TransactionType.DEBIT, "10.00")));
+		verify(repo, times(1)).findCurrencyById(ServiceTestConfiguration.ACCOUNT_ID);
+	}
+
+	/**
+	 * test the currency of an account saved in lower case matches the
+	 * transactions in that currency, which are upper-cased when submitted.
+	 */
+	@Test
+	public void doMatchLowerCaseAccountCurrency() {
+		when(repo.findCurrencyById(ServiceTestConfiguration.ACCOUNT_ID)).thenReturn("gbp");
+		when(repo.debit(ServiceTestConfiguration.ACCOUNT_ID, 1000L)).thenReturn(1);
+
+		Transaction tx = transaction(TransactionType.DEBIT, "10.00");
+		assertEquals(TransactionStatus.SUCCESS, service.processTransaction(tx));
+		assertEquals("GBP", tx.getCurrency());
+		assertNull(tx.getOriginalCurrency());
+	}
+
+	/**
+	 * test a transaction without a rate to the currency of its account fails
+	 * without being applied.
+	 */
+	@Test
+	public void doFailTransactionWithoutRate() {
+		when(repo.findCurrencyById(ServiceTestConfiguration.ACCOUNT_ID)).thenReturn("USD");
+		assertEquals(TransactionStatus.FAILED,
+				service.processTransaction(transaction(TransactionType.CREDIT, "10.00")));
+		assertEquals(Arrays.asList(TransactionStatus.FAILED),
+				service.processTransactions(Arrays.asList(transaction(TransactionType.CREDIT, "10.00"))));
+		verify(repo, never()).credit(any(), anyLong());
+		verify(repo, never()).findBalancesByIdIn(any());
+		assertEquals(1, registry.get(AccountMetrics.TRANSACTIONS).tag("outcome", AccountMetrics.NO_RATE)
+				.timer().count());
+		assertEquals(1, registry.get(AccountMetrics.BATCHED_TRANSACTIONS).tag("outcome", AccountMetrics.NO_RATE)
+				.counter().count(), 0);
+	}
+
+	private static List<Object[]> balanceAndVersion(String balance, Long version) {
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { new BigDecimal(balance), version });
+		return rows;
+	}
+
+	private static void authenticate(String userId) {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("alg", "none");
+		Map<String, Object> claims = new HashMap<>();
+		claims.put("user_id", userId);
+		Jwt jwt = new Jwt("token", Instant.now(), Instant.now().plusSeconds(60), headers, claims);
+		SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+	}
+
+	private static Transaction transaction(TransactionType type, String amount) {
+		Transaction tx = new Transaction();
+		tx.setAccountId(ServiceTestConfiguration.ACCOUNT_ID);
+		tx.setAmount(new BigDecimal(amount));
+		tx.setType(type);
+		tx.setCurrency("GBP");
+		return tx;
+	}
 	
 	/**
 	 * Test Account domain object hashcode.
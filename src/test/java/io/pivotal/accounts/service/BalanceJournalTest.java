@@ -0,0 +1,229 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import io.pivotal.accounts.domain.Money;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the BalanceJournal.
+ *
+ */
+public class BalanceJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path dir;
+
+	private final List<BalanceJournal.Entry> replayed = new ArrayList<>();
+
+	private BalanceJournal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = folder.getRoot().toPath();
+		journal = new BalanceJournal(dir, 0, replayed::add);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		journal.close();
+	}
+
+	/**
+	 * test the entries after the checkpoint are replayed as appended.
+	 */
+	@Test
+	public void doReplay() throws IOException {
+		Transaction keyed = transaction(TransactionType.CREDIT, "10.50");
+		keyed.setIdempotencyKey("key");
+		keyed.setTransactionId(42);
+		keyed.setDescription("salary");
+		journal.append(transaction(TransactionType.DEBIT, "5.00"), TransactionStatus.SUCCESS, 9500L);
+		journal.append(keyed, TransactionStatus.SUCCESS, 10550L).join();
+
+		reopen(1);
+
+		assertEquals(1, replayed.size());
+		BalanceJournal.Entry entry = replayed.get(0);
+		assertEquals(2, entry.seq);
+		assertEquals(TransactionStatus.SUCCESS, entry.status);
+		assertEquals(10550L, entry.balance);
+		assertEquals(keyed, entry.transaction);
+		assertEquals("key", entry.transaction.getIdempotencyKey());
+		assertNull(entry.transaction.getOriginalAmount());
+	}
+
+	/**
+	 * test a converted transaction is replayed with the amount and currency
+	 * submitted.
+	 */
+	@Test
+	public void doReplayOriginalAmount() throws IOException {
+		Transaction converted = transaction(TransactionType.CREDIT, "8.00");
+		converted.setOriginalAmount(new BigDecimal("10.00"));
+		converted.setOriginalCurrency("EUR");
+		journal.append(converted, TransactionStatus.SUCCESS, 800L).join();
+
+		reopen(0);
+
+		assertEquals(new BigDecimal("10.00"), replayed.get(0).transaction.getOriginalAmount());
+		assertEquals("EUR", replayed.get(0).transaction.getOriginalCurrency());
+	}
+
+	/**
+	 * test a failed keyed transaction without a type is journaled and
+	 * replayed without one.
+	 */
+	@Test
+	public void doReplayWithoutType() throws IOException {
+		Transaction untyped = transaction(null, "5.00");
+		untyped.setIdempotencyKey("untyped");
+		journal.append(untyped, TransactionStatus.FAILED, 1000L).join();
+
+		reopen(0);
+
+		assertEquals(untyped, replayed.get(0).transaction);
+		assertNull(replayed.get(0).transaction.getType());
+		assertEquals(TransactionStatus.FAILED, replayed.get(0).status);
+	}
+
+	/**
+	 * test a failed keyed transaction without an amount is journaled and
+	 * replayed without one.
+	 */
+	@Test
+	public void doReplayWithoutAmount() throws IOException {
+		Transaction noAmount = transaction(TransactionType.DEBIT, "5.00");
+		noAmount.setAmount(null);
+		noAmount.setIdempotencyKey("no-amount");
+		journal.append(noAmount, TransactionStatus.FAILED, 1000L).join();
+
+		reopen(0);
+
+		assertEquals(noAmount, replayed.get(0).transaction);
+		assertNull(replayed.get(0).transaction.getAmount());
+		assertEquals(1000L, replayed.get(0).balance);
+	}
+
+	/**
+	 * test a roll returns the entries since the last roll and the closed
+	 * segments are deleted.
+	 */
+	@Test
+	public void doRoll() throws IOException {
+		journal.append(transaction(TransactionType.DEBIT, "1.00"), TransactionStatus.SUCCESS, 900L);
+		journal.append(transaction(TransactionType.DEBIT, "2.00"), TransactionStatus.SUCCESS, 700L);
+		assertEquals(2, journal.roll().size());
+		journal.append(transaction(TransactionType.DEBIT, "3.00"), TransactionStatus.SUCCESS, 400L)
+				.join();
+		journal.deleteClosedSegments();
+		assertEquals(1, segments().size());
+
+		reopen(0);
+
+		assertEquals(1, replayed.size());
+		assertEquals(3, replayed.get(0).seq);
+	}
+
+	/**
+	 * test a torn entry at the end of the journal is truncated and the
+	 * sequence continues after the last complete entry.
+	 */
+	@Test
+	public void doTruncateTornEntry() throws IOException {
+		journal.append(transaction(TransactionType.DEBIT, "1.00"), TransactionStatus.SUCCESS, 900L)
+				.join();
+		journal.close();
+		Path segment = segments().get(0);
+		long size = Files.size(segment);
+		Files.write(segment, new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+		reopen(0);
+
+		assertEquals(1, replayed.size());
+		assertEquals(size, Files.size(segment));
+		assertEquals(2, journal.append(transaction(TransactionType.DEBIT, "1.00"), TransactionStatus.SUCCESS,
+				800L).join().seq);
+	}
+
+	/**
+	 * test an entry that matches its CRC32 but whose balance is out of range
+	 * fails the journal rather than being truncated as a torn entry.
+	 */
+	@Test
+	public void doRefuseOutOfRangeEntry() throws IOException {
+		journal.append(transaction(TransactionType.CREDIT, "1.00"), TransactionStatus.SUCCESS, Money.MAX_MINOR + 1)
+				.join();
+		journal.close();
+		Path segment = segments().get(0);
+		long size = Files.size(segment);
+
+		try {
+			journal = new BalanceJournal(dir, 0, replayed::add);
+			fail("expected the journal to refuse the entry");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(size, Files.size(segment));
+	}
+
+	/**
+	 * test the sequence continues after the checkpoint when the journal is
+	 * empty.
+	 */
+	@Test
+	public void doContinueAfterCheckpoint() throws IOException {
+		journal.close();
+		journal = new BalanceJournal(dir, 41, replayed::add);
+		BalanceJournal.Entry entry = journal.append(transaction(TransactionType.DEBIT, "1.00"),
+				TransactionStatus.FAILED, 50L).join();
+		assertEquals(42, entry.seq);
+		assertNull(entry.transaction.getIdempotencyKey());
+	}
+
+	private void reopen(long checkpointed) throws IOException {
+		journal.close();
+		replayed.clear();
+		journal = new BalanceJournal(dir, checkpointed, replayed::add);
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static Transaction transaction(TransactionType type, String amount) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(1);
+		transaction.setType(type);
+		transaction.setAmount(new BigDecimal(amount));
+		transaction.setCurrency("USD");
+		transaction.setDate(new Date(1541066400000L));
+		return transaction;
+	}
+}
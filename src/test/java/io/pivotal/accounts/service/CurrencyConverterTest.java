@@ -0,0 +1,197 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.flywaydb.core.Flyway;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests for loading the exchange rates and converting transactions, against
+ * an embedded database migrated like the service's.
+ *
+ */
+public class CurrencyConverterTest {
+
+	private static final String URL = "jdbc:hsqldb:mem:exchangerates";
+
+	private static JdbcTemplate jdbcTemplate;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void migrate() {
+		Flyway.configure().dataSource(URL, "sa", "").locations("classpath:db/migration/hsqldb").load().migrate();
+		jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(URL, "sa", ""));
+	}
+
+	@Before
+	public void setUp() {
+		jdbcTemplate.update("delete from exchange_rate");
+	}
+
+	/**
+	 * test the rates are loaded from the table when no file is set.
+	 */
+	@Test
+	public void doLoadTable() {
+		jdbcTemplate.update("insert into exchange_rate (currency, rate) values (?, ?)", "EUR", new BigDecimal("0.8"));
+		jdbcTemplate.update("insert into exchange_rate (currency, rate) values (?, ?)", "GBP", new BigDecimal("0.75"));
+		CurrencyConverter converter = new CurrencyConverter(jdbcTemplate, "USD", "");
+		converter.refresh();
+
+		assertEquals(new HashSet<>(Arrays.asList("USD", "EUR", "GBP")), converter.rates().getCurrencies());
+		assertEquals(0, new BigDecimal("1.25").compareTo(converter.rates().rate("EUR", "USD")));
+	}
+
+	/**
+	 * test the rates are loaded from the file when it is set.
+	 */
+	@Test
+	public void doLoadFile() throws IOException {
+		File file = folder.newFile("rates.properties");
+		Files.write(file.toPath(), Arrays.asList("# against USD", "EUR = 0.8", "JPY=110"), StandardCharsets.UTF_8);
+		CurrencyConverter converter = new CurrencyConverter(jdbcTemplate, "USD", file.getPath());
+		converter.refresh();
+
+		assertEquals(new HashSet<>(Arrays.asList("USD", "EUR", "JPY")), converter.rates().getCurrencies());
+		assertEquals(0, new BigDecimal("137.5").compareTo(converter.rates().rate("EUR", "JPY")));
+	}
+
+	/**
+	 * test the previous rates are kept when the new ones cannot be loaded.
+	 */
+	@Test
+	public void doKeepRatesOnFailure() throws IOException {
+		File file = folder.newFile("rates.properties");
+		Files.write(file.toPath(), Arrays.asList("EUR=0.8"), StandardCharsets.UTF_8);
+		CurrencyConverter converter = new CurrencyConverter(jdbcTemplate, "USD", file.getPath());
+		converter.refresh();
+		ExchangeRates loaded = converter.rates();
+
+		Files.write(file.toPath(), Arrays.asList("EUR=-1"), StandardCharsets.UTF_8);
+		converter.refresh();
+		assertSame(loaded, converter.rates());
+
+		Files.delete(file.toPath());
+		converter.refresh();
+		assertSame(loaded, converter.rates());
+	}
+
+	/**
+	 * test a transaction is converted into the currency of its account, and
+	 * left as it is when it is in that currency or has none.
+	 */
+	@Test
+	public void doConvert() {
+		jdbcTemplate.update("insert into exchange_rate (currency, rate) values (?, ?)", "EUR", new BigDecimal("0.8"));
+		CurrencyConverter converter = new CurrencyConverter(jdbcTemplate, "USD", "");
+		converter.refresh();
+
+		Transaction transaction = transaction("10.00", "USD");
+		assertTrue(converter.convert(transaction, "EUR"));
+		assertEquals(new BigDecimal("8.00"), transaction.getAmount());
+		assertEquals("EUR", transaction.getCurrency());
+
+		transaction = transaction("10.00", "EUR");
+		assertTrue(converter.convert(transaction, "EUR"));
+		assertEquals(new BigDecimal("10.00"), transaction.getAmount());
+
+		transaction = transaction("10.00", null);
+		assertTrue(converter.convert(transaction, "EUR"));
+		assertNull(transaction.getCurrency());
+	}
+
+	/**
+	 * test a transaction without a rate to the currency of its account, or
+	 * converted out of range, is refused and left as it is.
+	 */
+	@Test
+	public void doRefuse() {
+		jdbcTemplate.update("insert into exchange_rate (currency, rate) values (?, ?)", "JPY", new BigDecimal("110"));
+		CurrencyConverter converter = new CurrencyConverter(jdbcTemplate, "USD", "");
+		converter.refresh();
+
+		Transaction transaction = transaction("10.00", "CHF");
+		assertFalse(converter.convert(transaction, "USD"));
+		assertEquals("CHF", transaction.getCurrency());
+
+		transaction = transaction("999999999999.99", "USD");
+		assertFalse(converter.convert(transaction, "JPY"));
+		assertEquals(new BigDecimal("999999999999.99"), transaction.getAmount());
+	}
+
+	/**
+	 * test the codes of the rates, the base and the account are compared in
+	 * upper case, whatever case they are given in.
+	 */
+	@Test
+	public void doConvertLowerCaseCodes() throws IOException {
+		File file = folder.newFile("rates.properties");
+		Files.write(file.toPath(), Arrays.asList("eur = 0.8", " gbp=0.75"), StandardCharsets.UTF_8);
+		CurrencyConverter converter = new CurrencyConverter(jdbcTemplate, "usd", file.getPath());
+		converter.refresh();
+
+		assertEquals(new HashSet<>(Arrays.asList("USD", "EUR", "GBP")), converter.rates().getCurrencies());
+		Transaction transaction = transaction("10.00", "EUR");
+		assertTrue(converter.convert(transaction, "usd"));
+		assertEquals(new BigDecimal("12.50"), transaction.getAmount());
+		assertEquals("USD", transaction.getCurrency());
+
+		transaction = transaction("10.00", "GBP");
+		assertTrue(converter.convert(transaction, " gbp"));
+		assertEquals(new BigDecimal("10.00"), transaction.getAmount());
+		assertNull(transaction.getOriginalCurrency());
+	}
+
+	/**
+	 * test a currency as submitted is trimmed and upper-cased, and refused
+	 * unless it is three letters.
+	 */
+	@Test
+	public void doNormalizeCurrency() {
+		Transaction transaction = transaction("10.00", " eur\t");
+		assertTrue(CurrencyConverter.normalizeCurrency(transaction));
+		assertEquals("EUR", transaction.getCurrency());
+
+		transaction = transaction("10.00", null);
+		assertTrue(CurrencyConverter.normalizeCurrency(transaction));
+		assertNull(transaction.getCurrency());
+
+		for (String invalid : Arrays.asList("", "EU", "EURO", "E1R", "\u00c9UR")) {
+			transaction = transaction("10.00", invalid);
+			assertFalse(invalid, CurrencyConverter.normalizeCurrency(transaction));
+			assertEquals(invalid, transaction.getCurrency());
+		}
+	}
+
+	private static Transaction transaction(String amount, String currency) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(1);
+		transaction.setType(TransactionType.CREDIT);
+		transaction.setAmount(new BigDecimal(amount));
+		transaction.setCurrency(currency);
+		return transaction;
+	}
+}
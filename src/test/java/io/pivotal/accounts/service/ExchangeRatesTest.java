@@ -0,0 +1,100 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import io.pivotal.accounts.domain.Money;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the exchange rate snapshots and their cross rates.
+ *
+ */
+public class ExchangeRatesTest {
+
+	private ExchangeRates rates;
+
+	@Before
+	public void setUp() {
+		Map<String, BigDecimal> against = new HashMap<>();
+		against.put("EUR", new BigDecimal("0.8"));
+		against.put("GBP", new BigDecimal("0.75"));
+		against.put("JPY", new BigDecimal("110"));
+		against.put("USD", new BigDecimal("2"));
+		rates = ExchangeRates.of("USD", against);
+	}
+
+	/**
+	 * test cross rates between currencies other than the base.
+	 */
+	@Test
+	public void doCrossRates() {
+		assertEquals(0, new BigDecimal("0.9375").compareTo(rates.rate("EUR", "GBP")));
+		assertEquals(0, new BigDecimal("137.5").compareTo(rates.rate("EUR", "JPY")));
+		assertEquals(0, BigDecimal.ONE.compareTo(rates.rate("USD", "USD")));
+		assertEquals(0, new BigDecimal("1.25").compareTo(rates.rate("EUR", "USD")));
+		assertNull(rates.rate("EUR", "CHF"));
+	}
+
+	/**
+	 * test amounts are converted in minor units and rounded half up.
+	 */
+	@Test
+	public void doConvert() {
+		assertEquals(1000, rates.convert(1000, "EUR", "EUR"));
+		assertEquals(938, rates.convert(1000, "EUR", "GBP"));
+		assertEquals(-938, rates.convert(-1000, "EUR", "GBP"));
+		assertEquals(1, rates.convert(1, "GBP", "EUR"));
+		assertEquals(ExchangeRates.NO_RATE, rates.convert(1000, "CHF", "EUR"));
+		assertEquals(ExchangeRates.NO_RATE, ExchangeRates.none("USD").convert(1000, "USD", "EUR"));
+	}
+
+	/**
+	 * test an amount of money is converted into the other currency.
+	 */
+	@Test
+	public void doConvertMoney() {
+		assertEquals(Money.ofMinor(938, "GBP"), rates.convert(Money.ofMinor(1000, "EUR"), "GBP"));
+		assertEquals(Money.ofMinor(1000, "EUR"), rates.convert(Money.ofMinor(1000, "EUR"), "EUR"));
+		assertNull(rates.convert(Money.ofMinor(1000, "CHF"), "EUR"));
+	}
+
+	/**
+	 * test converting there and back is within a minor unit per conversion
+	 * of the original amount, on seeded random amounts.
+	 */
+	@Test
+	public void doConvertBack() {
+		Random random = new Random(20181101L);
+		for (int i = 0; i < 10_000; i++) {
+			long minor = random.nextLong() % 100_000_000_000L;
+			long back = rates.convert(rates.convert(minor, "GBP", "EUR"), "EUR", "GBP");
+			assertEquals("iteration " + i + ": " + minor, minor, back, 1);
+		}
+	}
+
+	/**
+	 * test a converted amount beyond the amount column is rejected.
+	 */
+	@Test(expected = ArithmeticException.class)
+	public void doRejectOutOfRange() {
+		rates.convert(Money.MAX_MINOR, "EUR", "JPY");
+	}
+
+	/**
+	 * test rates that are not positive are rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void doRejectNonPositiveRate() {
+		Map<String, BigDecimal> against = new HashMap<>();
+		against.put("EUR", BigDecimal.ZERO);
+		ExchangeRates.of("USD", against);
+	}
+}
@@ -0,0 +1,167 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+
+import org.flywaydb.core.Flyway;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Tests for the idempotency keys, against an embedded database migrated like
+ * the service's. Each store stands for a fresh instance of the service, so
+ * outcomes it finds come from the table rather than its own cache.
+ *
+ */
+public class IdempotencyStoreTest {
+
+	private static final String URL = "jdbc:hsqldb:mem:idempotency";
+
+	private static final long TTL = 60000;
+
+	private static final Instant NOW = Instant.parse("2018-11-01T10:00:00Z");
+
+	private static JdbcTemplate jdbcTemplate;
+
+	@BeforeClass
+	public static void migrate() {
+		Flyway.configure().dataSource(URL, "sa", "").locations("classpath:db/migration/hsqldb").load().migrate();
+		jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(URL, "sa", ""));
+	}
+
+	@Before
+	public void setUp() {
+		jdbcTemplate.update("delete from idempotency_key");
+	}
+
+	/**
+	 * test the key is the header, else the transaction id, behind the
+	 * account id.
+	 */
+	@Test
+	public void doKeyOf() {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(3);
+		assertNull(IdempotencyStore.keyOf(transaction));
+		transaction.setTransactionId(7);
+		assertEquals("3:" + IdempotencyStore.TRANSACTION_ID_PREFIX + 7, IdempotencyStore.keyOf(transaction));
+		transaction.setIdempotencyKey("client-key");
+		assertEquals("3:client-key", IdempotencyStore.keyOf(transaction));
+		transaction.setAccountId(4);
+		assertEquals("4:client-key", IdempotencyStore.keyOf(transaction));
+	}
+
+	/**
+	 * test the fingerprint is of the account, type, amount and currency as
+	 * submitted, before the amount is converted.
+	 */
+	@Test
+	public void doFingerprintOf() {
+		Transaction transaction = transaction(3, "10.00", "USD");
+		String fingerprint = IdempotencyStore.fingerprintOf(transaction);
+		assertEquals(64, fingerprint.length());
+		assertEquals(fingerprint, IdempotencyStore.fingerprintOf(transaction(3, "10.00", "USD")));
+		assertNotEquals(fingerprint, IdempotencyStore.fingerprintOf(transaction(4, "10.00", "USD")));
+		assertNotEquals(fingerprint, IdempotencyStore.fingerprintOf(transaction(3, "10.01", "USD")));
+		assertNotEquals(fingerprint, IdempotencyStore.fingerprintOf(transaction(3, "10.00", "EUR")));
+
+		transaction.setOriginalAmount(transaction.getAmount());
+		transaction.setOriginalCurrency(transaction.getCurrency());
+		transaction.setAmount(new BigDecimal("8.00"));
+		transaction.setCurrency("EUR");
+		assertEquals(fingerprint, IdempotencyStore.fingerprintOf(transaction));
+	}
+
+	/**
+	 * test an outcome recorded by one instance is found by another.
+	 */
+	@Test
+	public void doFindRecorded() {
+		store(NOW).record("recorded", 1, TransactionStatus.FAILED, "fingerprint");
+		assertEquals(TransactionStatus.FAILED, store(NOW.plusMillis(TTL - 1)).find("recorded", "fingerprint"));
+		assertNull(store(NOW).find("unknown", "fingerprint"));
+	}
+
+	/**
+	 * test a key found with another fingerprint than the one recorded is a
+	 * conflict, and one recorded without a fingerprint is not checked.
+	 */
+	@Test
+	public void doFindConflict() {
+		store(NOW).record("conflicting", 1, TransactionStatus.SUCCESS, "fingerprint");
+		assertEquals(TransactionStatus.CONFLICT, store(NOW).find("conflicting", "other"));
+		assertEquals(TransactionStatus.SUCCESS, store(NOW).find("conflicting", "fingerprint"));
+
+		store(NOW).record("unchecked", 1, TransactionStatus.SUCCESS, null);
+		assertEquals(TransactionStatus.SUCCESS, store(NOW).find("unchecked", "other"));
+	}
+
+	/**
+	 * test an outcome is forgotten once the key expires.
+	 */
+	@Test
+	public void doExpire() {
+		store(NOW).record("expiring", 1, TransactionStatus.SUCCESS, "fingerprint");
+		assertNull(store(NOW.plusMillis(TTL)).find("expiring", "fingerprint"));
+	}
+
+	/**
+	 * test a key recorded concurrently by another instance is a duplicate.
+	 */
+	@Test(expected = DuplicateKeyException.class)
+	public void doRecordDuplicate() {
+		store(NOW).record("duplicate", 1, TransactionStatus.SUCCESS, "fingerprint");
+		store(NOW.plusMillis(1)).record("duplicate", 1, TransactionStatus.SUCCESS, "fingerprint");
+	}
+
+	/**
+	 * test an expired key that is not purged yet can be used again.
+	 */
+	@Test
+	public void doRecordExpired() {
+		store(NOW).record("reused", 1, TransactionStatus.FAILED, "fingerprint");
+		IdempotencyStore later = store(NOW.plusMillis(TTL));
+		later.record("reused", 1, TransactionStatus.SUCCESS, "fingerprint");
+		assertEquals(TransactionStatus.SUCCESS, later.find("reused", "fingerprint"));
+	}
+
+	/**
+	 * test the purge deletes the expired keys only.
+	 */
+	@Test
+	public void doPurge() {
+		store(NOW).record("old", 1, TransactionStatus.SUCCESS, "fingerprint");
+		store(NOW.plusMillis(TTL / 2)).record("new", 1, TransactionStatus.SUCCESS, "fingerprint");
+		store(NOW.plusMillis(TTL)).purge();
+		assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject("select count(*) from idempotency_key",
+				Integer.class));
+		assertEquals(TransactionStatus.SUCCESS, store(NOW.plusMillis(TTL)).find("new", "fingerprint"));
+	}
+
+	private static Transaction transaction(Integer accountId, String amount, String currency) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(accountId);
+		transaction.setType(TransactionType.CREDIT);
+		transaction.setAmount(new BigDecimal(amount));
+		transaction.setCurrency(currency);
+		return transaction;
+	}
+
+	private static IdempotencyStore store(Instant now) {
+		return new IdempotencyStore(jdbcTemplate, TTL, 100, Clock.fixed(now, ZoneOffset.UTC));
+	}
+}
@@ -0,0 +1,261 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+import io.pivotal.accounts.configuration.ServiceTestConfiguration;
+import io.pivotal.accounts.domain.LedgerEntry;
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+import io.pivotal.accounts.domain.TransactionType;
+import io.pivotal.accounts.event.AccountChangedEvent;
+import io.pivotal.accounts.repository.AccountRepository;
+import io.pivotal.accounts.repository.LedgerRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for the JournaledBalances.
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JournaledBalancesTest {
+
+	private static final Integer ID = ServiceTestConfiguration.ACCOUNT_ID;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Mock
+	AccountRepository accounts;
+
+	@Mock
+	LedgerRepository ledger;
+
+	@Mock
+	JdbcTemplate jdbcTemplate;
+
+	@Mock
+	PlatformTransactionManager transactionManager;
+
+	@Mock
+	ApplicationEventPublisher publisher;
+
+	@Mock
+	IdempotencyStore idempotency;
+
+	private JournaledBalances balances;
+
+	@Before
+	public void setUp() throws IOException {
+		when(jdbcTemplate.queryForList(anyString(), eq(Long.class), any())).thenReturn(Collections.emptyList());
+		when(accounts.findBalancesByIdIn(anyCollection())).thenReturn(Collections.singletonList(
+				new Object[] { ID, new BigDecimal("100.00"), ServiceTestConfiguration.USER_ID, 3L }));
+		balances = open();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		balances.close();
+	}
+
+	/**
+	 * test transactions of journaled accounts are applied in memory.
+	 */
+	@Test
+	public void doApply() {
+		assertEquals(true, balances.isJournaled(ID));
+		assertEquals(false, balances.isJournaled(ID + 1));
+		assertNull(balances.balanceOf(ID));
+		assertEquals(TransactionStatus.SUCCESS, balances.apply(transaction(TransactionType.DEBIT, "30.00")));
+		assertEquals(TransactionStatus.FAILED, balances.apply(transaction(TransactionType.DEBIT, "80.00")));
+		assertEquals(TransactionStatus.SUCCESS, balances.apply(transaction(TransactionType.CREDIT, "5.00")));
+		assertEquals(new BigDecimal("75.00"), balances.balanceOf(ID));
+		verify(accounts, never()).debit(any(), anyLong());
+		verify(publisher, times(2)).publishEvent(argThat((AccountChangedEvent event) -> ID.equals(event.getAccountId())
+				&& Long.valueOf(3L).equals(event.getVersion())));
+	}
+
+	/**
+	 * test a retried transaction with the same key is not applied again
+	 * before it is checkpointed.
+	 */
+	@Test
+	public void doApplyOnce() {
+		Transaction transaction = transaction(TransactionType.DEBIT, "30.00");
+		transaction.setIdempotencyKey("retried");
+		assertEquals(TransactionStatus.SUCCESS, balances.apply(transaction));
+		assertEquals(TransactionStatus.SUCCESS, balances.apply(transaction));
+		assertEquals(new BigDecimal("70.00"), balances.balanceOf(ID));
+	}
+
+	/**
+	 * test another transaction with the key of one not checkpointed yet is a
+	 * conflict, and is not applied.
+	 */
+	@Test
+	public void doApplyConflict() {
+		Transaction transaction = transaction(TransactionType.DEBIT, "30.00");
+		transaction.setIdempotencyKey("reused");
+		Transaction other = transaction(TransactionType.DEBIT, "40.00");
+		other.setIdempotencyKey("reused");
+		assertEquals(TransactionStatus.SUCCESS, balances.apply(transaction));
+		assertEquals(TransactionStatus.CONFLICT, balances.apply(other));
+		assertEquals(new BigDecimal("70.00"), balances.balanceOf(ID));
+	}
+
+	/**
+	 * test the latest balances, ledger entries and keys are written with the
+	 * sequence number of the last entry, and the change is published with the
+	 * version it left the account at.
+	 */
+	@Test
+	public void doCheckpoint() {
+		Transaction keyed = transaction(TransactionType.DEBIT, "80.00");
+		keyed.setIdempotencyKey("failed");
+		balances.apply(transaction(TransactionType.DEBIT, "30.00"));
+		balances.apply(keyed);
+		balances.apply(transaction(TransactionType.DEBIT, "20.00"));
+		when(accounts.findBalancesByIdIn(anyCollection())).thenReturn(Collections.singletonList(
+				new Object[] { ID, new BigDecimal("50.00"), ServiceTestConfiguration.USER_ID, 4L }));
+
+		balances.checkpoint();
+
+		verify(jdbcTemplate).batchUpdate(anyString(), argThat((List<Object[]> updates) -> updates.size() == 1
+				&& new BigDecimal("50.00").equals(updates.get(0)[0]) && ID.equals(updates.get(0)[1])));
+		verify(ledger).saveAll(argThat((List<LedgerEntry> entries) -> entries.size() == 2));
+		verify(idempotency).record(ID + ":failed", ID, TransactionStatus.FAILED,
+				IdempotencyStore.fingerprintOf(keyed));
+		verify(jdbcTemplate).update(anyString(), eq("test"), eq(3L));
+		verify(publisher).publishEvent(argThat((AccountChangedEvent event) -> ID.equals(event.getAccountId())
+				&& Long.valueOf(4L).equals(event.getVersion())));
+	}
+
+	/**
+	 * test a key recorded already when it is checkpointed keeps its outcome,
+	 * and the rest of the entries are checkpointed rather than retried.
+	 */
+	@Test
+	public void doCheckpointRecordedKey() {
+		Transaction keyed = transaction(TransactionType.DEBIT, "30.00");
+		keyed.setIdempotencyKey("recorded");
+		balances.apply(keyed);
+		doThrow(new DuplicateKeyException("recorded")).when(idempotency).record(eq(ID + ":recorded"), eq(ID),
+				eq(TransactionStatus.SUCCESS), anyString());
+
+		balances.checkpoint();
+
+		verify(ledger).saveAll(argThat((List<LedgerEntry> entries) -> entries.size() == 1));
+		verify(jdbcTemplate).update(anyString(), eq("test"), eq(1L));
+	}
+
+	/**
+	 * test entries the database refuses for their data are not retried, and
+	 * transactions of journaled accounts fail from then on.
+	 */
+	@Test
+	public void doQuarantine() {
+		balances.apply(transaction(TransactionType.DEBIT, "30.00"));
+		doThrow(new DataIntegrityViolationException("too long")).when(ledger).saveAll(any());
+
+		balances.checkpoint();
+		balances.checkpoint();
+
+		verify(ledger, times(1)).saveAll(any());
+		assertEquals(new BigDecimal("70.00"), balances.balanceOf(ID));
+		try {
+			balances.apply(transaction(TransactionType.DEBIT, "30.00"));
+			fail("expected the transaction to fail");
+		} catch (IllegalStateException e) {
+			assertEquals(new BigDecimal("70.00"), balances.balanceOf(ID));
+		}
+	}
+
+	/**
+	 * test a checkpoint failing on the database is retried with the next.
+	 */
+	@Test
+	public void doRetryCheckpoint() {
+		balances.apply(transaction(TransactionType.DEBIT, "30.00"));
+		doThrow(new CannotGetJdbcConnectionException("down")).doReturn(Collections.emptyList()).when(ledger)
+				.saveAll(any());
+
+		balances.checkpoint();
+		balances.checkpoint();
+
+		verify(ledger, times(2)).saveAll(any());
+		verify(jdbcTemplate).update(anyString(), eq("test"), eq(1L));
+	}
+
+	/**
+	 * test the entries not checkpointed are replayed and checkpointed when
+	 * the journal is opened again.
+	 */
+	@Test
+	public void doReplay() throws IOException {
+		balances.apply(transaction(TransactionType.DEBIT, "30.00"));
+
+		JournaledBalances restarted = open();
+		try {
+			assertEquals(new BigDecimal("70.00"), restarted.balanceOf(ID));
+			verify(jdbcTemplate).batchUpdate(anyString(), argThat((List<Object[]> updates) -> updates.size() == 1
+					&& new BigDecimal("70.00").equals(updates.get(0)[0])));
+		} finally {
+			restarted.close();
+		}
+	}
+
+	private JournaledBalances open() throws IOException {
+		JournaledBalances opened = new JournaledBalances();
+		opened.accounts = accounts;
+		opened.ledger = ledger;
+		opened.jdbcTemplate = jdbcTemplate;
+		opened.transactionManager = transactionManager;
+		opened.publisher = publisher;
+		opened.idempotency = idempotency;
+		opened.dir = folder.getRoot().getPath();
+		opened.name = "test";
+		opened.accountIds = ID + ", 999";
+		opened.open();
+		return opened;
+	}
+
+	private static Transaction transaction(TransactionType type, String amount) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(ID);
+		transaction.setType(type);
+		transaction.setAmount(new BigDecimal(amount));
+		transaction.setCurrency("USD");
+		return transaction;
+	}
+}
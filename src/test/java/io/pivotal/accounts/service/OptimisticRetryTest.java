@@ -0,0 +1,88 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.accounts.configuration.ServiceTestConfiguration;
+import io.pivotal.accounts.domain.Account;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+/**
+ * Tests for the OptimisticRetry.
+ *
+ */
+public class OptimisticRetryTest {
+
+	private MeterRegistry registry;
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+		registry = new SimpleMeterRegistry();
+	}
+
+	/**
+	 * test the work is retried until it succeeds.
+	 */
+	@Test
+	public void doRetryUntilSuccess() {
+		OptimisticRetry retry = new OptimisticRetry(registry, 5, 1, 2, 1.0);
+		assertEquals("done", retry.execute(ServiceTestConfiguration.ACCOUNT_ID, () -> conflictTimes(2)));
+		assertEquals(3, calls.get());
+		assertEquals(2.0, count("accounts.optimistic.conflicts"), 0);
+		assertEquals(2.0, count("accounts.optimistic.retries"), 0);
+	}
+
+	/**
+	 * test retries stop after the maximum number of attempts.
+	 */
+	@Test
+	public void doGiveUpAfterMaxAttempts() {
+		OptimisticRetry retry = new OptimisticRetry(registry, 3, 0, 0, 1.0);
+		try {
+			retry.execute(ServiceTestConfiguration.ACCOUNT_ID, () -> conflictTimes(10));
+			fail("expected an optimistic locking failure");
+		} catch (OptimisticLockingFailureException e) {
+			assertEquals(3, calls.get());
+			assertEquals(1.0, registry.get("accounts.optimistic.exhausted").tag("reason", "attempts")
+					.counter().count(), 0);
+		}
+	}
+
+	/**
+	 * test retries stop when the shared retry budget is spent.
+	 */
+	@Test
+	public void doGiveUpWhenBudgetSpent() {
+		OptimisticRetry retry = new OptimisticRetry(registry, 1000, 0, 0, 0.0);
+		try {
+			retry.execute(ServiceTestConfiguration.ACCOUNT_ID, () -> conflictTimes(1000));
+			fail("expected an optimistic locking failure");
+		} catch (OptimisticLockingFailureException e) {
+			// the initial budget allows 10 retries
+			assertEquals(11, calls.get());
+			assertEquals(1.0, registry.get("accounts.optimistic.exhausted").tag("reason", "budget")
+					.counter().count(), 0);
+		}
+	}
+
+	private String conflictTimes(int conflicts) {
+		if (calls.incrementAndGet() <= conflicts) {
+			throw new ObjectOptimisticLockingFailureException(Account.class, ServiceTestConfiguration.ACCOUNT_ID);
+		}
+		return "done";
+	}
+
+	private double count(String name) {
+		return registry.get(name).tag("account", ServiceTestConfiguration.ACCOUNT_ID.toString()).counter().count();
+	}
+}
@@ -0,0 +1,29 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+/**
+ * Tests for the PayloadLog.
+ *
+ */
+public class PayloadLogTest {
+
+	/**
+	 * test the sample rate is configured per endpoint, with a default.
+	 */
+	@Test
+	public void doSamplePerEndpoint() {
+		PayloadLog log = new PayloadLog(new MockEnvironment()
+				.withProperty("accounts.logging.payload-sample-rate.default", "0")
+				.withProperty("accounts.logging.payload-sample-rate.findAccount", "1"));
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(log.sampled(PayloadLog.FIND_ACCOUNT));
+			assertFalse(log.sampled(PayloadLog.FIND_ACCOUNTS));
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package io.pivotal.accounts.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.pivotal.accounts.domain.Transaction;
+import io.pivotal.accounts.domain.TransactionStatus;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for the StripedTransactionExecutor.
+ *
+ */
+public class StripedTransactionExecutorTest {
+
+	private StripedTransactionExecutor executor;
+
+	@After
+	public void tearDown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * test an Error thrown by the handler fails the transactions it was given
+	 * and the stripe carries on with the next ones.
+	 */
+	@Test
+	public void doSurviveError() throws Exception {
+		executor = new StripedTransactionExecutor(1, 8, (accountId, transactions) -> {
+			if (accountId == 1) {
+				throw new StackOverflowError();
+			}
+			return Collections.nCopies(transactions.size(), TransactionStatus.SUCCESS);
+		});
+
+		try {
+			executor.submit(transaction(1)).get(5, TimeUnit.SECONDS);
+			fail("expected the transaction to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof StackOverflowError);
+		}
+		assertEquals(TransactionStatus.SUCCESS, executor.submit(transaction(2)).get(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * test a handler returning too few outcomes fails the transactions rather
+	 * than leaving them waiting.
+	 */
+	@Test
+	public void doFailMissingOutcomes() throws InterruptedException, TimeoutException {
+		executor = new StripedTransactionExecutor(1, 8, (accountId, transactions) -> Collections.emptyList());
+
+		try {
+			executor.submit(transaction(1)).get(5, TimeUnit.SECONDS);
+			fail("expected the transaction to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+		}
+	}
+
+	/**
+	 * test the stripe threads are created by the given thread factory, as
+	 * the virtual thread factory is given when virtual threads are enabled.
+	 */
+	@Test
+	public void doUseThreadFactory() throws Exception {
+		List<Thread> created = new CopyOnWriteArrayList<>();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "test-stripe-" + created.size());
+			thread.setDaemon(true);
+			created.add(thread);
+			return thread;
+		};
+		executor = new StripedTransactionExecutor(2, 8, (accountId, transactions) -> {
+			assertTrue(Thread.currentThread().getName(), created.contains(Thread.currentThread()));
+			return Collections.nCopies(transactions.size(), TransactionStatus.SUCCESS);
+		}, threadFactory);
+
+		assertEquals(2, created.size());
+		for (int accountId = 1; accountId <= 4; accountId++) {
+			assertEquals(TransactionStatus.SUCCESS, executor.submit(transaction(accountId)).get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	private static Transaction transaction(int accountId) {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(accountId);
+		return transaction;
+	}
+}